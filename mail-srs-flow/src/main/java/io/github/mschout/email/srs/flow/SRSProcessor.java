@@ -0,0 +1,295 @@
+package io.github.mschout.email.srs.flow;
+
+import io.github.mschout.email.srs.SRS;
+import io.github.mschout.email.srs.SRSResult;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import lombok.Builder;
+
+/**
+ * A {@link Flow.Processor} that forwards or reverses each address it receives, and publishes one {@link SRSResult}
+ * per address, in order.
+ * <p>
+ * Addresses that can not be rewritten give a failed result, and the stream goes on.  Only an error from upstream ends
+ * it with an error.  The processor takes no more from upstream than a couple of batches ahead of what it has
+ * published, and publishes no more than its subscriber has asked for, so it needs no buffering around it.
+ * <p>
+ * Addresses are rewritten in batches of up to {@code batchSize}, as far as the subscriber has asked for, with
+ * {@link SRS#forwardAll(String[], String)} or {@link SRS#reverseAll(String[])} in one task on the executor.  A batch
+ * runs on one thread, so its keyed hash engines and the current timestamp are set up once and reused for the whole
+ * batch.  Each processor has one subscriber.
+ */
+public final class SRSProcessor implements Flow.Processor<String, SRSResult> {
+
+  public enum Operation {
+    /** Rewrite each sender address for forwarding through the alias */
+    FORWARD,
+    /** Reverse each SRS address to the address it was made from */
+    REVERSE
+  }
+
+  private static final Flow.Subscription NO_SUBSCRIPTION = new Flow.Subscription() {
+    @Override
+    public void request(long n) {}
+
+    @Override
+    public void cancel() {}
+  };
+
+  private final SRS srs;
+
+  private final Operation operation;
+
+  private final String alias;
+
+  private final int batchSize;
+
+  private final Executor executor;
+
+  // Addresses asked for from upstream, and after how many taken from the queue to ask for more
+  private final int prefetch;
+
+  private final int replenish;
+
+  private final Queue<String> queue = new ConcurrentLinkedQueue<>();
+
+  // Results asked for by the subscriber and not published yet
+  private final AtomicLong demand = new AtomicLong();
+
+  // Number of times the drain loop has been asked to run, so that it only runs on one thread at a time
+  private final AtomicInteger wip = new AtomicInteger();
+
+  private final AtomicReference<Flow.Subscriber<? super SRSResult>> claimed = new AtomicReference<>();
+
+  // The subscriber, once it has been told about its subscription
+  private volatile Flow.Subscriber<? super SRSResult> downstream;
+
+  private volatile Flow.Subscription upstream;
+
+  private volatile boolean done;
+
+  private volatile Throwable error;
+
+  // Set when the subscriber asked for a number of results that is not positive
+  private volatile IllegalArgumentException badRequest;
+
+  // Set when the subscriber cancelled or was sent a terminal signal
+  private volatile boolean cancelled;
+
+  // Addresses taken from the queue since upstream was last asked for more, only used by the drain loop
+  private int consumed;
+
+  /**
+   * Create a processor.
+   * @param srs the SRS instance to rewrite with
+   * @param operation what to do with each address, defaults to {@link Operation#REVERSE}
+   * @param alias local address or alias that forwarded addresses are rewritten to, only used to forward
+   * @param batchSize most addresses rewritten in one task, defaults to 256
+   * @param executor executor that addresses are rewritten on, defaults to the common fork-join pool
+   */
+  @Builder
+  private SRSProcessor(SRS srs, Operation operation, String alias, Integer batchSize, Executor executor) {
+    this.srs = Objects.requireNonNull(srs, "srs");
+    this.operation = operation != null ? operation : Operation.REVERSE;
+    this.alias = alias;
+    this.batchSize = batchSize != null ? batchSize : 256;
+    this.executor = executor != null ? executor : ForkJoinPool.commonPool();
+
+    if (this.operation == Operation.FORWARD && alias == null) throw new IllegalArgumentException("Forwarding needs an alias");
+    if (this.batchSize < 1) throw new IllegalArgumentException("batchSize must be at least 1, not " + this.batchSize);
+
+    this.prefetch = this.batchSize * 2;
+    this.replenish = this.batchSize;
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super SRSResult> subscriber) {
+    Objects.requireNonNull(subscriber, "subscriber");
+
+    if (!claimed.compareAndSet(null, subscriber)) {
+      subscriber.onSubscribe(NO_SUBSCRIPTION);
+      subscriber.onError(new IllegalStateException("An SRSProcessor only has one subscriber"));
+      return;
+    }
+
+    subscriber.onSubscribe(new Subscription());
+    downstream = subscriber;
+    drain();
+  }
+
+  @Override
+  public void onSubscribe(Flow.Subscription subscription) {
+    if (upstream != null) {
+      subscription.cancel();
+      return;
+    }
+
+    upstream = subscription;
+
+    if (cancelled) {
+      subscription.cancel();
+    } else {
+      subscription.request(prefetch);
+    }
+  }
+
+  @Override
+  public void onNext(String address) {
+    queue.offer(Objects.requireNonNull(address, "address"));
+    drain();
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    error = Objects.requireNonNull(throwable, "throwable");
+    done = true;
+    drain();
+  }
+
+  @Override
+  public void onComplete() {
+    done = true;
+    drain();
+  }
+
+  private void drain() {
+    if (wip.getAndIncrement() != 0) return;
+
+    try {
+      executor.execute(this::drainLoop);
+    } catch (RejectedExecutionException e) {
+      drainLoop();
+    }
+  }
+
+  private void drainLoop() {
+    int missed = 1;
+
+    while (true) {
+      Flow.Subscriber<? super SRSResult> subscriber = downstream;
+
+      if (cancelled) {
+        queue.clear();
+      } else if (subscriber != null) {
+        if (badRequest != null) {
+          terminate();
+          subscriber.onError(badRequest);
+        } else {
+          publish(subscriber);
+        }
+      }
+
+      missed = wip.addAndGet(-missed);
+
+      if (missed == 0) return;
+    }
+  }
+
+  // Rewrite and publish as many addresses as have arrived and been asked for, then pass on the end of the stream
+  private void publish(Flow.Subscriber<? super SRSResult> subscriber) {
+    long wanted = demand.get();
+    long published = 0;
+
+    while (published < wanted && !cancelled) {
+      String[] batch = poll((int) Math.min(batchSize, wanted - published));
+
+      if (batch.length == 0) break;
+
+      List<SRSResult> results = operation == Operation.FORWARD ? srs.forwardAll(batch, alias) : srs.reverseAll(batch);
+
+      for (SRSResult result : results) {
+        if (cancelled) return;
+
+        subscriber.onNext(result);
+      }
+
+      published += batch.length;
+      request(batch.length);
+    }
+
+    if (published > 0 && wanted != Long.MAX_VALUE) demand.addAndGet(-published);
+
+    // upstream signals are serialized, so everything sent before done is already queued
+    boolean finished = done;
+
+    if (finished && queue.isEmpty() && !cancelled) {
+      terminate();
+
+      Throwable failure = error;
+
+      if (failure != null) subscriber.onError(failure); else subscriber.onComplete();
+    }
+  }
+
+  private String[] poll(int count) {
+    String[] batch = new String[count];
+    int taken = 0;
+
+    while (taken < count) {
+      String address = queue.poll();
+
+      if (address == null) break;
+
+      batch[taken++] = address;
+    }
+
+    return taken == count ? batch : Arrays.copyOf(batch, taken);
+  }
+
+  // Ask upstream for more once enough has been taken from the queue
+  private void request(int taken) {
+    consumed += taken;
+
+    if (consumed >= replenish) {
+      Flow.Subscription subscription = upstream;
+
+      if (subscription != null) subscription.request(consumed);
+
+      consumed = 0;
+    }
+  }
+
+  // Nothing more goes to the subscriber
+  private void terminate() {
+    cancelled = true;
+    queue.clear();
+  }
+
+  private final class Subscription implements Flow.Subscription {
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        badRequest = new IllegalArgumentException("Subscribers must request a positive number of results, not " + n);
+        cancelUpstream();
+      } else {
+        demand.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+      }
+
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+      cancelUpstream();
+      drain();
+    }
+
+    private void cancelUpstream() {
+      Flow.Subscription subscription = upstream;
+
+      if (subscription != null) subscription.cancel();
+    }
+  }
+}
@@ -0,0 +1,175 @@
+package io.github.mschout.email.srs.flow;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.github.mschout.email.srs.SRS;
+import io.github.mschout.email.srs.SRSResult;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class SRSProcessorTest {
+  private final SRS srs = new SRS(SRS.Type.GUARDED, "flow-secret");
+
+  @Test
+  void rewritesInOrderWithinDemand() throws Exception {
+    SRSProcessor forward = SRSProcessor.builder().srs(srs).operation(SRSProcessor.Operation.FORWARD).alias("alias@forwarder.net").build();
+    SRSProcessor reverse = SRSProcessor.builder().srs(srs).batchSize(16).build();
+    SubmissionPublisher<String> publisher = new SubmissionPublisher<>();
+    SubmissionPublisher<String> middle = new SubmissionPublisher<>();
+    Collector collector = new Collector(7);
+
+    publisher.subscribe(forward);
+    forward.subscribe(new Flow.Subscriber<SRSResult>() {
+      @Override
+      public void onSubscribe(Flow.Subscription subscription) {
+        subscription.request(Long.MAX_VALUE);
+      }
+
+      @Override
+      public void onNext(SRSResult item) {
+        middle.submit(item.isSuccess() ? item.getAddress() : "");
+      }
+
+      @Override
+      public void onError(Throwable throwable) {
+        middle.closeExceptionally(throwable);
+      }
+
+      @Override
+      public void onComplete() {
+        middle.close();
+      }
+    });
+    middle.subscribe(reverse);
+    reverse.subscribe(collector);
+
+    for (int i = 0; i < 1000; i++) publisher.submit(i == 500 ? "not-an-address" : "user" + i + "@example.com");
+
+    publisher.close();
+
+    assertTrue(collector.completed.await(30, TimeUnit.SECONDS), "Stream completes");
+    assertNull(collector.error);
+    assertEquals(1000, collector.results.size());
+    assertFalse(collector.overrun, "Never more results than requested");
+
+    for (int i = 0; i < 1000; i++) {
+      SRSResult result = collector.results.get(i);
+
+      if (i == 500) {
+        assertFalse(result.isSuccess(), "Failures are results, and the stream goes on");
+      } else {
+        assertEquals("user" + i + "@example.com", result.getAddress());
+      }
+    }
+  }
+
+  @Test
+  void upstreamErrorsAndBadRequests() throws Exception {
+    SRSProcessor processor = SRSProcessor.builder().srs(srs).build();
+    Collector collector = new Collector(Long.MAX_VALUE);
+    AtomicLong upstreamDemand = new AtomicLong();
+
+    processor.onSubscribe(new Flow.Subscription() {
+      @Override
+      public void request(long n) {
+        upstreamDemand.addAndGet(n);
+      }
+
+      @Override
+      public void cancel() {}
+    });
+    processor.subscribe(collector);
+
+    assertEquals(512, upstreamDemand.get(), "Two batches are asked for ahead");
+
+    processor.onNext(srs.forward("jdoe@example.com", "alias@forwarder.net"));
+    processor.onError(new IllegalStateException("upstream failed"));
+
+    assertTrue(collector.completed.await(30, TimeUnit.SECONDS));
+    assertEquals("jdoe@example.com", collector.results.get(0).getAddress(), "Addresses before the error are published");
+    assertEquals("upstream failed", collector.error.getMessage());
+
+    Collector second = new Collector(1);
+    processor.subscribe(second);
+    assertTrue(second.error instanceof IllegalStateException, "Only one subscriber");
+
+    SRSProcessor unasked = SRSProcessor.builder().srs(srs).build();
+    Collector bad = new Collector(0);
+    CompletableFuture<Boolean> upstreamCancelled = new CompletableFuture<>();
+
+    unasked.onSubscribe(new Flow.Subscription() {
+      @Override
+      public void request(long n) {}
+
+      @Override
+      public void cancel() {
+        upstreamCancelled.complete(true);
+      }
+    });
+    unasked.subscribe(bad);
+
+    assertTrue(bad.completed.await(30, TimeUnit.SECONDS));
+    assertTrue(bad.error instanceof IllegalArgumentException, "Requests must be positive");
+    assertTrue(upstreamCancelled.get(30, TimeUnit.SECONDS));
+  }
+
+  // Requests a few results at a time, and notes whether more were sent than were asked for
+  private static final class Collector implements Flow.Subscriber<SRSResult> {
+    private final long step;
+
+    private final List<SRSResult> results = new ArrayList<>();
+
+    private final CountDownLatch completed = new CountDownLatch(1);
+
+    private final AtomicLong outstanding = new AtomicLong();
+
+    private Flow.Subscription subscription;
+
+    private volatile Throwable error;
+
+    private volatile boolean overrun;
+
+    Collector(long step) {
+      this.step = step;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      outstanding.set(step);
+      subscription.request(step);
+    }
+
+    @Override
+    public void onNext(SRSResult item) {
+      results.add(item);
+
+      long left = outstanding.decrementAndGet();
+
+      if (left < 0) overrun = true;
+
+      if (left == 0) {
+        outstanding.set(step);
+        subscription.request(step);
+      }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      error = throwable;
+      completed.countDown();
+    }
+
+    @Override
+    public void onComplete() {
+      completed.countDown();
+    }
+  }
+}
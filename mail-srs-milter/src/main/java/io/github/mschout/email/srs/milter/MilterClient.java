@@ -0,0 +1,203 @@
+package io.github.mschout.email.srs.milter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Minimal blocking milter client that plays the MTA side of the protocol.  It is meant for testing a milter offline
+ * and for driving load against it, not for use in an MTA.
+ */
+public class MilterClient implements Closeable {
+  private final Socket socket;
+
+  private final DataInputStream in;
+
+  private final DataOutputStream out;
+
+  /**
+   * Connect to a milter.
+   * @param address the address the milter is listening on
+   * @throws IOException If the connection fails.
+   */
+  public MilterClient(SocketAddress address) throws IOException {
+    socket = new Socket();
+    socket.connect(address);
+    socket.setTcpNoDelay(true);
+
+    in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+  }
+
+  /**
+   * Negotiate protocol version 6, offering every action and every protocol step.
+   * @return the milter's reply
+   * @throws IOException If the milter can not be reached.
+   */
+  public Response negotiate() throws IOException {
+    out.writeInt(13);
+    out.writeByte(MilterProtocol.SMFIC_OPTNEG);
+    out.writeInt(MilterProtocol.VERSION);
+    out.writeInt(0x1ff);
+    out.writeInt(0x3ff);
+    out.flush();
+
+    return readResponse();
+  }
+
+  /**
+   * Send the envelope sender of a new message.
+   * @param sender the sender address, without angle brackets
+   * @return the milter's reply
+   * @throws IOException If the milter can not be reached.
+   */
+  public Response mail(String sender) throws IOException {
+    return send(MilterProtocol.SMFIC_MAIL, "<" + sender + ">", "BODY=8BITMIME");
+  }
+
+  /**
+   * Send a recipient of the current message.
+   * @param recipient the recipient address, without angle brackets
+   * @return the milter's reply
+   * @throws IOException If the milter can not be reached.
+   */
+  public Response rcpt(String recipient) throws IOException {
+    return send(MilterProtocol.SMFIC_RCPT, "<" + recipient + ">");
+  }
+
+  /**
+   * Finish the current message.
+   * @return the milter's reply, along with the modifications it made to the message
+   * @throws IOException If the milter can not be reached.
+   */
+  public Response endOfMessage() throws IOException {
+    return send(MilterProtocol.SMFIC_BODYEOB);
+  }
+
+  /**
+   * Abandon the current message.  The milter does not reply to this.
+   * @throws IOException If the milter can not be reached.
+   */
+  public void abort() throws IOException {
+    write(MilterProtocol.SMFIC_ABORT);
+    out.flush();
+  }
+
+  /**
+   * Tell the milter that we are done, and close the connection.
+   * @throws IOException If the connection can not be closed.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      write(MilterProtocol.SMFIC_QUIT);
+      out.flush();
+    } finally {
+      socket.close();
+    }
+  }
+
+  private Response send(byte command, String... args) throws IOException {
+    write(command, args);
+    out.flush();
+
+    return readResponse();
+  }
+
+  private void write(byte command, String... args) throws IOException {
+    int length = 1;
+
+    for (String arg : args) length += arg.getBytes(StandardCharsets.UTF_8).length + 1;
+
+    out.writeInt(length);
+    out.writeByte(command);
+
+    for (String arg : args) {
+      out.write(arg.getBytes(StandardCharsets.UTF_8));
+      out.writeByte(0);
+    }
+  }
+
+  // Read modifications until the final reply
+  private Response readResponse() throws IOException {
+    List<Modification> modifications = new ArrayList<>();
+
+    while (true) {
+      int length = in.readInt();
+      byte code = in.readByte();
+      byte[] data = new byte[length - 1];
+      in.readFully(data);
+
+      switch (code) {
+        case MilterProtocol.SMFIR_ADDRCPT:
+        case MilterProtocol.SMFIR_DELRCPT:
+        case MilterProtocol.SMFIR_CHGFROM:
+          modifications.add(new Modification((char) code, string(data)));
+          break;
+        case MilterProtocol.SMFIR_OPTNEG:
+          return new Response((char) code, null, Collections.emptyList());
+        default:
+          return new Response((char) code, string(data), modifications);
+      }
+    }
+  }
+
+  // First NUL terminated string in the data
+  private static String string(byte[] data) {
+    int end = 0;
+
+    while (end < data.length && data[end] != 0) end++;
+
+    return new String(data, 0, end, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Final reply from the milter to a command.
+   */
+  @Getter
+  @RequiredArgsConstructor
+  public static class Response {
+    /**
+     * @return the reply code, e.g. 'c' for continue
+     */
+    private final char code;
+
+    /**
+     * @return the reply text for 'y' replies, otherwise empty
+     */
+    private final String text;
+
+    /**
+     * @return the modifications that came before the reply
+     */
+    private final List<Modification> modifications;
+  }
+
+  /**
+   * A change that the milter made to the message.
+   */
+  @Getter
+  @RequiredArgsConstructor
+  public static class Modification {
+    /**
+     * @return '+' to add a recipient, '-' to delete a recipient, or 'e' to change the sender
+     */
+    private final char type;
+
+    /**
+     * @return the address, in angle brackets
+     */
+    private final String address;
+  }
+}
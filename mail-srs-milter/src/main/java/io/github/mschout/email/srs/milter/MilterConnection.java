@@ -0,0 +1,105 @@
+package io.github.mschout.email.srs.milter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Non-blocking MTA connection.  Packets are handled straight out of the read buffer, and while replies are waiting to
+ * be written nothing more is read, so a slow MTA can not make us buffer without limit.
+ */
+final class MilterConnection {
+  private final SocketChannel channel;
+
+  private final MilterSession session;
+
+  private ByteBuffer input = ByteBuffer.allocate(4096);
+
+  private boolean closing;
+
+  MilterConnection(SocketChannel channel, MilterSession session) {
+    this.channel = channel;
+    this.session = session;
+  }
+
+  /**
+   * Handle the channel becoming readable or writable.
+   * @param key the selection key for the channel
+   */
+  void ready(SelectionKey key) {
+    try {
+      if (key.isReadable() && !read()) closing = true;
+
+      boolean flushed = flush();
+
+      if (closing && flushed) {
+        close(key);
+      } else {
+        key.interestOps(flushed ? SelectionKey.OP_READ : SelectionKey.OP_WRITE);
+      }
+    } catch (IOException | RuntimeException e) {
+      close(key);
+    }
+  }
+
+  void close(SelectionKey key) {
+    key.cancel();
+
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // nothing more we can do
+    }
+  }
+
+  // Read what is available and handle every complete packet.  Returns false if the connection should be closed.
+  private boolean read() throws IOException {
+    if (channel.read(input) == -1) return false;
+
+    input.flip();
+
+    boolean open = true;
+    int needed = 0;
+
+    while (open && input.remaining() >= 4) {
+      int start = input.position();
+      int length = input.getInt(start);
+
+      if (length < 1 || length > MilterProtocol.MAX_PACKET) throw new IOException("Bad milter packet length " + length);
+
+      if (input.remaining() < length + 4) {
+        needed = length + 4;
+        break;
+      }
+
+      open = session.handle(input.get(start + 4), input, start + 5, start + 4 + length);
+      input.position(start + 4 + length);
+    }
+
+    input.compact();
+
+    // make room for a packet that is bigger than the buffer
+    if (needed > input.capacity()) {
+      ByteBuffer bigger = ByteBuffer.allocate(needed);
+      input.flip();
+      bigger.put(input);
+      input = bigger;
+    }
+
+    return open;
+  }
+
+  // Write waiting replies.  Returns true if everything was written.
+  private boolean flush() throws IOException {
+    ByteBuffer output = session.output();
+
+    if (output.position() == 0) return true;
+
+    output.flip();
+    channel.write(output);
+    output.compact();
+
+    return output.position() == 0;
+  }
+}
@@ -0,0 +1,131 @@
+package io.github.mschout.email.srs.milter;
+
+import io.github.mschout.email.srs.SRS;
+import io.github.mschout.email.srs.provider.DefaultSRSProviderFactory;
+import io.github.mschout.email.srs.provider.SecretsFileWatcher;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.security.InvalidKeyException;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Run the SRS milter from the command line.
+ * <pre>
+ * MilterMain --alias forwarder.example.com --secrets /etc/srs/secrets [--listen 127.0.0.1:8890] [--type GUARDED]
+ *            [--threads N]
+ * </pre>
+ * The secrets file has one secret per line.  The first one is used for new addresses, and all of them are tried when
+ * verifying addresses.  Blank lines and lines starting with # are ignored.  The file is watched, and the new secrets
+ * are used as soon as it changes.  Replace it by renaming a new file over it.
+ */
+public final class MilterMain {
+
+  private MilterMain() {}
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    String listen = "127.0.0.1:8890";
+    String alias = null;
+    String secretsFile = null;
+    SRS.Type type = SRS.Type.GUARDED;
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    for (int i = 0; i < args.length; i++) {
+      String value = i + 1 < args.length ? args[i + 1] : null;
+
+      if (value == null) usage("Missing value for " + args[i]);
+
+      try {
+        switch (args[i]) {
+          case "--listen":
+            listen = value;
+            break;
+          case "--alias":
+            alias = value;
+            break;
+          case "--secrets":
+            secretsFile = value;
+            break;
+          case "--type":
+            type = SRS.Type.valueOf(value.toUpperCase());
+            break;
+          case "--threads":
+            threads = Integer.parseInt(value);
+
+            if (threads < 1) usage("--threads must be at least 1");
+
+            break;
+          default:
+            usage("Unknown option " + args[i]);
+        }
+      } catch (IllegalArgumentException e) {
+        // a type that does not exist, or a number that is not one
+        usage("Invalid value for " + args[i] + ": " + value);
+      }
+
+      i++;
+    }
+
+    if (alias == null || secretsFile == null || listen == null) usage("--alias and --secrets are required");
+
+    SecretsFileWatcher secrets;
+    String file = secretsFile;
+
+    try {
+      // the daemon goes on with the secrets it has, so say that the new ones were not loaded
+      secrets =
+        new SecretsFileWatcher(
+          Paths.get(file),
+          failure -> System.err.println("Secrets not reloaded from " + file + ", still using the previous ones: " + failure.getMessage())
+        );
+    } catch (IOException | InvalidKeyException e) {
+      usage("Can not load secrets: " + e.getMessage());
+      return;
+    }
+
+    SRS srs = new SRS(DefaultSRSProviderFactory.getInstance().createProvider(type, secrets.getKeyRing()));
+    SRSMilter milter = SRSMilter.builder().srs(srs).alias(alias).build();
+
+    MilterServer server = new MilterServer(milter, threads);
+    InetSocketAddress address = server.bind(parseAddress(listen));
+
+    System.err.println("SRS milter listening on " + address);
+
+    CountDownLatch stopped = new CountDownLatch(1);
+
+    Runtime
+      .getRuntime()
+      .addShutdownHook(
+        new Thread(
+          () -> {
+            try {
+              secrets.close();
+              server.close();
+            } catch (IOException e) {
+              // exiting anyway
+            } finally {
+              stopped.countDown();
+            }
+          }
+        )
+      );
+
+    stopped.await();
+  }
+
+  static InetSocketAddress parseAddress(String address) {
+    int colon = address.lastIndexOf(':');
+
+    if (colon == -1) return new InetSocketAddress(Integer.parseInt(address));
+
+    return new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+  }
+
+  private static void usage(String message) {
+    System.err.println(message);
+    System.err.println(
+      "usage: MilterMain --alias HOST --secrets FILE [--listen HOST:PORT] [--type GUARDED|REVERSIBLE|SHORTCUT] [--threads N]"
+    );
+    System.exit(2);
+  }
+}
@@ -0,0 +1,58 @@
+package io.github.mschout.email.srs.milter;
+
+/**
+ * Sendmail milter protocol constants.
+ * Every packet is a four byte big endian length, a one byte command or reply code, and length - 1 bytes of data.
+ */
+final class MilterProtocol {
+  /** Protocol version that we speak.  Version 6 is needed to change the envelope sender. */
+  static final int VERSION = 6;
+
+  /** Largest packet that we accept.  Body chunks are at most 64k, and we ask the MTA not to send the body anyway. */
+  static final int MAX_PACKET = 1 << 20;
+
+  // Commands from the MTA
+  static final byte SMFIC_ABORT = 'A';
+  static final byte SMFIC_BODY = 'B';
+  static final byte SMFIC_CONNECT = 'C';
+  static final byte SMFIC_MACRO = 'D';
+  static final byte SMFIC_BODYEOB = 'E';
+  static final byte SMFIC_HELO = 'H';
+  static final byte SMFIC_QUIT_NC = 'K';
+  static final byte SMFIC_HEADER = 'L';
+  static final byte SMFIC_MAIL = 'M';
+  static final byte SMFIC_EOH = 'N';
+  static final byte SMFIC_OPTNEG = 'O';
+  static final byte SMFIC_QUIT = 'Q';
+  static final byte SMFIC_RCPT = 'R';
+  static final byte SMFIC_DATA = 'T';
+  static final byte SMFIC_UNKNOWN = 'U';
+
+  // Replies to the MTA
+  static final byte SMFIR_ADDRCPT = '+';
+  static final byte SMFIR_DELRCPT = '-';
+  static final byte SMFIR_CONTINUE = 'c';
+  static final byte SMFIR_CHGFROM = 'e';
+  static final byte SMFIR_OPTNEG = 'O';
+  static final byte SMFIR_TEMPFAIL = 't';
+  static final byte SMFIR_REPLYCODE = 'y';
+
+  // Actions that we may take at the end of the message
+  static final int SMFIF_ADDRCPT = 0x04;
+  static final int SMFIF_DELRCPT = 0x08;
+  static final int SMFIF_CHGFROM = 0x40;
+
+  // Protocol steps that we do not need to see
+  static final int SMFIP_NOCONNECT = 0x01;
+  static final int SMFIP_NOHELO = 0x02;
+  static final int SMFIP_NOBODY = 0x10;
+  static final int SMFIP_NOHDRS = 0x20;
+  static final int SMFIP_NOEOH = 0x40;
+  static final int SMFIP_NOUNKNOWN = 0x100;
+  static final int SMFIP_NODATA = 0x200;
+
+  static final int SKIPPED_STEPS =
+    SMFIP_NOCONNECT | SMFIP_NOHELO | SMFIP_NOBODY | SMFIP_NOHDRS | SMFIP_NOEOH | SMFIP_NOUNKNOWN | SMFIP_NODATA;
+
+  private MilterProtocol() {}
+}
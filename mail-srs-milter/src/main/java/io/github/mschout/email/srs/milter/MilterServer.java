@@ -0,0 +1,188 @@
+package io.github.mschout.email.srs.milter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Non-blocking milter server.
+ * <p>
+ * Connections are spread over a few event loop threads, each running its own selector, so thousands of concurrent SMTP
+ * sessions only need as many threads as there are cores.  Rewriting an address takes microseconds, so it is done on
+ * the event loop rather than being handed off to another thread.
+ */
+public class MilterServer implements Closeable {
+  private static final int BACKLOG = 1024;
+
+  private final SRSMilter milter;
+
+  private final EventLoop[] loops;
+
+  private ServerSocketChannel server;
+
+  // Only used by the accepting event loop
+  private int nextLoop;
+
+  /**
+   * Create a server with one event loop per processor.
+   * @param milter the milter to serve
+   */
+  public MilterServer(SRSMilter milter) {
+    this(milter, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Create a server.
+   * @param milter the milter to serve
+   * @param threads number of event loop threads
+   */
+  public MilterServer(SRSMilter milter, int threads) {
+    if (threads < 1) throw new IllegalArgumentException("threads must be at least 1, not " + threads);
+
+    this.milter = milter;
+    this.loops = new EventLoop[threads];
+  }
+
+  /**
+   * Start listening for MTA connections.
+   * @param address address to listen on.  Use port 0 to pick a free port.
+   * @return the address that the server is listening on
+   * @throws IOException If the address can not be bound.
+   */
+  public InetSocketAddress bind(SocketAddress address) throws IOException {
+    if (server != null) throw new IllegalStateException("Server is already bound to " + server.getLocalAddress());
+
+    server = ServerSocketChannel.open();
+    server.configureBlocking(false);
+    server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+    server.bind(address, BACKLOG);
+
+    for (int i = 0; i < loops.length; i++) {
+      loops[i] = new EventLoop("srs-milter-" + i);
+      loops[i].thread.start();
+    }
+
+    loops[0].register(server, SelectionKey.OP_ACCEPT, null);
+
+    return (InetSocketAddress) server.getLocalAddress();
+  }
+
+  /**
+   * Stop the event loops and close all connections.
+   * @throws IOException If the listening socket can not be closed.
+   */
+  @Override
+  public void close() throws IOException {
+    for (EventLoop loop : loops) {
+      if (loop != null) loop.shutdown();
+    }
+
+    try {
+      for (EventLoop loop : loops) {
+        if (loop != null) loop.thread.join();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    if (server != null) server.close();
+  }
+
+  // Accept waiting connections and hand them out to the event loops in turn
+  private void accept() {
+    SocketChannel channel;
+
+    try {
+      while ((channel = server.accept()) != null) {
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+        EventLoop loop = loops[nextLoop++ % loops.length];
+        loop.register(channel, SelectionKey.OP_READ, new MilterConnection(channel, milter.newSession()));
+      }
+    } catch (IOException e) {
+      // e.g. out of file descriptors.  Whatever is still waiting is picked up on the next select.
+    }
+  }
+
+  private class EventLoop implements Runnable {
+    private final Thread thread;
+
+    private final Selector selector;
+
+    // Channels can only be registered from the loop's own thread without blocking on the selector
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean running = true;
+
+    EventLoop(String name) throws IOException {
+      this.selector = Selector.open();
+      this.thread = new Thread(this, name);
+    }
+
+    void register(SelectableChannel channel, int ops, MilterConnection connection) {
+      tasks.add(
+        () -> {
+          try {
+            channel.register(selector, ops, connection);
+          } catch (ClosedChannelException e) {
+            // closed before we got to it
+          }
+        }
+      );
+
+      selector.wakeup();
+    }
+
+    void shutdown() {
+      running = false;
+      selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (running) {
+          selector.select();
+
+          Runnable task;
+          while ((task = tasks.poll()) != null) task.run();
+
+          for (SelectionKey key : selector.selectedKeys()) {
+            if (!key.isValid()) continue;
+
+            if (key.isAcceptable()) {
+              accept();
+            } else {
+              ((MilterConnection) key.attachment()).ready(key);
+            }
+          }
+
+          selector.selectedKeys().clear();
+        }
+      } catch (IOException e) {
+        // the selector or listening socket failed, there is nothing left to do but shut down
+      } finally {
+        for (SelectionKey key : selector.keys()) {
+          if (key.attachment() != null) ((MilterConnection) key.attachment()).close(key);
+        }
+
+        try {
+          selector.close();
+        } catch (IOException e) {
+          // shutting down anyway
+        }
+      }
+    }
+  }
+}
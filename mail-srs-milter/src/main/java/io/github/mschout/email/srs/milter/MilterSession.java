@@ -0,0 +1,262 @@
+package io.github.mschout.email.srs.milter;
+
+import static io.github.mschout.email.srs.milter.MilterProtocol.*;
+
+import io.github.mschout.email.srs.InvalidSRSAddressException;
+import io.github.mschout.email.srs.SRSFailure;
+import io.github.mschout.email.srs.provider.SRSPrefix;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+
+/**
+ * Milter protocol state for one MTA connection.  Sessions are only used by the event loop that owns the connection,
+ * so they are not thread safe.
+ */
+final class MilterSession {
+  private static final byte[] INVALID_SRS_REPLY = "550 5.7.1 Invalid SRS address".getBytes(StandardCharsets.US_ASCII);
+
+  private final SRSMilter milter;
+
+  // Replies waiting to be written to the MTA
+  private ByteBuffer output = ByteBuffer.allocate(1024);
+
+  // Modification packets for the current message, sent when the MTA reaches the end of the message
+  private ByteBuffer modifications = ByteBuffer.allocate(1024);
+
+  // The address being rewritten, copied out of the packet without its angle brackets
+  private ByteBuffer address = ByteBuffer.allocate(512);
+
+  // Actions agreed with the MTA
+  private int actions;
+
+  MilterSession(SRSMilter milter) {
+    this.milter = milter;
+  }
+
+  /**
+   * @return replies waiting to be written to the MTA, in write mode
+   */
+  ByteBuffer output() {
+    return output;
+  }
+
+  /**
+   * Handle one packet from the MTA, queueing any reply in the output buffer.
+   * @param command the command byte
+   * @param packet buffer holding the packet
+   * @param start index of the first data byte
+   * @param end index after the last data byte
+   * @return false if the connection should be closed
+   */
+  boolean handle(byte command, ByteBuffer packet, int start, int end) {
+    switch (command) {
+      case SMFIC_OPTNEG:
+        return negotiate(packet, start, end);
+      case SMFIC_MAIL:
+        mail(packet, start, end);
+        return true;
+      case SMFIC_RCPT:
+        rcpt(packet, start, end);
+        return true;
+      case SMFIC_BODYEOB:
+        endOfMessage();
+        return true;
+      case SMFIC_ABORT:
+      case SMFIC_QUIT_NC:
+        // no reply for these
+        modifications.clear();
+        return true;
+      case SMFIC_MACRO:
+        return true;
+      case SMFIC_QUIT:
+        return false;
+      default:
+        // connect, helo, data, headers and body, in case the MTA sends them anyway
+        reply(SMFIR_CONTINUE);
+        return true;
+    }
+  }
+
+  private boolean negotiate(ByteBuffer packet, int start, int end) {
+    if (end - start < 12) return false;
+
+    int version = packet.getInt(start);
+    int mtaActions = packet.getInt(start + 4);
+    int mtaProtocol = packet.getInt(start + 8);
+
+    if (version < 2) return false;
+
+    // changing the envelope sender came in with version 6
+    actions = (version >= 6 ? SMFIF_CHGFROM : 0) | SMFIF_ADDRCPT | SMFIF_DELRCPT;
+    actions &= mtaActions;
+
+    output = ensure(output, 17);
+    output.putInt(13).put(SMFIR_OPTNEG).putInt(Math.min(version, VERSION)).putInt(actions).putInt(SKIPPED_STEPS & mtaProtocol);
+
+    return true;
+  }
+
+  private void mail(ByteBuffer packet, int start, int end) {
+    // a new message, forget anything left over from the last one
+    modifications.clear();
+
+    if (!milter.isForwardSenders() || (actions & SMFIF_CHGFROM) == 0 || !copyAddress(packet, start, end)) {
+      reply(SMFIR_CONTINUE);
+      return;
+    }
+
+    modifications = ensure(modifications, address.remaining() + milter.getAlias().length() + 128);
+
+    int packetStart = modifications.position();
+    modifications.putInt(0).put(SMFIR_CHGFROM).put((byte) '<');
+
+    int addressStart = modifications.position();
+
+    try {
+      milter.getSrs().forward(address, milter.getAlias(), modifications);
+    } catch (InvalidKeyException e) {
+      modifications.position(packetStart);
+      reply(SMFIR_TEMPFAIL);
+      return;
+    } catch (IllegalArgumentException e) {
+      // not an address that we can rewrite, e.g. a local user without a domain
+      modifications.position(packetStart);
+      reply(SMFIR_CONTINUE);
+      return;
+    }
+
+    if (sameBytes(modifications, addressStart, address)) {
+      // local senders are left as they are
+      modifications.position(packetStart);
+    } else {
+      modifications.put((byte) '>').put((byte) 0);
+      modifications.putInt(packetStart, modifications.position() - packetStart - 4);
+    }
+
+    reply(SMFIR_CONTINUE);
+  }
+
+  private void rcpt(ByteBuffer packet, int start, int end) {
+    int required = SMFIF_ADDRCPT | SMFIF_DELRCPT;
+
+    if (
+      !milter.isReverseRecipients() ||
+      (actions & required) != required ||
+      !copyAddress(packet, start, end) ||
+      SRSPrefix.of(address, address.position(), address.limit()) == null
+    ) {
+      reply(SMFIR_CONTINUE);
+      return;
+    }
+
+    int argEnd = indexOf(packet, (byte) 0, start, end);
+    int argLength = argEnd - start;
+
+    modifications = ensure(modifications, 2 * argLength + 32);
+
+    int packetStart = modifications.position();
+
+    // delete the recipient exactly as the MTA gave it to us
+    modifications.putInt(argLength + 2).put(SMFIR_DELRCPT);
+    for (int i = start; i < argEnd; i++) modifications.put(packet.get(i));
+    modifications.put((byte) 0);
+
+    int addStart = modifications.position();
+    modifications.putInt(0).put(SMFIR_ADDRCPT).put((byte) '<');
+
+    try {
+      milter.getSrs().reverse(address, modifications);
+    } catch (InvalidSRSAddressException e) {
+      modifications.position(packetStart);
+
+      if (e.getFailure() == SRSFailure.MALFORMED) {
+        // a local part that only looks like SRS
+        reply(SMFIR_CONTINUE);
+      } else {
+        replyCode(INVALID_SRS_REPLY);
+      }
+
+      return;
+    } catch (IllegalArgumentException e) {
+      modifications.position(packetStart);
+      reply(SMFIR_CONTINUE);
+      return;
+    }
+
+    modifications.put((byte) '>').put((byte) 0);
+    modifications.putInt(addStart, modifications.position() - addStart - 4);
+
+    reply(SMFIR_CONTINUE);
+  }
+
+  private void endOfMessage() {
+    modifications.flip();
+    output = ensure(output, modifications.remaining() + 5);
+    output.put(modifications);
+    modifications.clear();
+
+    reply(SMFIR_CONTINUE);
+  }
+
+  private void reply(byte code) {
+    output = ensure(output, 5);
+    output.putInt(1).put(code);
+  }
+
+  private void replyCode(byte[] text) {
+    output = ensure(output, text.length + 6);
+    output.putInt(text.length + 2).put(SMFIR_REPLYCODE).put(text).put((byte) 0);
+  }
+
+  // Copy the first argument of a MAIL or RCPT packet into the address buffer, without angle brackets.
+  // Returns false for the null sender.
+  private boolean copyAddress(ByteBuffer packet, int start, int end) {
+    int argEnd = indexOf(packet, (byte) 0, start, end);
+
+    if (argEnd - start >= 2 && packet.get(start) == '<' && packet.get(argEnd - 1) == '>') {
+      start++;
+      argEnd--;
+    }
+
+    if (argEnd == start) return false;
+
+    address.clear();
+    address = ensure(address, argEnd - start);
+
+    for (int i = start; i < argEnd; i++) address.put(packet.get(i));
+
+    address.flip();
+
+    return true;
+  }
+
+  private static boolean sameBytes(ByteBuffer buffer, int start, ByteBuffer other) {
+    if (buffer.position() - start != other.remaining()) return false;
+
+    for (int i = 0; i < other.remaining(); i++) {
+      if (buffer.get(start + i) != other.get(other.position() + i)) return false;
+    }
+
+    return true;
+  }
+
+  private static int indexOf(ByteBuffer buffer, byte value, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (buffer.get(i) == value) return i;
+    }
+
+    return end;
+  }
+
+  // Make sure there is room to put at least the given number of bytes, growing the buffer if needed
+  private static ByteBuffer ensure(ByteBuffer buffer, int needed) {
+    if (buffer.remaining() >= needed) return buffer;
+
+    ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+    buffer.flip();
+    bigger.put(buffer);
+
+    return bigger;
+  }
+}
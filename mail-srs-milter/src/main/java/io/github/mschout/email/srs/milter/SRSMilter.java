@@ -0,0 +1,46 @@
+package io.github.mschout.email.srs.milter;
+
+import io.github.mschout.email.srs.SRS;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Milter that rewrites envelope addresses with SRS.
+ * <p>
+ * The envelope sender of each message is rewritten with {@link SRS#forward(java.nio.ByteBuffer, String,
+ * java.nio.ByteBuffer)}, and recipients that are SRS addresses are replaced by the reversed address.  Recipients with an
+ * SRS address that does not verify are rejected.  Addresses are rewritten straight from the packet bytes, without
+ * being decoded to strings.
+ * <p>
+ * Serve it with a {@link MilterServer}.
+ */
+@Builder
+@Getter
+public class SRSMilter {
+  /**
+   * SRS instance that does the rewriting.
+   */
+  private final SRS srs;
+
+  /**
+   * Local host name or alias that forwarded senders are rewritten to.
+   */
+  private final String alias;
+
+  /**
+   * Rewrite the envelope sender of each message.  Defaults to true.
+   */
+  @Builder.Default
+  private final boolean forwardSenders = true;
+
+  /**
+   * Replace SRS recipients with the reversed address.  Defaults to true.
+   */
+  @Builder.Default
+  private final boolean reverseRecipients = true;
+
+  // State for one MTA connection
+  MilterSession newSession() {
+    return new MilterSession(this);
+  }
+}
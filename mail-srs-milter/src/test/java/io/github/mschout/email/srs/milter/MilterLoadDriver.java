@@ -0,0 +1,120 @@
+package io.github.mschout.email.srs.milter;
+
+import io.github.mschout.email.srs.SRS;
+import io.github.mschout.email.srs.metrics.LatencyHistogram;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Offline load test for the milter.  Starts a {@link MilterServer} on the loopback interface, and has a number of
+ * concurrent MTA connections send messages through it, each with a sender to forward, an SRS recipient to reverse and
+ * a plain recipient.  Prints the message rate and the end of message latency percentiles.
+ * <pre>
+ * MilterLoadDriver [connections] [messages per connection] [server threads]
+ * </pre>
+ */
+public final class MilterLoadDriver {
+  private static final String ALIAS = "forwarder.example.net";
+
+  private MilterLoadDriver() {}
+
+  public static void main(String[] args) throws Exception {
+    int connections = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    int messages = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+    int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+    SRS srs = new SRS(SRS.Type.GUARDED, "load-driver-secret");
+    SRSMilter milter = SRSMilter.builder().srs(srs).alias(ALIAS).build();
+
+    try (MilterServer server = new MilterServer(milter, threads)) {
+      InetSocketAddress address = server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+      // warm up, then measure
+      run(address, srs, Math.min(connections, 16), Math.min(messages, 2000), new LatencyHistogram());
+
+      LatencyHistogram latency = new LatencyHistogram();
+      long start = System.nanoTime();
+
+      run(address, srs, connections, messages, latency);
+
+      double seconds = (System.nanoTime() - start) / 1e9;
+
+      System.out.printf(
+        "%d connections, %d messages, %d server threads: %.0f messages/s%n",
+        connections,
+        latency.getCount(),
+        threads,
+        latency.getCount() / seconds
+      );
+      System.out.printf(
+        "latency per message (upper bound): p50 %s  p90 %s  p99 %s  p99.9 %s%n",
+        micros(latency.getPercentile(50)),
+        micros(latency.getPercentile(90)),
+        micros(latency.getPercentile(99)),
+        micros(latency.getPercentile(99.9))
+      );
+    }
+  }
+
+  // Run the connections to completion, recording the time from MAIL to the reply to end of message for each message
+  private static void run(InetSocketAddress address, SRS srs, int connections, int messages, LatencyHistogram latency)
+    throws Exception {
+    CountDownLatch ready = new CountDownLatch(connections);
+    CountDownLatch go = new CountDownLatch(1);
+    AtomicReference<Exception> failure = new AtomicReference<>();
+    List<Thread> threads = new ArrayList<>();
+
+    for (int c = 0; c < connections; c++) {
+      final int connection = c;
+
+      Thread thread = new Thread(
+        () -> {
+          try (MilterClient client = new MilterClient(address)) {
+            client.negotiate();
+
+            String sender = "user" + connection + "@sender" + connection + ".example.com";
+            String srsRecipient = srs.forward("bounce" + connection + "@origin.example.org", ALIAS);
+
+            ready.countDown();
+            go.await();
+
+            for (int m = 0; m < messages; m++) {
+              long start = System.nanoTime();
+
+              client.mail(sender);
+              client.rcpt(srsRecipient);
+              client.rcpt("postmaster@" + ALIAS);
+
+              if (client.endOfMessage().getModifications().size() != 3) throw new IllegalStateException("Message was not rewritten");
+
+              latency.record(System.nanoTime() - start);
+            }
+          } catch (IOException | InvalidKeyException | InterruptedException | RuntimeException e) {
+            failure.compareAndSet(null, e);
+            ready.countDown();
+          }
+        }
+      );
+
+      thread.start();
+      threads.add(thread);
+    }
+
+    ready.await();
+    go.countDown();
+
+    for (Thread thread : threads) thread.join();
+
+    if (failure.get() != null) throw failure.get();
+  }
+
+  private static String micros(long nanos) {
+    return String.format("%.1fus", nanos / 1000.0);
+  }
+}
@@ -0,0 +1,125 @@
+package io.github.mschout.email.srs.milter;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.github.mschout.email.srs.SRS;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class SRSMilterTest {
+  private static final String ALIAS = "forwarder.com";
+
+  private final SRS srs = new SRS(SRS.Type.GUARDED, "milter-secret");
+
+  private MilterServer server;
+
+  private InetSocketAddress address;
+
+  @BeforeEach
+  void start() throws IOException {
+    server = new MilterServer(SRSMilter.builder().srs(srs).alias(ALIAS).build(), 2);
+    address = server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+  }
+
+  @AfterEach
+  void stop() throws IOException {
+    server.close();
+  }
+
+  @Test
+  void rewritesMessage() throws IOException, InvalidKeyException {
+    String srsRecipient = srs.forward("bounce@origin.org", ALIAS);
+
+    try (MilterClient client = new MilterClient(address)) {
+      assertEquals('O', client.negotiate().getCode());
+
+      assertEquals('c', client.mail("jdoe@example.com").getCode());
+      assertEquals('c', client.rcpt(srsRecipient).getCode());
+      assertEquals('c', client.rcpt("someone@" + ALIAS).getCode());
+
+      MilterClient.Response response = client.endOfMessage();
+      assertEquals('c', response.getCode());
+
+      List<MilterClient.Modification> modifications = response.getModifications();
+      assertEquals(3, modifications.size());
+
+      assertEquals('e', modifications.get(0).getType());
+      assertEquals("<" + srs.forward("jdoe@example.com", ALIAS) + ">", modifications.get(0).getAddress());
+
+      assertEquals('-', modifications.get(1).getType());
+      assertEquals("<" + srsRecipient + ">", modifications.get(1).getAddress());
+
+      assertEquals('+', modifications.get(2).getType());
+      assertEquals("<bounce@origin.org>", modifications.get(2).getAddress());
+
+      // modifications belong to the message they were made for
+      client.mail("local@" + ALIAS);
+      assertTrue(client.endOfMessage().getModifications().isEmpty(), "Local sender is not rewritten");
+
+      client.mail("jdoe@example.com");
+      client.abort();
+      client.mail("");
+      assertTrue(client.endOfMessage().getModifications().isEmpty(), "Aborted message and null sender are not rewritten");
+    }
+  }
+
+  @Test
+  void rejectsForgedRecipients() throws IOException {
+    try (MilterClient client = new MilterClient(address)) {
+      client.negotiate();
+      client.mail("jdoe@example.com");
+
+      MilterClient.Response response = client.rcpt("SRS0=XXXX=ZZ=example.com=jdoe@" + ALIAS);
+      assertEquals('y', response.getCode());
+      assertTrue(response.getText().startsWith("550 "));
+
+      assertEquals('c', client.rcpt("srs0-fan@" + ALIAS).getCode(), "Local part that only looks like SRS is left alone");
+      assertEquals(1, client.endOfMessage().getModifications().size(), "Only the sender was changed");
+    }
+  }
+
+  @Test
+  void concurrentSessions() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(32);
+
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+
+      for (int c = 0; c < 64; c++) {
+        String sender = "user" + c + "@host" + c + ".example.com";
+        String expected = "<" + srs.forward(sender, ALIAS) + ">";
+
+        futures.add(
+          executor.submit(
+            () -> {
+              try (MilterClient client = new MilterClient(address)) {
+                client.negotiate();
+
+                for (int m = 0; m < 50; m++) {
+                  client.mail(sender);
+                  assertEquals(expected, client.endOfMessage().getModifications().get(0).getAddress());
+                }
+              }
+
+              return null;
+            }
+          )
+        );
+      }
+
+      for (Future<?> future : futures) future.get();
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
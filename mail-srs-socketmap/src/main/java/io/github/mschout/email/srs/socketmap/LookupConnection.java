@@ -0,0 +1,90 @@
+package io.github.mschout.email.srs.socketmap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Non-blocking lookup connection.  Every pipelined request in the read buffer is answered before the replies are
+ * written, and while replies are waiting to be written nothing more is read, so a client that does not read its replies
+ * can not make us buffer without limit.
+ */
+final class LookupConnection {
+  // Largest read buffer, enough for the longest socketmap request
+  private static final int MAX_INPUT = 128 * 1024;
+
+  private final SocketChannel channel;
+
+  private final LookupSession session;
+
+  private ByteBuffer input = ByteBuffer.allocate(4096);
+
+  private boolean closing;
+
+  LookupConnection(SocketChannel channel, LookupSession session) {
+    this.channel = channel;
+    this.session = session;
+  }
+
+  /**
+   * Handle the channel becoming readable or writable.
+   * @param key the selection key for the channel
+   */
+  void ready(SelectionKey key) {
+    try {
+      if (key.isReadable() && !read()) closing = true;
+
+      boolean flushed = flush();
+
+      if (closing && flushed) {
+        close(key);
+      } else {
+        key.interestOps(flushed ? SelectionKey.OP_READ : SelectionKey.OP_WRITE);
+      }
+    } catch (IOException | RuntimeException e) {
+      close(key);
+    }
+  }
+
+  void close(SelectionKey key) {
+    key.cancel();
+
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // nothing more we can do
+    }
+  }
+
+  // Read what is available and answer every complete request.  Returns false if the connection should be closed.
+  private boolean read() throws IOException {
+    if (channel.read(input) == -1) return false;
+
+    input.flip();
+    boolean open = session.process(input);
+    input.compact();
+
+    // a request that does not fit in the buffer yet
+    if (open && !input.hasRemaining()) {
+      if (input.capacity() >= MAX_INPUT) return false;
+
+      input = LookupSession.ensure(input, input.capacity());
+    }
+
+    return open;
+  }
+
+  // Write waiting replies.  Returns true if everything was written.
+  private boolean flush() throws IOException {
+    ByteBuffer output = session.output();
+
+    if (output.position() == 0) return true;
+
+    output.flip();
+    channel.write(output);
+    output.compact();
+
+    return output.position() == 0;
+  }
+}
@@ -0,0 +1,156 @@
+package io.github.mschout.email.srs.socketmap;
+
+import io.github.mschout.email.srs.SRS;
+import io.github.mschout.email.srs.provider.DefaultSRSProviderFactory;
+import io.github.mschout.email.srs.provider.SecretsFileWatcher;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.file.Paths;
+import java.security.InvalidKeyException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Run the SRS lookup daemon from the command line.
+ * <pre>
+ * LookupMain --alias forwarder.example.com --secrets /etc/srs/secrets [--socketmap ADDRESS] [--forward-table ADDRESS]
+ *            [--reverse-table ADDRESS] [--type GUARDED] [--threads N]
+ * </pre>
+ * Each listener option can be given more than once.  An ADDRESS is HOST:PORT, PORT, or unix:PATH.  Without any
+ * listener options the daemon serves socketmap on 127.0.0.1:10003 and tcp_table on 127.0.0.1:10001 and 10002.
+ * <p>
+ * The secrets file has one secret per line.  The first one is used for new addresses, and all of them are tried when
+ * verifying addresses.  Blank lines and lines starting with # are ignored.  The file is watched, and the new secrets
+ * are used as soon as it changes.  Replace it by renaming a new file over it.
+ */
+public final class LookupMain {
+
+  private LookupMain() {}
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    String alias = null;
+    String secretsFile = null;
+    SRS.Type type = SRS.Type.GUARDED;
+    int threads = Runtime.getRuntime().availableProcessors();
+    List<Map.Entry<LookupProtocol, String>> listeners = new ArrayList<>();
+
+    for (int i = 0; i < args.length; i++) {
+      String value = i + 1 < args.length ? args[i + 1] : null;
+
+      if (value == null) usage("Missing value for " + args[i]);
+
+      try {
+        switch (args[i]) {
+          case "--alias":
+            alias = value;
+            break;
+          case "--secrets":
+            secretsFile = value;
+            break;
+          case "--type":
+            type = SRS.Type.valueOf(value.toUpperCase());
+            break;
+          case "--threads":
+            threads = Integer.parseInt(value);
+
+            if (threads < 1) usage("--threads must be at least 1");
+
+            break;
+          case "--socketmap":
+            listeners.add(new AbstractMap.SimpleEntry<>(LookupProtocol.SOCKETMAP, value));
+            break;
+          case "--forward-table":
+            listeners.add(new AbstractMap.SimpleEntry<>(LookupProtocol.TCP_TABLE_FORWARD, value));
+            break;
+          case "--reverse-table":
+            listeners.add(new AbstractMap.SimpleEntry<>(LookupProtocol.TCP_TABLE_REVERSE, value));
+            break;
+          default:
+            usage("Unknown option " + args[i]);
+        }
+      } catch (IllegalArgumentException e) {
+        // a type that does not exist, or a number that is not one
+        usage("Invalid value for " + args[i] + ": " + value);
+      }
+
+      i++;
+    }
+
+    if (alias == null || secretsFile == null) usage("--alias and --secrets are required");
+
+    if (listeners.isEmpty()) {
+      listeners.add(new AbstractMap.SimpleEntry<>(LookupProtocol.SOCKETMAP, "127.0.0.1:10003"));
+      listeners.add(new AbstractMap.SimpleEntry<>(LookupProtocol.TCP_TABLE_FORWARD, "127.0.0.1:10001"));
+      listeners.add(new AbstractMap.SimpleEntry<>(LookupProtocol.TCP_TABLE_REVERSE, "127.0.0.1:10002"));
+    }
+
+    SecretsFileWatcher secrets;
+    String file = secretsFile;
+
+    try {
+      // the daemon goes on with the secrets it has, so say that the new ones were not loaded
+      secrets =
+        new SecretsFileWatcher(
+          Paths.get(file),
+          failure -> System.err.println("Secrets not reloaded from " + file + ", still using the previous ones: " + failure.getMessage())
+        );
+    } catch (IOException | InvalidKeyException e) {
+      usage("Can not load secrets: " + e.getMessage());
+      return;
+    }
+
+    SRS srs = new SRS(DefaultSRSProviderFactory.getInstance().createProvider(type, secrets.getKeyRing()));
+    SRSLookup lookup = SRSLookup.builder().srs(srs).alias(alias).build();
+    LookupServer server = new LookupServer(lookup, threads);
+
+    for (Map.Entry<LookupProtocol, String> listener : listeners) {
+      SocketAddress address = server.listen(parseAddress(listener.getValue()), listener.getKey());
+
+      System.err.println(listener.getKey() + " listening on " + address);
+    }
+
+    CountDownLatch stopped = new CountDownLatch(1);
+
+    Runtime
+      .getRuntime()
+      .addShutdownHook(
+        new Thread(
+          () -> {
+            try {
+              secrets.close();
+              server.close();
+            } catch (IOException e) {
+              // exiting anyway
+            } finally {
+              stopped.countDown();
+            }
+          }
+        )
+      );
+
+    stopped.await();
+  }
+
+  static SocketAddress parseAddress(String address) {
+    if (address.startsWith("unix:")) return LookupServer.unixSocket(address.substring("unix:".length()));
+
+    int colon = address.lastIndexOf(':');
+
+    if (colon == -1) return new InetSocketAddress(Integer.parseInt(address));
+
+    return new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+  }
+
+  private static void usage(String message) {
+    System.err.println(message);
+    System.err.println(
+      "usage: LookupMain --alias HOST --secrets FILE [--socketmap ADDRESS] [--forward-table ADDRESS] [--reverse-table ADDRESS]"
+    );
+    System.err.println("                  [--type GUARDED|REVERSIBLE|SHORTCUT] [--threads N]");
+    System.exit(2);
+  }
+}
@@ -0,0 +1,39 @@
+package io.github.mschout.email.srs.socketmap;
+
+/**
+ * Protocols that a {@link LookupServer} listener can speak.
+ */
+public enum LookupProtocol {
+  /**
+   * Postfix socketmap, with maps named <code>forward</code> and <code>reverse</code>, e.g.
+   * <code>sender_canonical_maps = socketmap:inet:127.0.0.1:10003:forward</code>
+   */
+  SOCKETMAP {
+    @Override
+    LookupSession newSession(SRSLookup lookup) {
+      return new SocketmapSession(lookup);
+    }
+  },
+
+  /**
+   * Postfix tcp_table serving forward lookups, e.g. <code>sender_canonical_maps = tcp:127.0.0.1:10001</code>
+   */
+  TCP_TABLE_FORWARD {
+    @Override
+    LookupSession newSession(SRSLookup lookup) {
+      return new TcpTableSession(lookup, true);
+    }
+  },
+
+  /**
+   * Postfix tcp_table serving reverse lookups, e.g. <code>recipient_canonical_maps = tcp:127.0.0.1:10002</code>
+   */
+  TCP_TABLE_REVERSE {
+    @Override
+    LookupSession newSession(SRSLookup lookup) {
+      return new TcpTableSession(lookup, false);
+    }
+  };
+
+  abstract LookupSession newSession(SRSLookup lookup);
+}
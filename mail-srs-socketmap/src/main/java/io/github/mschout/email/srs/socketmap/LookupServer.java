@@ -0,0 +1,244 @@
+package io.github.mschout.email.srs.socketmap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Non-blocking SRS lookup server for Postfix.
+ * <p>
+ * Any number of socketmap and tcp_table listeners, on TCP or Unix sockets, share one {@link SRSLookup}.  Connections
+ * are spread over a few event loop threads, each running its own selector, and the lookups are done on the event loop
+ * as they only take microseconds.  Requests are pipelined: everything that has arrived on a connection is answered
+ * before the replies are written back.
+ */
+public class LookupServer implements Closeable {
+  private static final int BACKLOG = 1024;
+
+  private final SRSLookup lookup;
+
+  private final EventLoop[] loops;
+
+  private final List<ServerSocketChannel> listeners = new ArrayList<>();
+
+  private final List<Path> socketFiles = new ArrayList<>();
+
+  // Only used by the accepting event loop
+  private int nextLoop;
+
+  /**
+   * Create a server with one event loop per processor.
+   * @param lookup the lookups to serve
+   * @throws IOException If the selectors can not be opened.
+   */
+  public LookupServer(SRSLookup lookup) throws IOException {
+    this(lookup, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Create a server.
+   * @param lookup the lookups to serve
+   * @param threads number of event loop threads
+   * @throws IOException If the selectors can not be opened.
+   */
+  public LookupServer(SRSLookup lookup, int threads) throws IOException {
+    if (threads < 1) throw new IllegalArgumentException("threads must be at least 1, not " + threads);
+
+    this.lookup = lookup;
+    this.loops = new EventLoop[threads];
+
+    for (int i = 0; i < threads; i++) {
+      loops[i] = new EventLoop("srs-lookup-" + i);
+      loops[i].thread.start();
+    }
+  }
+
+  /**
+   * Address of a Unix socket, for {@link #listen(SocketAddress, LookupProtocol)}.  Unix sockets need Java 16 or later.
+   * @param path path of the socket file
+   * @return the socket address
+   * @throws UnsupportedOperationException If this JVM does not support Unix sockets.
+   */
+  public static SocketAddress unixSocket(String path) {
+    try {
+      // Looked up reflectively so we still run on older JDKs over TCP
+      return (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class).invoke(null, path);
+    } catch (ReflectiveOperationException e) {
+      throw new UnsupportedOperationException("Unix sockets need Java 16 or later", e);
+    }
+  }
+
+  /**
+   * Start listening for lookups.
+   * @param address TCP address, or a {@link #unixSocket(String)} address.  Use TCP port 0 to pick a free port.
+   * @param protocol protocol to speak on this listener
+   * @return the address that the listener is bound to
+   * @throws IOException If the address can not be bound.
+   */
+  public SocketAddress listen(SocketAddress address, LookupProtocol protocol) throws IOException {
+    ServerSocketChannel server;
+
+    if (address instanceof InetSocketAddress) {
+      server = ServerSocketChannel.open();
+      server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+    } else {
+      server = openUnix(address);
+    }
+
+    server.configureBlocking(false);
+    server.bind(address, BACKLOG);
+
+    synchronized (listeners) {
+      listeners.add(server);
+    }
+
+    loops[0].register(server, SelectionKey.OP_ACCEPT, protocol);
+
+    return server.getLocalAddress();
+  }
+
+  /**
+   * Stop the event loops, close all connections and listeners, and remove Unix socket files.
+   * @throws IOException If a listener can not be closed.
+   */
+  @Override
+  public void close() throws IOException {
+    for (EventLoop loop : loops) loop.shutdown();
+
+    try {
+      for (EventLoop loop : loops) loop.thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    synchronized (listeners) {
+      for (ServerSocketChannel listener : listeners) listener.close();
+      for (Path socketFile : socketFiles) Files.deleteIfExists(socketFile);
+    }
+  }
+
+  private ServerSocketChannel openUnix(SocketAddress address) throws IOException {
+    // a socket file left over from the last run would stop us binding
+    Path socketFile = Paths.get(address.toString());
+    Files.deleteIfExists(socketFile);
+
+    synchronized (listeners) {
+      socketFiles.add(socketFile);
+    }
+
+    try {
+      ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+
+      return (ServerSocketChannel) ServerSocketChannel.class.getMethod("open", ProtocolFamily.class).invoke(null, unix);
+    } catch (ReflectiveOperationException | IllegalArgumentException e) {
+      throw new UnsupportedOperationException("Unix sockets need Java 16 or later", e);
+    }
+  }
+
+  // Accept waiting connections and hand them out to the event loops in turn
+  private void accept(ServerSocketChannel server, LookupProtocol protocol) {
+    SocketChannel channel;
+
+    try {
+      while ((channel = server.accept()) != null) {
+        channel.configureBlocking(false);
+
+        if (channel.getLocalAddress() instanceof InetSocketAddress) channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+        EventLoop loop = loops[nextLoop++ % loops.length];
+        loop.register(channel, SelectionKey.OP_READ, new LookupConnection(channel, protocol.newSession(lookup)));
+      }
+    } catch (IOException e) {
+      // e.g. out of file descriptors.  Whatever is still waiting is picked up on the next select.
+    }
+  }
+
+  private class EventLoop implements Runnable {
+    private final Thread thread;
+
+    private final Selector selector;
+
+    // Channels can only be registered from the loop's own thread without blocking on the selector
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean running = true;
+
+    EventLoop(String name) throws IOException {
+      this.selector = Selector.open();
+      this.thread = new Thread(this, name);
+    }
+
+    // The attachment is the protocol for listeners, and the connection for connections
+    void register(SelectableChannel channel, int ops, Object attachment) {
+      tasks.add(
+        () -> {
+          try {
+            channel.register(selector, ops, attachment);
+          } catch (ClosedChannelException e) {
+            // closed before we got to it
+          }
+        }
+      );
+
+      selector.wakeup();
+    }
+
+    void shutdown() {
+      running = false;
+      selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (running) {
+          selector.select();
+
+          Runnable task;
+          while ((task = tasks.poll()) != null) task.run();
+
+          for (SelectionKey key : selector.selectedKeys()) {
+            if (!key.isValid()) continue;
+
+            if (key.isAcceptable()) {
+              accept((ServerSocketChannel) key.channel(), (LookupProtocol) key.attachment());
+            } else {
+              ((LookupConnection) key.attachment()).ready(key);
+            }
+          }
+
+          selector.selectedKeys().clear();
+        }
+      } catch (IOException e) {
+        // the selector failed, there is nothing left to do but shut down
+      } finally {
+        for (SelectionKey key : selector.keys()) {
+          if (key.attachment() instanceof LookupConnection) ((LookupConnection) key.attachment()).close(key);
+        }
+
+        try {
+          selector.close();
+        } catch (IOException e) {
+          // shutting down anyway
+        }
+      }
+    }
+  }
+}
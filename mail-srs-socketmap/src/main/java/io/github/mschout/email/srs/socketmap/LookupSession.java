@@ -0,0 +1,108 @@
+package io.github.mschout.email.srs.socketmap;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Protocol state for one lookup connection.  Sessions are only used by the event loop that owns the connection, so
+ * they are not thread safe.
+ */
+abstract class LookupSession {
+  protected final SRSLookup lookup;
+
+  // Replies waiting to be written, in write mode
+  private ByteBuffer output = ByteBuffer.allocate(4096);
+
+  // Key of the current request, decoded
+  protected ByteBuffer key = ByteBuffer.allocate(512);
+
+  // Result of the current lookup
+  protected ByteBuffer result = ByteBuffer.allocate(1024);
+
+  LookupSession(SRSLookup lookup) {
+    this.lookup = lookup;
+  }
+
+  /**
+   * Handle every complete request in the buffer, queueing the replies in order.  Requests may be pipelined, so there
+   * can be any number of them.
+   * @param input buffer holding the requests between its position and limit.  On return the position is at the start
+   *              of the first incomplete request.
+   * @return false if the connection should be closed
+   */
+  abstract boolean process(ByteBuffer input);
+
+  /**
+   * @return replies waiting to be written, in write mode
+   */
+  ByteBuffer output() {
+    return output;
+  }
+
+  /**
+   * @param needed number of bytes about to be written
+   * @return the output buffer, with room for the given number of bytes
+   */
+  protected ByteBuffer output(int needed) {
+    output = ensure(output, needed);
+    return output;
+  }
+
+  /**
+   * Clear the key buffer so that the key of a new request can be put into it.
+   * @param needed length of the key
+   */
+  protected void startKey(int needed) {
+    key.clear();
+    key = ensure(key, needed);
+  }
+
+  /**
+   * Look up the key, leaving the result in the result buffer, flipped for reading.
+   * @param forward true for a forward lookup, false for a reverse lookup
+   * @return the result of the lookup
+   */
+  protected SRSLookup.Result lookup(boolean forward) {
+    key.flip();
+    result.clear();
+    result = ensure(result, key.remaining() + lookup.getAlias().length() + 128);
+
+    SRSLookup.Result found = forward ? lookup.forward(key, result) : lookup.reverse(key, result);
+    result.flip();
+
+    return found;
+  }
+
+  protected static boolean startsWith(ByteBuffer buffer, int start, int end, byte[] prefix) {
+    if (end - start < prefix.length) return false;
+
+    for (int i = 0; i < prefix.length; i++) {
+      if (buffer.get(start + i) != prefix[i]) return false;
+    }
+
+    return true;
+  }
+
+  protected static int indexOf(ByteBuffer buffer, byte value, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (buffer.get(i) == value) return i;
+    }
+
+    return -1;
+  }
+
+  protected static byte[] ascii(String value) {
+    return value.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  // Make sure there is room to put at least the given number of bytes, growing the buffer if needed
+  static ByteBuffer ensure(ByteBuffer buffer, int needed) {
+    if (buffer.remaining() >= needed) return buffer;
+
+    ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+    buffer.flip();
+    bigger.put(buffer);
+
+    return bigger;
+  }
+}
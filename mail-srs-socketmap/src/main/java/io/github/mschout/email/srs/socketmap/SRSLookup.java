@@ -0,0 +1,100 @@
+package io.github.mschout.email.srs.socketmap;
+
+import io.github.mschout.email.srs.SRS;
+import io.github.mschout.email.srs.provider.SRSPrefix;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * The forward and reverse lookups behind Postfix <code>sender_canonical_maps</code> and
+ * <code>recipient_canonical_maps</code>.  Addresses are looked up straight from the request bytes with the byte
+ * oriented {@link SRS} methods.  One instance is shared by every connection.
+ */
+@Builder
+@Getter
+public class SRSLookup {
+  /**
+   * SRS instance that does the rewriting.
+   */
+  private final SRS srs;
+
+  /**
+   * Local host name or alias that forwarded senders are rewritten to.
+   */
+  private final String alias;
+
+  enum Result {
+    FOUND,
+    NOT_FOUND,
+    TEMPORARY_FAILURE
+  }
+
+  /**
+   * Rewrite a sender address.  Addresses without a domain, and local addresses that would not be changed, are not
+   * found, so that Postfix leaves them alone.
+   * @param address the address to rewrite, between position and limit
+   * @param out buffer to write the rewritten address to.  Must have room for the address, the alias and 128 bytes.
+   * @return the result of the lookup
+   */
+  Result forward(ByteBuffer address, ByteBuffer out) {
+    if (indexOf(address, (byte) '@') == -1) return Result.NOT_FOUND;
+
+    int start = out.position();
+
+    try {
+      srs.forward(address, alias, out);
+    } catch (InvalidKeyException e) {
+      out.position(start);
+      return Result.TEMPORARY_FAILURE;
+    } catch (IllegalArgumentException e) {
+      out.position(start);
+      return Result.NOT_FOUND;
+    }
+
+    if (out.position() - start == address.remaining() && sameBytes(out, start, address)) {
+      out.position(start);
+      return Result.NOT_FOUND;
+    }
+
+    return Result.FOUND;
+  }
+
+  /**
+   * Reverse an SRS address.  Addresses that are not SRS addresses or do not verify are not found.
+   * @param address the address to reverse, between position and limit
+   * @param out buffer to write the reversed address to.  Must have room for the address.
+   * @return the result of the lookup
+   */
+  Result reverse(ByteBuffer address, ByteBuffer out) {
+    if (SRSPrefix.of(address, address.position(), address.limit()) == null) return Result.NOT_FOUND;
+
+    int start = out.position();
+
+    try {
+      srs.reverse(address, out);
+    } catch (IllegalArgumentException e) {
+      out.position(start);
+      return Result.NOT_FOUND;
+    }
+
+    return Result.FOUND;
+  }
+
+  private static int indexOf(ByteBuffer buffer, byte value) {
+    for (int i = buffer.position(); i < buffer.limit(); i++) {
+      if (buffer.get(i) == value) return i;
+    }
+
+    return -1;
+  }
+
+  private static boolean sameBytes(ByteBuffer buffer, int start, ByteBuffer other) {
+    for (int i = 0; i < other.remaining(); i++) {
+      if (buffer.get(start + i) != other.get(other.position() + i)) return false;
+    }
+
+    return true;
+  }
+}
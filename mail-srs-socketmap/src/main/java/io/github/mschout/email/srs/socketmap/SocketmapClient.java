@@ -0,0 +1,107 @@
+package io.github.mschout.email.srs.socketmap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal blocking socketmap client over TCP, for testing a lookup server and driving load against it.  Requests can
+ * be pipelined by sending several before receiving the replies.
+ */
+public class SocketmapClient implements Closeable {
+  private final Socket socket;
+
+  private final InputStream in;
+
+  private final OutputStream out;
+
+  /**
+   * Connect to a socketmap server.
+   * @param address the address the server is listening on
+   * @throws IOException If the connection fails.
+   */
+  public SocketmapClient(SocketAddress address) throws IOException {
+    socket = new Socket();
+    socket.connect(address);
+    socket.setTcpNoDelay(true);
+
+    in = new BufferedInputStream(socket.getInputStream());
+    out = new BufferedOutputStream(socket.getOutputStream());
+  }
+
+  /**
+   * Look up a key and wait for the reply.
+   * @param map the map name
+   * @param key the key to look up
+   * @return the reply, e.g. "OK value" or "NOTFOUND "
+   * @throws IOException If the server can not be reached.
+   */
+  public String lookup(String map, String key) throws IOException {
+    send(map, key);
+    flush();
+
+    return receive();
+  }
+
+  /**
+   * Queue a request without waiting for the reply.
+   * @param map the map name
+   * @param key the key to look up
+   * @throws IOException If the server can not be reached.
+   */
+  public void send(String map, String key) throws IOException {
+    byte[] request = (map + " " + key).getBytes(StandardCharsets.UTF_8);
+
+    out.write((request.length + ":").getBytes(StandardCharsets.US_ASCII));
+    out.write(request);
+    out.write(',');
+  }
+
+  /**
+   * Send the queued requests.
+   * @throws IOException If the server can not be reached.
+   */
+  public void flush() throws IOException {
+    out.flush();
+  }
+
+  /**
+   * Wait for the next reply.
+   * @return the reply
+   * @throws IOException If the server can not be reached or the reply is not a netstring.
+   */
+  public String receive() throws IOException {
+    int length = 0;
+    int b;
+
+    while ((b = in.read()) != ':') {
+      if (b < '0' || b > '9') throw new IOException("Bad netstring length");
+
+      length = length * 10 + (b - '0');
+    }
+
+    byte[] reply = new byte[length];
+    int read = 0;
+
+    while (read < length) {
+      int n = in.read(reply, read, length - read);
+      if (n == -1) throw new IOException("Connection closed");
+      read += n;
+    }
+
+    if (in.read() != ',') throw new IOException("Bad netstring terminator");
+
+    return new String(reply, StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public void close() throws IOException {
+    socket.close();
+  }
+}
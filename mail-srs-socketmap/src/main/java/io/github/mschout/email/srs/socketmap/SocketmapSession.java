@@ -0,0 +1,112 @@
+package io.github.mschout.email.srs.socketmap;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Postfix socketmap protocol.  Requests and replies are netstrings: the decimal length, a colon, the data and a comma.
+ * A request is the map name and the key separated by a space.  The maps are named <code>forward</code> and
+ * <code>reverse</code>, and the replies are <code>OK</code> with the rewritten address, <code>NOTFOUND</code>, or
+ * <code>TEMP</code> with a reason.
+ */
+final class SocketmapSession extends LookupSession {
+  // Postfix limits requests and replies to 100000 bytes
+  static final int MAX_LENGTH = 100000;
+
+  private static final byte[] FORWARD = ascii("forward ");
+
+  private static final byte[] REVERSE = ascii("reverse ");
+
+  private static final byte[] OK = ascii("OK ");
+
+  private static final byte[] NOT_FOUND = ascii("NOTFOUND ");
+
+  private static final byte[] TEMP = ascii("TEMP secret is missing or invalid");
+
+  private static final byte[] UNKNOWN_MAP = ascii("PERM unknown map, use forward or reverse");
+
+  SocketmapSession(SRSLookup lookup) {
+    super(lookup);
+  }
+
+  @Override
+  boolean process(ByteBuffer input) {
+    while (input.hasRemaining()) {
+      int start = input.position();
+      int colon = -1;
+      int length = 0;
+
+      for (int i = start; i < input.limit(); i++) {
+        byte b = input.get(i);
+
+        if (b == ':') {
+          colon = i;
+          break;
+        }
+
+        if (b < '0' || b > '9' || i - start >= 6) return false;
+
+        length = length * 10 + (b - '0');
+      }
+
+      // wait for the rest of the length
+      if (colon == -1) return true;
+
+      if (colon == start || length > MAX_LENGTH) return false;
+
+      int end = colon + 1 + length;
+
+      // wait for the rest of the request
+      if (input.limit() <= end) return true;
+
+      if (input.get(end) != ',') return false;
+
+      request(input, colon + 1, end);
+      input.position(end + 1);
+    }
+
+    return true;
+  }
+
+  private void request(ByteBuffer input, int start, int end) {
+    boolean forward = startsWith(input, start, end, FORWARD);
+
+    if (!forward && !startsWith(input, start, end, REVERSE)) {
+      reply(UNKNOWN_MAP, null);
+      return;
+    }
+
+    int keyStart = start + FORWARD.length;
+
+    startKey(end - keyStart);
+    for (int i = keyStart; i < end; i++) key.put(input.get(i));
+
+    switch (lookup(forward)) {
+      case FOUND:
+        reply(OK, result);
+        break;
+      case NOT_FOUND:
+        reply(NOT_FOUND, null);
+        break;
+      default:
+        reply(TEMP, null);
+    }
+  }
+
+  private void reply(byte[] status, ByteBuffer value) {
+    int length = status.length + (value == null ? 0 : value.remaining());
+    ByteBuffer output = output(length + 8);
+
+    putDecimal(output, length);
+    output.put((byte) ':').put(status);
+    if (value != null) output.put(value);
+    output.put((byte) ',');
+  }
+
+  private static void putDecimal(ByteBuffer output, int value) {
+    int divisor = 1;
+
+    while (divisor <= value / 10) divisor *= 10;
+
+    for (; divisor > 0; divisor /= 10) output.put((byte) ('0' + (value / divisor) % 10));
+  }
+}
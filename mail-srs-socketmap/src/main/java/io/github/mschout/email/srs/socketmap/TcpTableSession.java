@@ -0,0 +1,104 @@
+package io.github.mschout.email.srs.socketmap;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Postfix tcp_table protocol.  Each request is a line <code>get key</code>, and each reply is a line
+ * <code>200 value</code>, <code>500 reason</code> for not found or <code>400 reason</code> for a temporary error.
+ * Keys and values have whitespace, control characters, 8 bit characters and % encoded as %XX.  A tcp_table server only
+ * serves one map, so forward and reverse lookups need their own listeners.
+ */
+final class TcpTableSession extends LookupSession {
+  // Longest request line that we accept
+  static final int MAX_LINE = 4096;
+
+  private static final byte[] GET = ascii("get ");
+
+  private static final byte[] FOUND = ascii("200 ");
+
+  private static final byte[] NOT_FOUND = ascii("500 not found\n");
+
+  private static final byte[] TEMP = ascii("400 secret is missing or invalid\n");
+
+  private static final byte[] BAD_REQUEST = ascii("400 bad request\n");
+
+  private static final byte[] HEX = ascii("0123456789ABCDEF");
+
+  private final boolean forward;
+
+  TcpTableSession(SRSLookup lookup, boolean forward) {
+    super(lookup);
+    this.forward = forward;
+  }
+
+  @Override
+  boolean process(ByteBuffer input) {
+    while (input.hasRemaining()) {
+      int start = input.position();
+      int newline = indexOf(input, (byte) '\n', start, input.limit());
+
+      // wait for the rest of the line
+      if (newline == -1) return input.remaining() <= MAX_LINE;
+
+      int end = newline > start && input.get(newline - 1) == '\r' ? newline - 1 : newline;
+
+      request(input, start, end);
+      input.position(newline + 1);
+    }
+
+    return true;
+  }
+
+  private void request(ByteBuffer input, int start, int end) {
+    if (!startsWith(input, start, end, GET) || !decodeKey(input, start + GET.length, end)) {
+      output(BAD_REQUEST.length).put(BAD_REQUEST);
+      return;
+    }
+
+    switch (lookup(forward)) {
+      case FOUND:
+        ByteBuffer output = output(FOUND.length + 3 * result.remaining() + 1).put(FOUND);
+
+        while (result.hasRemaining()) {
+          int b = result.get() & 0xff;
+
+          if (b <= ' ' || b >= 127 || b == '%') {
+            output.put((byte) '%').put(HEX[b >> 4]).put(HEX[b & 0xf]);
+          } else {
+            output.put((byte) b);
+          }
+        }
+
+        output.put((byte) '\n');
+        break;
+      case NOT_FOUND:
+        output(NOT_FOUND.length).put(NOT_FOUND);
+        break;
+      default:
+        output(TEMP.length).put(TEMP);
+    }
+  }
+
+  // Decode the %XX escapes of the key into the key buffer.  Returns false if an escape is malformed.
+  private boolean decodeKey(ByteBuffer input, int start, int end) {
+    startKey(end - start);
+
+    for (int i = start; i < end; i++) {
+      byte b = input.get(i);
+
+      if (b == '%') {
+        int high = i + 2 < end ? Character.digit(input.get(i + 1), 16) : -1;
+        int low = high == -1 ? -1 : Character.digit(input.get(i + 2), 16);
+
+        if (low == -1) return false;
+
+        b = (byte) ((high << 4) | low);
+        i += 2;
+      }
+
+      key.put(b);
+    }
+
+    return true;
+  }
+}
@@ -0,0 +1,129 @@
+package io.github.mschout.email.srs.socketmap;
+
+import io.github.mschout.email.srs.SRS;
+import io.github.mschout.email.srs.metrics.LatencyHistogram;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Offline load test for the lookup daemon.  Starts a {@link LookupServer} with a socketmap listener on the loopback
+ * interface, and has a number of concurrent connections send batches of pipelined forward and reverse lookups.
+ * Prints the lookup rate and the batch latency percentiles.
+ * <pre>
+ * LookupLoadDriver [connections] [lookups per connection] [pipeline depth] [server threads]
+ * </pre>
+ */
+public final class LookupLoadDriver {
+  private static final String ALIAS = "forwarder.example.net";
+
+  private LookupLoadDriver() {}
+
+  public static void main(String[] args) throws Exception {
+    int connections = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+    int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+    int depth = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+    int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+    SRS srs = new SRS(SRS.Type.GUARDED, "load-driver-secret");
+
+    try (LookupServer server = new LookupServer(SRSLookup.builder().srs(srs).alias(ALIAS).build(), threads)) {
+      SocketAddress address = server.listen(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), LookupProtocol.SOCKETMAP);
+
+      // warm up, then measure
+      run(address, srs, Math.min(connections, 16), Math.min(lookups, 20000), depth, new LatencyHistogram());
+
+      LatencyHistogram latency = new LatencyHistogram();
+      long start = System.nanoTime();
+
+      run(address, srs, connections, lookups, depth, latency);
+
+      double seconds = (System.nanoTime() - start) / 1e9;
+      long total = latency.getCount() * depth;
+
+      System.out.printf(
+        "%d connections, pipeline depth %d, %d lookups, %d server threads: %.0f lookups/s%n",
+        connections,
+        depth,
+        total,
+        threads,
+        total / seconds
+      );
+      System.out.printf(
+        "latency per batch (upper bound): p50 %s  p90 %s  p99 %s  p99.9 %s%n",
+        micros(latency.getPercentile(50)),
+        micros(latency.getPercentile(90)),
+        micros(latency.getPercentile(99)),
+        micros(latency.getPercentile(99.9))
+      );
+    }
+  }
+
+  // Run the connections to completion, recording the time to send each batch and receive all of its replies
+  private static void run(SocketAddress address, SRS srs, int connections, int lookups, int depth, LatencyHistogram latency)
+    throws Exception {
+    CountDownLatch ready = new CountDownLatch(connections);
+    CountDownLatch go = new CountDownLatch(1);
+    AtomicReference<Exception> failure = new AtomicReference<>();
+    List<Thread> threads = new ArrayList<>();
+
+    for (int c = 0; c < connections; c++) {
+      final int connection = c;
+
+      Thread thread = new Thread(
+        () -> {
+          try (SocketmapClient client = new SocketmapClient(address)) {
+            String sender = "user" + connection + "@sender" + connection + ".example.com";
+            String srsAddress = srs.forward("bounce" + connection + "@origin.example.org", ALIAS);
+
+            ready.countDown();
+            go.await();
+
+            for (int sent = 0; sent < lookups; sent += depth) {
+              long start = System.nanoTime();
+
+              for (int i = 0; i < depth; i++) {
+                if (i % 2 == 0) {
+                  client.send("forward", sender);
+                } else {
+                  client.send("reverse", srsAddress);
+                }
+              }
+
+              client.flush();
+
+              for (int i = 0; i < depth; i++) {
+                if (!client.receive().startsWith("OK ")) throw new IllegalStateException("Lookup failed");
+              }
+
+              latency.record(System.nanoTime() - start);
+            }
+          } catch (IOException | InvalidKeyException | InterruptedException | RuntimeException e) {
+            failure.compareAndSet(null, e);
+            ready.countDown();
+          }
+        }
+      );
+
+      thread.start();
+      threads.add(thread);
+    }
+
+    ready.await();
+    go.countDown();
+
+    for (Thread thread : threads) thread.join();
+
+    if (failure.get() != null) throw failure.get();
+  }
+
+  private static String micros(long nanos) {
+    return String.format("%.1fus", nanos / 1000.0);
+  }
+}
@@ -0,0 +1,135 @@
+package io.github.mschout.email.srs.socketmap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.github.mschout.email.srs.SRS;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.InvalidKeyException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class LookupServerTest {
+  private static final String ALIAS = "forwarder.com";
+
+  private final SRS srs = new SRS(SRS.Type.GUARDED, "lookup-secret");
+
+  private LookupServer server;
+
+  @BeforeEach
+  void start() throws IOException {
+    server = new LookupServer(SRSLookup.builder().srs(srs).alias(ALIAS).build(), 2);
+  }
+
+  @AfterEach
+  void stop() throws IOException {
+    server.close();
+  }
+
+  @Test
+  void socketmap() throws IOException, InvalidKeyException {
+    SocketAddress address = server.listen(loopback(), LookupProtocol.SOCKETMAP);
+    String forwarded = srs.forward("jdoe@example.com", ALIAS);
+
+    try (SocketmapClient client = new SocketmapClient(address)) {
+      assertEquals("OK " + forwarded, client.lookup("forward", "jdoe@example.com"));
+      assertEquals("OK jdoe@example.com", client.lookup("reverse", forwarded));
+
+      assertEquals("NOTFOUND ", client.lookup("forward", "local@" + ALIAS), "Local addresses are left alone");
+      assertEquals("NOTFOUND ", client.lookup("forward", "root"));
+      assertEquals("NOTFOUND ", client.lookup("reverse", "jdoe@example.com"));
+      assertEquals("NOTFOUND ", client.lookup("reverse", "SRS0=XXXX=ZZ=example.com=jdoe@" + ALIAS), "Forged addresses");
+      assertTrue(client.lookup("aliases", "jdoe").startsWith("PERM "));
+
+      // pipelined requests are answered in order
+      for (int i = 0; i < 100; i++) client.send(i % 2 == 0 ? "forward" : "reverse", i % 2 == 0 ? "jdoe@example.com" : forwarded);
+      client.flush();
+
+      for (int i = 0; i < 100; i++) assertEquals(i % 2 == 0 ? "OK " + forwarded : "OK jdoe@example.com", client.receive());
+    }
+  }
+
+  @Test
+  void tcpTable() throws IOException, InvalidKeyException {
+    SocketAddress forward = server.listen(loopback(), LookupProtocol.TCP_TABLE_FORWARD);
+    SocketAddress reverse = server.listen(loopback(), LookupProtocol.TCP_TABLE_REVERSE);
+
+    String forwarded = srs.forward("j%doe@example.com", ALIAS);
+
+    try (Socket socket = connect(forward)) {
+      BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+      OutputStream out = socket.getOutputStream();
+
+      // two pipelined requests in one write
+      out.write("get j%25doe@example.com\nput a b\r\n".getBytes(StandardCharsets.US_ASCII));
+      out.flush();
+
+      assertEquals("200 " + forwarded.replace("%", "%25"), in.readLine());
+      assertTrue(in.readLine().startsWith("400 "));
+    }
+
+    try (Socket socket = connect(reverse)) {
+      BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+      OutputStream out = socket.getOutputStream();
+
+      out.write(("get " + forwarded.replace("%", "%25") + "\nget jdoe@example.com\n").getBytes(StandardCharsets.US_ASCII));
+      out.flush();
+
+      assertEquals("200 j%25doe@example.com", in.readLine());
+      assertTrue(in.readLine().startsWith("500 "));
+    }
+  }
+
+  @Test
+  void unixSocket() throws Exception {
+    SocketAddress address;
+
+    try {
+      address = LookupServer.unixSocket(Files.createTempDirectory("srs").resolve("socketmap").toString());
+    } catch (UnsupportedOperationException e) {
+      Assumptions.abort("Unix sockets are not supported by this JVM");
+      return;
+    }
+
+    server.listen(address, LookupProtocol.SOCKETMAP);
+
+    Path socketFile = (Path) address.getClass().getMethod("getPath").invoke(address);
+    assertTrue(Files.exists(socketFile));
+
+    try (SocketChannel channel = (SocketChannel) SocketChannel.class.getMethod("open", SocketAddress.class).invoke(null, address)) {
+      channel.write(ByteBuffer.wrap("24:forward jdoe@example.com,".getBytes(StandardCharsets.US_ASCII)));
+
+      ByteBuffer reply = ByteBuffer.allocate(256);
+      while (reply.position() == 0 || reply.get(reply.position() - 1) != ',') channel.read(reply);
+
+      String expected = "OK " + srs.forward("jdoe@example.com", ALIAS);
+      assertEquals(expected.length() + ":" + expected + ",", new String(reply.array(), 0, reply.position(), StandardCharsets.US_ASCII));
+    }
+
+    server.close();
+    assertFalse(Files.exists(socketFile), "Socket file is removed on close");
+  }
+
+  private static InetSocketAddress loopback() {
+    return new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+  }
+
+  private static Socket connect(SocketAddress address) throws IOException {
+    Socket socket = new Socket();
+    socket.connect(address);
+    return socket;
+  }
+}
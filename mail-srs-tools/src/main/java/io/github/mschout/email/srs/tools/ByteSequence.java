@@ -0,0 +1,46 @@
+package io.github.mschout.email.srs.tools;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Read only view of bytes in a buffer as ISO-8859-1 characters, so that addresses in a mapped log can be handed to the
+ * provider's parser without decoding or copying them.  Every byte maps to one character, so rewritten addresses can
+ * be written back out byte for byte.
+ */
+final class ByteSequence implements CharSequence {
+  private final ByteBuffer buffer;
+
+  private final int offset;
+
+  private final int length;
+
+  ByteSequence(ByteBuffer buffer, int offset, int length) {
+    this.buffer = buffer;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public char charAt(int index) {
+    return (char) (buffer.get(offset + index) & 0xff);
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return new ByteSequence(buffer, offset + start, end - start);
+  }
+
+  @Override
+  public String toString() {
+    char[] chars = new char[length];
+
+    for (int i = 0; i < length; i++) chars[i] = charAt(i);
+
+    return new String(chars);
+  }
+}
@@ -0,0 +1,398 @@
+package io.github.mschout.email.srs.tools;
+
+import io.github.mschout.email.srs.InvalidSRSAddressException;
+import io.github.mschout.email.srs.SRSAddressView;
+import io.github.mschout.email.srs.SRSFailure;
+import io.github.mschout.email.srs.provider.SRSPrefix;
+import io.github.mschout.email.srs.provider.SRSProvider;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Bulk reverser for the SRS addresses in mail logs.
+ * <p>
+ * Log files are memory mapped and split into line aligned chunks, which are scanned on a pool of worker threads.
+ * Every SRS0 and SRS1 address that is found is parsed by the provider straight from the mapped bytes, and is either
+ * replaced by the address it was made from or annotated with it.  Chunks are written out in order as they complete,
+ * and only a few are in flight per thread, so memory use does not grow with the size of the logs.
+ */
+@Builder
+@Getter
+public class LogReverser {
+
+  public enum Mode {
+    /** Replace each SRS address with the reversed address */
+    REWRITE,
+    /** Leave each SRS address in place, followed by the reversed address in parentheses */
+    ANNOTATE
+  }
+
+  public enum Verification {
+    /** Check the hash and the timestamp, as is done when delivering mail */
+    FULL,
+    /** Check the hash, but accept expired timestamps, as old logs are full of them */
+    HASH,
+    /** Reverse anything that looks like an SRS address, including forgeries */
+    NONE
+  }
+
+  // Chunks in flight per worker thread, so that a worker never waits for the writer to catch up
+  private static final int CHUNKS_PER_THREAD = 2;
+
+  // Parse results are only needed until the reversed address has been copied out, so each thread reuses one view.
+  private static final ThreadLocal<SRSAddressView> VIEW = ThreadLocal.withInitial(SRSAddressView::new);
+
+  private static final ThreadLocal<StringBuilder> ADDRESS = ThreadLocal.withInitial(StringBuilder::new);
+
+  /**
+   * Provider that parses the addresses.  It must have the secrets that the addresses were made with, unless
+   * verification is turned off.
+   */
+  private final SRSProvider provider;
+
+  /**
+   * How much of each address to check before reversing it.  Addresses that fail are left as they are.
+   */
+  @Builder.Default
+  private final Verification verification = Verification.HASH;
+
+  @Builder.Default
+  private final Mode mode = Mode.REWRITE;
+
+  /**
+   * Number of worker threads.  Defaults to one per processor.
+   */
+  @Builder.Default
+  private final int threads = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * Size of the chunks that the logs are mapped and scanned in.  Chunks end at a line break, and are made larger for
+   * lines that do not fit.
+   */
+  @Builder.Default
+  private final int chunkSize = 8 << 20;
+
+  /**
+   * Counts of what was done to a set of logs.
+   */
+  @Getter
+  public static final class Summary {
+    private long bytes;
+
+    private long addresses;
+
+    private long reversed;
+
+    private long failed;
+
+    private void add(Chunk chunk) {
+      bytes += chunk.inputLength;
+      addresses += chunk.addresses;
+      reversed += chunk.reversed;
+      failed += chunk.failed;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d bytes, %d SRS addresses, %d reversed, %d failed", bytes, addresses, reversed, failed);
+    }
+  }
+
+  /**
+   * Reverse the SRS addresses in a log file.
+   * @param input the log file
+   * @param out stream to write the rewritten log to
+   * @return counts of the addresses found
+   * @throws IOException If the log can not be read or the output can not be written.
+   */
+  public Summary reverse(Path input, OutputStream out) throws IOException {
+    return reverse(Collections.singletonList(input), out);
+  }
+
+  /**
+   * Reverse the SRS addresses in log files, writing them one after another to the same stream.
+   * @param inputs the log files
+   * @param out stream to write the rewritten logs to
+   * @return counts of the addresses found
+   * @throws IOException If a log can not be read or the output can not be written.
+   */
+  public Summary reverse(List<Path> inputs, OutputStream out) throws IOException {
+    if (threads < 1) throw new IllegalArgumentException("threads must be at least 1, not " + threads);
+    if (chunkSize < 1) throw new IllegalArgumentException("chunkSize must be at least 1, not " + chunkSize);
+
+    ExecutorService executor = Executors.newFixedThreadPool(
+      threads,
+      runnable -> {
+        Thread thread = new Thread(runnable, "srs-log-reverser");
+        thread.setDaemon(true);
+        return thread;
+      }
+    );
+
+    Deque<Future<Chunk>> pending = new ArrayDeque<>();
+    Summary summary = new Summary();
+
+    try {
+      for (Path input : inputs) {
+        // mappings stay valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+          long size = channel.size();
+          long position = 0;
+
+          while (position < size) {
+            ByteBuffer chunk = mapLines(channel, position, size);
+
+            position += chunk.limit();
+
+            if (pending.size() >= threads * CHUNKS_PER_THREAD) write(pending.removeFirst(), out, summary);
+
+            pending.addLast(executor.submit(() -> process(chunk)));
+          }
+        }
+      }
+
+      while (!pending.isEmpty()) write(pending.removeFirst(), out, summary);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    out.flush();
+
+    return summary;
+  }
+
+  private static void write(Future<Chunk> future, OutputStream out, Summary summary) throws IOException {
+    Chunk chunk;
+
+    try {
+      chunk = future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while reversing logs");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+      if (e.getCause() instanceof Error) throw (Error) e.getCause();
+      throw new IOException(e.getCause());
+    }
+
+    out.write(chunk.bytes, 0, chunk.length);
+    summary.add(chunk);
+  }
+
+  // Map the next chunk of the file, ending at the last line break in it.  A chunk is grown until it holds at least one
+  // whole line, so that no address is split between chunks.
+  private ByteBuffer mapLines(FileChannel channel, long position, long size) throws IOException {
+    long length = Math.min(chunkSize, size - position);
+
+    while (true) {
+      ByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+      if (position + length == size) return chunk;
+
+      int lineEnd = lineEnd(chunk);
+
+      if (lineEnd > 0) {
+        chunk.limit(lineEnd);
+        return chunk;
+      }
+
+      // a single mapping can not be larger than this, so a line this long is split after all
+      if (length == Integer.MAX_VALUE) return chunk;
+
+      length = Math.min(Math.min(length * 2, size - position), Integer.MAX_VALUE);
+    }
+  }
+
+  // End of the last complete line in the buffer, or 0 if there is no line break in it
+  private static int lineEnd(ByteBuffer buffer) {
+    for (int i = buffer.limit() - 1; i >= 0; i--) {
+      if (buffer.get(i) == '\n') return i + 1;
+    }
+
+    return 0;
+  }
+
+  /**
+   * Find and reverse the SRS addresses in a buffer.
+   * @param in the bytes to scan, from 0 to the limit
+   * @return the rewritten bytes and counts
+   */
+  Chunk process(ByteBuffer in) {
+    int end = in.limit();
+    Chunk chunk = new Chunk(end);
+    ByteSequence source = new ByteSequence(in, 0, end);
+    int copied = 0;
+
+    for (int i = 0; i + 5 < end; i++) {
+      if (SRSPrefix.of(in, i, end) == null || (i > 0 && isWordChar(in.get(i - 1)))) continue;
+
+      int at = i + 5;
+      while (at < end && isLocalPartChar(in.get(at))) at++;
+
+      if (at == end || in.get(at) != '@') {
+        i = at;
+        continue;
+      }
+
+      int domainEnd = at + 1;
+      while (domainEnd < end && isDomainChar(in.get(domainEnd))) domainEnd++;
+
+      // a full stop after the address ends the sentence, not the domain
+      while (domainEnd > at + 1 && in.get(domainEnd - 1) == '.') domainEnd--;
+
+      if (domainEnd == at + 1) {
+        i = at;
+        continue;
+      }
+
+      chunk.addresses++;
+
+      StringBuilder reversed = reverse(source, i, at);
+
+      if (reversed == null) {
+        chunk.failed++;
+      } else {
+        chunk.reversed++;
+
+        if (mode == Mode.REWRITE) {
+          chunk.copy(in, copied, i);
+          chunk.append(reversed);
+        } else {
+          chunk.copy(in, copied, domainEnd);
+          chunk.append(" (").append(reversed).append(")");
+        }
+
+        copied = domainEnd;
+      }
+
+      i = domainEnd - 1;
+    }
+
+    chunk.copy(in, copied, end);
+
+    return chunk;
+  }
+
+  // Parse the local part of an SRS address, and build the address it was made from, or null if it does not verify
+  private StringBuilder reverse(CharSequence source, int start, int end) {
+    SRSAddressView view = VIEW.get();
+
+    try {
+      if (verification == Verification.NONE) {
+        provider.parseUnverified(source, start, end, view);
+      } else {
+        try {
+          provider.parse(source, start, end, view);
+        } catch (InvalidSRSAddressException e) {
+          // the hash is checked before the timestamp, so an expired address has a good hash
+          if (verification == Verification.FULL || e.getFailure() != SRSFailure.EXPIRED) throw e;
+
+          provider.parseUnverified(source, start, end, view);
+        }
+      }
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+
+    StringBuilder address = ADDRESS.get();
+    address.setLength(0);
+
+    return view.appendAddress(address);
+  }
+
+  // Characters that can not come straight before an SRS address, so that e.g. "xsrs0=" is not taken for one
+  private static boolean isWordChar(byte b) {
+    return isAlphanumeric(b) || b == '.' || b == '-' || b == '+' || b == '_';
+  }
+
+  // Unquoted local part characters: printable ASCII without spaces or the specials that delimit addresses in logs
+  private static boolean isLocalPartChar(byte b) {
+    if (b <= ' ' || b == 0x7f) return false;
+
+    switch (b) {
+      case '<':
+      case '>':
+      case '(':
+      case ')':
+      case '[':
+      case ']':
+      case ',':
+      case ';':
+      case ':':
+      case '"':
+      case '\\':
+      case '@':
+        return false;
+      default:
+        return true;
+    }
+  }
+
+  private static boolean isDomainChar(byte b) {
+    return isAlphanumeric(b) || b == '.' || b == '-';
+  }
+
+  private static boolean isAlphanumeric(byte b) {
+    return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9');
+  }
+
+  /**
+   * The output for one chunk of a log, and what was found in it.
+   */
+  static final class Chunk {
+    private final int inputLength;
+
+    private byte[] bytes;
+
+    private int length;
+
+    private long addresses;
+
+    private long reversed;
+
+    private long failed;
+
+    Chunk(int inputLength) {
+      this.inputLength = inputLength;
+      // rewriting mostly shrinks addresses, annotating grows them
+      this.bytes = new byte[inputLength + inputLength / 16 + 64];
+    }
+
+    // Bulk copy the unchanged bytes between start and end of the input
+    void copy(ByteBuffer in, int start, int end) {
+      ensureCapacity(end - start);
+      in.position(start);
+      in.get(bytes, length, end - start);
+      length += end - start;
+    }
+
+    // Reversed addresses come from the log's own bytes, so every character fits in a byte
+    Chunk append(CharSequence chars) {
+      ensureCapacity(chars.length());
+
+      for (int i = 0; i < chars.length(); i++) bytes[length++] = (byte) chars.charAt(i);
+
+      return this;
+    }
+
+    private void ensureCapacity(int more) {
+      if (length + more > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + more));
+    }
+  }
+}
@@ -0,0 +1,117 @@
+package io.github.mschout.email.srs.tools;
+
+import io.github.mschout.email.srs.SRS;
+import io.github.mschout.email.srs.provider.DefaultSRSProviderFactory;
+import io.github.mschout.email.srs.provider.SecretsFileWatcher;
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reverse the SRS addresses in mail logs from the command line.
+ * <pre>
+ * LogReverserMain --secrets /etc/srs/secrets [--type GUARDED] [--verify FULL|HASH|NONE] [--annotate] [--threads N]
+ *                 [--output FILE] LOG...
+ * </pre>
+ * The logs are written one after another to the output file, or to standard output, and a summary of what was found
+ * is printed to standard error.  By default addresses are checked against the secrets but may have expired, and are
+ * replaced by the address they were made from.
+ * <p>
+ * The secrets file has one secret per line, and every one of them is tried.  Blank lines and lines starting with # are
+ * ignored.
+ */
+public final class LogReverserMain {
+
+  private LogReverserMain() {}
+
+  public static void main(String[] args) throws IOException {
+    String secretsFile = null;
+    String outputFile = null;
+    SRS.Type type = SRS.Type.GUARDED;
+    LogReverser.LogReverserBuilder builder = LogReverser.builder();
+    List<Path> inputs = new ArrayList<>();
+
+    for (int i = 0; i < args.length; i++) {
+      if (!args[i].startsWith("--")) {
+        inputs.add(Paths.get(args[i]));
+        continue;
+      }
+
+      if (args[i].equals("--annotate")) {
+        builder.mode(LogReverser.Mode.ANNOTATE);
+        continue;
+      }
+
+      String value = i + 1 < args.length ? args[i + 1] : null;
+
+      if (value == null) usage("Missing value for " + args[i]);
+
+      try {
+        switch (args[i]) {
+          case "--secrets":
+            secretsFile = value;
+            break;
+          case "--type":
+            type = SRS.Type.valueOf(value.toUpperCase());
+            break;
+          case "--verify":
+            builder.verification(LogReverser.Verification.valueOf(value.toUpperCase()));
+            break;
+          case "--threads":
+            int threads = Integer.parseInt(value);
+
+            if (threads < 1) usage("--threads must be at least 1");
+
+            builder.threads(threads);
+            break;
+          case "--output":
+            outputFile = value;
+            break;
+          default:
+            usage("Unknown option " + args[i]);
+        }
+      } catch (IllegalArgumentException e) {
+        // a type that does not exist, or a number that is not one
+        usage("Invalid value for " + args[i] + ": " + value);
+      }
+
+      i++;
+    }
+
+    if (secretsFile == null) usage("--secrets is required");
+    if (inputs.isEmpty()) usage("No log files given");
+
+    List<String> secrets = null;
+
+    try {
+      secrets = SecretsFileWatcher.readSecrets(Paths.get(secretsFile));
+    } catch (IOException e) {
+      usage("Can not load secrets: " + e.getMessage());
+    }
+
+    LogReverser reverser = builder.provider(DefaultSRSProviderFactory.getInstance().createProvider(type, secrets)).build();
+
+    try (
+      OutputStream out = new BufferedOutputStream(
+        outputFile == null ? new FileOutputStream(FileDescriptor.out) : Files.newOutputStream(Paths.get(outputFile)),
+        1 << 16
+      )
+    ) {
+      System.err.println(reverser.reverse(inputs, out));
+    }
+  }
+
+  private static void usage(String message) {
+    System.err.println(message);
+    System.err.println("usage: LogReverserMain --secrets FILE [--type GUARDED|REVERSIBLE|SHORTCUT] [--verify FULL|HASH|NONE]");
+    System.err.println("                       [--annotate] [--threads N] [--output FILE] LOG...");
+    System.exit(2);
+  }
+}
@@ -0,0 +1,157 @@
+package io.github.mschout.email.srs.tools;
+
+import io.github.mschout.email.srs.SRS;
+import io.github.mschout.email.srs.provider.DefaultSRSProviderFactory;
+import io.github.mschout.email.srs.provider.SecretsFileWatcher;
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Forward or reverse addresses from the command line.
+ * <pre>
+ * SRSMain --secrets /etc/srs/secrets [--type GUARDED] [--null] [--threads N] forward ALIAS [ADDRESS...]
+ * SRSMain --secrets /etc/srs/secrets [--type GUARDED] [--null] [--threads N] reverse [ADDRESS...]
+ * </pre>
+ * Addresses given as arguments are rewritten one per line to standard output.  Without any, addresses are read from
+ * standard input, one per line or, with --null, each followed by a NUL byte, and written out the same way in the same
+ * order.  Addresses that can not be rewritten give an empty record and an error on standard error, and the exit status
+ * is 1 if there were any.
+ * <p>
+ * The secrets file has one secret per line, primary first.  Blank lines and lines starting with # are ignored.
+ */
+public final class SRSMain {
+
+  private SRSMain() {}
+
+  public static void main(String[] args) throws IOException {
+    String secretsFile = null;
+    SRS.Type type = SRS.Type.GUARDED;
+    StreamRewriter.StreamRewriterBuilder builder = StreamRewriter.builder();
+    List<String> operands = new ArrayList<>();
+
+    for (int i = 0; i < args.length; i++) {
+      if (!args[i].startsWith("--")) {
+        operands.add(args[i]);
+        continue;
+      }
+
+      if (args[i].equals("--null")) {
+        builder.delimiter((byte) 0);
+        continue;
+      }
+
+      String value = i + 1 < args.length ? args[i + 1] : null;
+
+      if (value == null) usage("Missing value for " + args[i]);
+
+      try {
+        switch (args[i]) {
+          case "--secrets":
+            secretsFile = value;
+            break;
+          case "--type":
+            type = SRS.Type.valueOf(value.toUpperCase());
+            break;
+          case "--threads":
+            int threads = Integer.parseInt(value);
+
+            if (threads < 1) usage("--threads must be at least 1");
+
+            builder.threads(threads);
+            break;
+          default:
+            usage("Unknown option " + args[i]);
+        }
+      } catch (IllegalArgumentException e) {
+        // a type that does not exist, or a number that is not one
+        usage("Invalid value for " + args[i] + ": " + value);
+      }
+
+      i++;
+    }
+
+    if (secretsFile == null) usage("--secrets is required");
+    if (operands.isEmpty()) usage("No operation given");
+
+    int addresses = 1;
+
+    switch (operands.get(0)) {
+      case "forward":
+        if (operands.size() < 2) usage("forward needs an alias");
+        builder.operation(StreamRewriter.Operation.FORWARD).alias(operands.get(1));
+        addresses = 2;
+        break;
+      case "reverse":
+        builder.operation(StreamRewriter.Operation.REVERSE);
+        break;
+      default:
+        usage("Unknown operation " + operands.get(0));
+    }
+
+    List<String> secrets = null;
+
+    try {
+      secrets = SecretsFileWatcher.readSecrets(Paths.get(secretsFile));
+    } catch (IOException e) {
+      usage("Can not load secrets: " + e.getMessage());
+    }
+
+    SRS srs = null;
+
+    try {
+      srs = new SRS(DefaultSRSProviderFactory.getInstance().createProvider(type, secrets));
+    } catch (IllegalArgumentException e) {
+      usage("Can not create a " + type + " provider: " + e.getMessage());
+    }
+
+    StreamRewriter rewriter = builder.srs(srs).build();
+
+    OutputStream out = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16);
+    boolean failed;
+
+    if (operands.size() > addresses) {
+      failed = rewriteArguments(rewriter, operands.subList(addresses, operands.size()), out);
+    } else {
+      failed = rewriter.rewrite(new FileInputStream(FileDescriptor.in), out, System.err).getFailed() > 0;
+    }
+
+    out.close();
+
+    System.exit(failed ? 1 : 0);
+  }
+
+  private static boolean rewriteArguments(StreamRewriter rewriter, List<String> addresses, OutputStream out) throws IOException {
+    PrintStream printer = new PrintStream(out, false, "UTF-8");
+    boolean failed = false;
+
+    for (String address : addresses) {
+      try {
+        printer.print(rewriter.rewrite(address));
+      } catch (Exception e) {
+        System.err.println(address + ": " + e.getMessage());
+        failed = true;
+      }
+
+      printer.print((char) rewriter.getDelimiter());
+    }
+
+    printer.flush();
+
+    return failed;
+  }
+
+  private static void usage(String message) {
+    System.err.println(message);
+    System.err.println("usage: SRSMain --secrets FILE [--type GUARDED|REVERSIBLE|SHORTCUT] [--null] [--threads N]");
+    System.err.println("               forward ALIAS [ADDRESS...] | reverse [ADDRESS...]");
+    System.exit(2);
+  }
+}
@@ -0,0 +1,282 @@
+package io.github.mschout.email.srs.tools;
+
+import io.github.mschout.email.srs.SRS;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Forwards or reverses a stream of addresses, one per record.
+ * <p>
+ * The input is read in chunks that end at a record delimiter, which are rewritten on a pool of worker threads and
+ * written out in order as they complete.  Each input record gives exactly one output record, so the output lines up
+ * with the input: an address that can not be rewritten gives an empty record, and is reported with its record number
+ * to the error stream.  Empty input records give empty output records without an error.
+ */
+@Builder
+@Getter
+public class StreamRewriter {
+
+  public enum Operation {
+    /** Rewrite each sender address for forwarding through the alias */
+    FORWARD,
+    /** Reverse each SRS address to the address it was made from */
+    REVERSE
+  }
+
+  // Chunks in flight per worker thread, so that a worker never waits for the writer to catch up
+  private static final int CHUNKS_PER_THREAD = 2;
+
+  private final SRS srs;
+
+  @Builder.Default
+  private final Operation operation = Operation.REVERSE;
+
+  /**
+   * Local address or alias that forwarded addresses are rewritten to.  Only used for {@link Operation#FORWARD}.
+   */
+  private final String alias;
+
+  /**
+   * Byte that ends each record: a line feed, or 0 for records from find -print0 and the like.  With line feeds, a
+   * carriage return at the end of a record is dropped.
+   */
+  @Builder.Default
+  private final byte delimiter = '\n';
+
+  /**
+   * Number of worker threads.  Defaults to one per processor.
+   */
+  @Builder.Default
+  private final int threads = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * Size of the chunks that the input is read in.  Chunks are made larger for records that do not fit.
+   */
+  @Builder.Default
+  private final int chunkSize = 256 << 10;
+
+  /**
+   * Counts of what was done to a stream.
+   */
+  @Getter
+  public static final class Summary {
+    private long records;
+
+    private long failed;
+
+    @Override
+    public String toString() {
+      return String.format("%d addresses, %d failed", records, failed);
+    }
+  }
+
+  /**
+   * Rewrite every record in the input, until the end of the input.
+   * @param in stream of delimited addresses, in UTF-8
+   * @param out stream to write the rewritten addresses to, each followed by the delimiter
+   * @param errors stream that failures are reported to, one line each
+   * @return counts of the addresses rewritten
+   * @throws IOException If the input can not be read or the output can not be written.
+   */
+  public Summary rewrite(InputStream in, OutputStream out, PrintStream errors) throws IOException {
+    if (threads < 1) throw new IllegalArgumentException("threads must be at least 1, not " + threads);
+    if (chunkSize < 1) throw new IllegalArgumentException("chunkSize must be at least 1, not " + chunkSize);
+    if (operation == Operation.FORWARD && alias == null) throw new IllegalArgumentException("Forwarding needs an alias");
+
+    ExecutorService executor = Executors.newFixedThreadPool(
+      threads,
+      runnable -> {
+        Thread thread = new Thread(runnable, "srs-stream-rewriter");
+        thread.setDaemon(true);
+        return thread;
+      }
+    );
+
+    Deque<Future<Chunk>> pending = new ArrayDeque<>();
+    Summary summary = new Summary();
+    Reader reader = new Reader(in);
+
+    try {
+      while (true) {
+        // answer everything read so far before waiting for more, so that a script at the other end of a pipe can
+        // send an address and wait for its answer
+        if (reader.wouldWait()) {
+          while (!pending.isEmpty()) write(pending.removeFirst(), out, errors, summary);
+          out.flush();
+        }
+
+        byte[] chunk = reader.next();
+
+        if (chunk == null) break;
+
+        if (pending.size() >= threads * CHUNKS_PER_THREAD) write(pending.removeFirst(), out, errors, summary);
+
+        pending.addLast(executor.submit(() -> process(chunk)));
+      }
+
+      while (!pending.isEmpty()) write(pending.removeFirst(), out, errors, summary);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    out.flush();
+    errors.flush();
+
+    return summary;
+  }
+
+  /**
+   * Rewrite one address.
+   * @param address the address
+   * @return the rewritten address
+   * @throws Exception If the address can not be rewritten.
+   */
+  public String rewrite(String address) throws Exception {
+    return operation == Operation.FORWARD ? srs.forward(address, alias) : srs.reverse(address);
+  }
+
+  private static void write(Future<Chunk> future, OutputStream out, PrintStream errors, Summary summary) throws IOException {
+    Chunk chunk;
+
+    try {
+      chunk = future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while rewriting addresses");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+      if (e.getCause() instanceof Error) throw (Error) e.getCause();
+      throw new IOException(e.getCause());
+    }
+
+    out.write(chunk.output);
+
+    // record numbers are only known here, where the chunks are in order
+    for (Failure failure : chunk.failures) {
+      errors.println("record " + (summary.records + failure.record + 1) + ": " + failure.message);
+    }
+
+    summary.records += chunk.records;
+    summary.failed += chunk.failures.size();
+  }
+
+  // Rewrite the records in a chunk, which ends with a delimiter unless it is the end of the input
+  private Chunk process(byte[] input) {
+    StringBuilder output = new StringBuilder(input.length * 2);
+    Chunk chunk = new Chunk();
+    int start = 0;
+
+    while (start < input.length) {
+      int end = start;
+
+      while (end < input.length && input[end] != delimiter) end++;
+
+      int recordEnd = delimiter == '\n' && end > start && input[end - 1] == '\r' ? end - 1 : end;
+
+      if (recordEnd > start) {
+        String address = new String(input, start, recordEnd - start, StandardCharsets.UTF_8);
+
+        try {
+          output.append(rewrite(address));
+        } catch (Exception e) {
+          chunk.failures.add(new Failure(chunk.records, address + ": " + e.getMessage()));
+        }
+      }
+
+      output.append((char) delimiter);
+      chunk.records++;
+      start = end + 1;
+    }
+
+    chunk.output = output.toString().getBytes(StandardCharsets.UTF_8);
+
+    return chunk;
+  }
+
+  private static final class Chunk {
+    private byte[] output;
+
+    private int records;
+
+    private final List<Failure> failures = new ArrayList<>();
+  }
+
+  private static final class Failure {
+    // Number of the record within its chunk, from 0
+    private final int record;
+
+    private final String message;
+
+    Failure(int record, String message) {
+      this.record = record;
+      this.message = message;
+    }
+  }
+
+  // Cuts the input into chunks that end just after a delimiter
+  private final class Reader {
+    private final InputStream in;
+
+    private byte[] buffer = new byte[chunkSize];
+
+    // Bytes read past the end of the last chunk
+    private int carried;
+
+    private boolean eof;
+
+    Reader(InputStream in) {
+      this.in = in;
+    }
+
+    // True if the next chunk can not be cut without reading input that has not arrived yet
+    boolean wouldWait() throws IOException {
+      return !eof && in.available() == 0;
+    }
+
+    byte[] next() throws IOException {
+      int length = carried;
+      int scanned = 0;
+
+      while (true) {
+        // the chunk ends after the last delimiter in the buffer
+        for (int i = length - 1; i >= scanned; i--) {
+          if (buffer[i] == delimiter) return take(i + 1, length);
+        }
+
+        scanned = length;
+
+        if (eof) return length > 0 ? take(length, length) : null;
+
+        if (length == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+
+        int read = in.read(buffer, length, buffer.length - length);
+
+        if (read == -1) eof = true; else length += read;
+      }
+    }
+
+    private byte[] take(int end, int length) {
+      byte[] chunk = Arrays.copyOf(buffer, end);
+
+      System.arraycopy(buffer, end, buffer, 0, length - end);
+      carried = length - end;
+
+      return chunk;
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package io.github.mschout.email.srs.tools;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.github.mschout.email.srs.SRS;
+import io.github.mschout.email.srs.provider.DefaultSRSProviderFactory;
+import io.github.mschout.email.srs.provider.SRSProvider;
+import io.github.mschout.email.srs.provider.SRSProviderFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.InvalidKeyException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.jupiter.api.Test;
+
+class LogReverserTest {
+  private static final String SECRET = "log-secret";
+
+  private final SRSProvider provider = DefaultSRSProviderFactory
+    .getInstance()
+    .createProvider(SRS.Type.GUARDED, Collections.singletonList(SECRET));
+
+  @Test
+  void rewritesAndAnnotates() throws IOException, InvalidKeyException {
+    String srs0 = provider.compile("example.com", "jdoe") + "@forwarder.com";
+    String srs1 = provider.compile("forwarder.com", provider.compile("example.com", "jdoe")) + "@second.net";
+
+    StringBuilder log = new StringBuilder();
+    for (int i = 0; i < 200; i++) {
+      log.append("Oct 18 12:00:0").append(i % 10).append(" mx postfix/qmgr[123]: ABC").append(i).append(": from=<");
+      log.append(srs0).append(">, size=1234, nrcpt=1 (queue active)\n");
+      log.append("Oct 18 12:00:0").append(i % 10).append(" mx postfix/smtp[124]: ABC").append(i).append(": to=");
+      log.append(srs1).append(". orig=xsrs0=not@this.one, status=sent\n");
+    }
+
+    String expected = log.toString().replace(srs0, "jdoe@example.com").replace(srs1, srs0);
+    Path file = write(log.toString());
+
+    // chunks smaller than a line, a few lines, and the whole file, with several threads so that ordering is exercised
+    for (int chunkSize : new int[] { 64, 1000, 1 << 20 }) {
+      LogReverser reverser = LogReverser.builder().provider(provider).threads(3).chunkSize(chunkSize).build();
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+      LogReverser.Summary summary = reverser.reverse(file, out);
+
+      assertEquals(expected, out.toString("ISO-8859-1"), "chunk size " + chunkSize);
+      assertEquals(Files.size(file), summary.getBytes());
+      assertEquals(400, summary.getAddresses());
+      assertEquals(400, summary.getReversed());
+    }
+
+    LogReverser annotate = LogReverser.builder().provider(provider).mode(LogReverser.Mode.ANNOTATE).chunkSize(100).build();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    annotate.reverse(Arrays.asList(file, file), out);
+
+    String annotated = log.toString().replace(srs0 + ">", srs0 + " (jdoe@example.com)>").replace(srs1 + ".", srs1 + " (" + srs0 + ").");
+    assertEquals(annotated + annotated, out.toString("ISO-8859-1"));
+  }
+
+  @Test
+  void verification() throws IOException, InvalidKeyException {
+    SRSProvider past = SRSProviderFactory
+      .builder()
+      .clock(Clock.fixed(Instant.parse("2020-01-01T00:00:00Z"), ZoneOffset.UTC))
+      .build()
+      .createProvider(SRS.Type.GUARDED, Collections.singletonList(SECRET));
+
+    String expired = past.compile("example.com", "old") + "@forwarder.com";
+    String forged = "SRS0=XXXX=ZZ=example.com=forged@forwarder.com";
+    String log = "to=<" + expired + ">\nto=<" + forged + ">\n";
+    Path file = write(log);
+
+    assertEquals(log, reverse(file, LogReverser.Verification.FULL), "Expired addresses fail full verification");
+    assertEquals(log.replace(expired, "old@example.com"), reverse(file, LogReverser.Verification.HASH));
+    assertEquals(
+      log.replace(expired, "old@example.com").replace(forged, "forged@example.com"),
+      reverse(file, LogReverser.Verification.NONE)
+    );
+
+    LogReverser.Summary summary = LogReverser.builder().provider(provider).build().reverse(file, new ByteArrayOutputStream());
+    assertEquals(2, summary.getAddresses());
+    assertEquals(1, summary.getFailed());
+  }
+
+  private String reverse(Path file, LogReverser.Verification verification) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    LogReverser.builder().provider(provider).verification(verification).build().reverse(file, out);
+    return out.toString("ISO-8859-1");
+  }
+
+  private static Path write(String log) throws IOException {
+    Path file = Files.createTempFile("maillog", ".log");
+    file.toFile().deleteOnExit();
+    Files.write(file, log.getBytes(StandardCharsets.ISO_8859_1));
+    return file;
+  }
+}
@@ -0,0 +1,73 @@
+package io.github.mschout.email.srs.tools;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.github.mschout.email.srs.SRS;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class StreamRewriterTest {
+  private final SRS srs = new SRS(SRS.Type.GUARDED, "stream-secret");
+
+  @Test
+  void forwardAndReverseInOrder() throws Exception {
+    StringBuilder senders = new StringBuilder();
+    StringBuilder expected = new StringBuilder();
+
+    for (int i = 0; i < 1000; i++) {
+      String sender = "user" + i + "@example" + (i % 7) + ".com";
+
+      senders.append(sender).append(i % 3 == 0 ? "\r\n" : "\n");
+      expected.append(sender).append('\n');
+    }
+
+    // chunks smaller than a line, a few lines, and the whole input, with several threads so that ordering is exercised
+    for (int chunkSize : new int[] { 8, 500, 1 << 20 }) {
+      StreamRewriter forward = StreamRewriter
+        .builder()
+        .srs(srs)
+        .operation(StreamRewriter.Operation.FORWARD)
+        .alias("alias@forwarder.net")
+        .threads(3)
+        .chunkSize(chunkSize)
+        .build();
+      StreamRewriter reverse = StreamRewriter.builder().srs(srs).threads(3).chunkSize(chunkSize).build();
+
+      String forwarded = run(forward, senders.toString(), new ByteArrayOutputStream());
+
+      assertEquals(1000, forwarded.split("\n").length);
+      assertEquals(forward.rewrite("user999@example5.com"), forwarded.split("\n")[999]);
+      assertEquals(expected.toString(), run(reverse, forwarded, new ByteArrayOutputStream()), "chunk size " + chunkSize);
+    }
+  }
+
+  @Test
+  void failuresKeepRecordsAligned() throws Exception {
+    String good = srs.forward("jdoe@example.com", "alias@forwarder.net");
+    String input = good + "\0SRS0=XXXX=ZZ=example.com=forged@forwarder.net\0\0not-an-address\0" + good;
+    StreamRewriter reverse = StreamRewriter.builder().srs(srs).delimiter((byte) 0).threads(2).chunkSize(16).build();
+    ByteArrayOutputStream errors = new ByteArrayOutputStream();
+
+    String output = run(reverse, input, errors);
+
+    assertEquals("jdoe@example.com\0\0\0\0jdoe@example.com\0", output, "No delimiter is needed after the last address");
+
+    String[] reported = errors.toString("UTF-8").split("\n");
+
+    assertEquals(2, reported.length);
+    assertTrue(reported[0].startsWith("record 2: SRS0=XXXX=ZZ=example.com=forged@forwarder.net: "), reported[0]);
+    assertTrue(reported[1].startsWith("record 4: not-an-address: "), reported[1]);
+  }
+
+  private static String run(StreamRewriter rewriter, String input, ByteArrayOutputStream errors) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    rewriter.rewrite(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), out, new PrintStream(errors, true, "UTF-8"));
+
+    return out.toString("UTF-8");
+  }
+}
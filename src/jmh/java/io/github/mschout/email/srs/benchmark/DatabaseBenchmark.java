@@ -0,0 +1,76 @@
+package io.github.mschout.email.srs.benchmark;
+
+import io.github.mschout.email.srs.SRSAddressView;
+import io.github.mschout.email.srs.provider.DatabaseSRSProvider;
+import io.github.mschout.email.srs.provider.SRSStore;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Database provider lookups and inserts with a store of the given size.  Lookups are spread over the whole store, so
+ * most of them miss the CPU caches.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class DatabaseBenchmark {
+  private static final int SAMPLES = 1 << 16;
+
+  @Param({ "1000000", "20000000" })
+  public int entries;
+
+  private Path directory;
+
+  private SRSStore store;
+
+  private DatabaseSRSProvider provider;
+
+  private final String[] addresses = new String[SAMPLES];
+
+  private final SRSAddressView view = new SRSAddressView();
+
+  private int next;
+
+  @Setup
+  public void setup() throws IOException {
+    directory = Files.createTempDirectory("srs-benchmark");
+    store = SRSStore.builder().directory(directory).open();
+    provider = DatabaseSRSProvider.builder().store(store).build();
+
+    int every = entries / SAMPLES;
+
+    for (int i = 0; i < entries; i++) {
+      String address = provider.compile("example" + (i % 1000) + ".com", "user" + i);
+
+      if (i % every == 0 && i / every < SAMPLES) addresses[i / every] = address;
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    store.close();
+
+    try (Stream<Path> files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  @Benchmark
+  public SRSAddressView parse() {
+    String address = addresses[next++ & (SAMPLES - 1)];
+
+    provider.parse(address, 0, address.length(), view);
+
+    return view;
+  }
+
+  @Benchmark
+  public String compile() {
+    return provider.compile("example.com", "john.doe");
+  }
+}
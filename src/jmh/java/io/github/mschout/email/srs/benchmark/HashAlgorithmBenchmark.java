@@ -0,0 +1,48 @@
+package io.github.mschout.email.srs.benchmark;
+
+import io.github.mschout.email.srs.SRS;
+import io.github.mschout.email.srs.SRSAddress;
+import io.github.mschout.email.srs.provider.SRSHashAlgorithm;
+import io.github.mschout.email.srs.provider.SRSProvider;
+import io.github.mschout.email.srs.provider.SRSProviderFactory;
+import java.security.InvalidKeyException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of each hash algorithm on address sized inputs: compiling hashes once, parsing verifies once.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class HashAlgorithmBenchmark {
+  @Param({ "HMAC_SHA1", "HMAC_SHA256", "SIPHASH" })
+  public SRSHashAlgorithm algorithm;
+
+  private SRSProvider provider;
+
+  private String compiled;
+
+  @Setup
+  public void setup() throws InvalidKeyException {
+    provider =
+      SRSProviderFactory
+        .builder()
+        .hashAlgorithm(algorithm)
+        .build()
+        .createProvider(SRS.Type.GUARDED, Collections.singletonList("benchmark-secret"));
+
+    compiled = provider.compile("example.com", "john.doe");
+  }
+
+  @Benchmark
+  public String compile() throws InvalidKeyException {
+    return provider.compile("example.com", "john.doe");
+  }
+
+  @Benchmark
+  public SRSAddress parse() {
+    return provider.parse(compiled);
+  }
+}
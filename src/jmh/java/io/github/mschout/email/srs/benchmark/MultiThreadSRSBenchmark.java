@@ -0,0 +1,9 @@
+package io.github.mschout.email.srs.benchmark;
+
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Runs the SRS benchmarks with one thread per available processor, all sharing the same SRS instance.
+ */
+@Threads(Threads.MAX)
+public class MultiThreadSRSBenchmark extends SRSBenchmark {}
@@ -0,0 +1,41 @@
+package io.github.mschout.email.srs.benchmark;
+
+import io.github.mschout.email.srs.SRS;
+import io.github.mschout.email.srs.SRSAddress;
+import io.github.mschout.email.srs.provider.DefaultSRSProviderFactory;
+import io.github.mschout.email.srs.provider.SRSProvider;
+import java.security.InvalidKeyException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks for the raw provider compile and parse operations, without the address handling done by {@link SRS}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class ProviderBenchmark {
+  @Param({ "GUARDED", "REVERSIBLE", "SHORTCUT" })
+  public SRS.Type type;
+
+  private SRSProvider provider;
+
+  private String compiled;
+
+  @Setup
+  public void setup() throws InvalidKeyException {
+    provider = DefaultSRSProviderFactory.getInstance().createProvider(type, Collections.singletonList("benchmark-secret"));
+    compiled = provider.compile("example.com", "john.doe");
+  }
+
+  @Benchmark
+  public String compile() throws InvalidKeyException {
+    return provider.compile("example.com", "john.doe");
+  }
+
+  @Benchmark
+  public SRSAddress parse() {
+    return provider.parse(compiled);
+  }
+}
@@ -0,0 +1,50 @@
+package io.github.mschout.email.srs.benchmark;
+
+import io.github.mschout.email.srs.SRSPolicy;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Policy lookups with a postsrsd sized exclusion list: senders that are excluded, that share a suffix with excluded
+ * domains, and that share nothing with them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class RouterBenchmark {
+  @Param({ "50000" })
+  public int excluded;
+
+  private SRSPolicy policy;
+
+  @Setup
+  public void setup() {
+    SRSPolicy.SRSPolicyBuilder builder = SRSPolicy.builder().defaultAlias("srs@relay.example");
+
+    for (int i = 0; i < excluded; i++) builder.exclude(i % 2 == 0 ? "domain" + i + ".example.com" : ".customer" + i + ".net");
+
+    for (int i = 0; i < 1000; i++) builder.alias(".region" + i + ".example.org", "srs@region" + i + ".example.org");
+
+    policy = builder.build();
+  }
+
+  @Benchmark
+  public boolean excludedSender() {
+    return policy.isExcluded("mail.Customer4999.net");
+  }
+
+  @Benchmark
+  public boolean similarSender() {
+    return policy.isExcluded("domain49999.example.com");
+  }
+
+  @Benchmark
+  public boolean unrelatedSender() {
+    return policy.isExcluded("gmail.com");
+  }
+
+  @Benchmark
+  public String alias() {
+    return policy.aliasFor("mx.region999.example.org");
+  }
+}
@@ -0,0 +1,134 @@
+package io.github.mschout.email.srs.benchmark;
+
+import io.github.mschout.email.srs.SRS;
+import io.github.mschout.email.srs.provider.SRSProvider;
+import io.github.mschout.email.srs.provider.SRSProviderFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks for the {@link SRS} operations.  The benchmark methods are run by the single and multi threaded
+ * subclasses so that each operation is measured both ways.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public abstract class SRSBenchmark {
+  @Param({ "GUARDED", "REVERSIBLE", "SHORTCUT" })
+  public SRS.Type type;
+
+  @Param({ "1", "4", "12" })
+  public int secretCount;
+
+  @Param({ "4", "8" })
+  public int hashLength;
+
+  private SRS srs;
+
+  private String sender;
+
+  private String srs0Address;
+
+  private String srs1Address;
+
+  private String forgedAddress;
+
+  private String oldestSecretAddress;
+
+  // Only ever read with absolute gets, so the threads can share them
+  private ByteBuffer senderBytes;
+
+  private ByteBuffer srs0Bytes;
+
+  /**
+   * Per thread buffer that the byte oriented benchmarks write their results to.
+   */
+  @State(Scope.Thread)
+  public static class Output {
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(512);
+  }
+
+  @Setup
+  public void setup() throws InvalidKeyException {
+    List<String> secrets = new ArrayList<>();
+    for (int i = 0; i < secretCount; i++) secrets.add("benchmark-secret-" + i);
+
+    SRSProviderFactory factory = SRSProviderFactory.builder().hashLength(hashLength).build();
+
+    srs = new SRS(factory.createProvider(type, secrets));
+
+    sender = "john.doe+list@example.com";
+    srs0Address = srs.forward(sender, "forwarder.example.net");
+    srs1Address = srs.forward(srs0Address, "second-hop.example.org");
+
+    // swap the hash for one that will never verify
+    int hashStart = srs0Address.indexOf('=') + 1;
+    int hashEnd = srs0Address.indexOf('=', hashStart);
+    forgedAddress = srs0Address.substring(0, hashStart) + String.join("", Collections.nCopies(hashEnd - hashStart, "A")) +
+    srs0Address.substring(hashEnd);
+
+    // an address made with the last secret in the rotation, the worst case for verification
+    SRSProvider oldest = factory.createProvider(type, Collections.singletonList(secrets.get(secrets.size() - 1)));
+    oldestSecretAddress = new SRS(oldest).forward(sender, "forwarder.example.net");
+
+    senderBytes = ByteBuffer.wrap(sender.getBytes(StandardCharsets.US_ASCII));
+    srs0Bytes = ByteBuffer.wrap(srs0Address.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  @Benchmark
+  public String forward() throws InvalidKeyException {
+    return srs.forward(sender, "forwarder.example.net");
+  }
+
+  @Benchmark
+  public String reverse() {
+    return srs.reverse(srs0Address);
+  }
+
+  @Benchmark
+  public int forwardBytes(Output output) throws InvalidKeyException {
+    output.buffer.clear();
+    return srs.forward(senderBytes, "forwarder.example.net", output.buffer);
+  }
+
+  @Benchmark
+  public int reverseBytes(Output output) {
+    output.buffer.clear();
+    return srs.reverse(srs0Bytes, output.buffer);
+  }
+
+  @Benchmark
+  public String reForward() throws InvalidKeyException {
+    return srs.forward(srs0Address, "second-hop.example.org");
+  }
+
+  @Benchmark
+  public String reverseSRS1() {
+    return srs.reverse(srs1Address);
+  }
+
+  @Benchmark
+  public boolean isSRS() {
+    return srs.isSRS(srs0Address);
+  }
+
+  @Benchmark
+  public Object rejectInvalidHash() {
+    try {
+      return srs.reverse(forgedAddress);
+    } catch (IllegalArgumentException e) {
+      return e;
+    }
+  }
+
+  @Benchmark
+  public String reverseOldestSecret() {
+    return srs.reverse(oldestSecretAddress);
+  }
+}
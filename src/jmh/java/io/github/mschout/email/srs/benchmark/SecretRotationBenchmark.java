@@ -0,0 +1,55 @@
+package io.github.mschout.email.srs.benchmark;
+
+import io.github.mschout.email.srs.InvalidSRSAddressException;
+import io.github.mschout.email.srs.SRS;
+import io.github.mschout.email.srs.provider.SRSHashAlgorithm;
+import io.github.mschout.email.srs.provider.SRSProvider;
+import io.github.mschout.email.srs.provider.SRSProviderFactory;
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of rejecting a forged address with the given number of secrets, which has to be checked against every one of
+ * them.  The cost of the exception is the same for any number of secrets, so the growth per secret is the cost of
+ * checking one more.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class SecretRotationBenchmark {
+  @Param({ "1", "4", "12" })
+  public int secrets;
+
+  @Param({ "HMAC_SHA1", "HMAC_SHA256" })
+  public SRSHashAlgorithm algorithm;
+
+  private SRSProvider provider;
+
+  private String forged;
+
+  @Setup
+  public void setup() throws InvalidKeyException {
+    List<String> list = new ArrayList<>();
+
+    for (int i = 0; i < secrets; i++) list.add("benchmark-secret-" + i);
+
+    provider = SRSProviderFactory.builder().hashAlgorithm(algorithm).build().createProvider(SRS.Type.GUARDED, list);
+
+    String compiled = provider.compile("example.com", "john.doe");
+
+    // the right length and timestamp, with a hash that does not match
+    forged = compiled.substring(0, 5) + (Character.toUpperCase(compiled.charAt(5)) == 'A' ? 'B' : 'A') + compiled.substring(6);
+  }
+
+  @Benchmark
+  public Object rejectForged() {
+    try {
+      return provider.parse(forged);
+    } catch (InvalidSRSAddressException e) {
+      return e;
+    }
+  }
+}
@@ -0,0 +1,6 @@
+package io.github.mschout.email.srs.benchmark;
+
+import org.openjdk.jmh.annotations.Threads;
+
+@Threads(1)
+public class SingleThreadSRSBenchmark extends SRSBenchmark {}
@@ -0,0 +1,87 @@
+package io.github.mschout.email.srs;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Read only view of ASCII bytes in a buffer as characters, so that byte oriented callers can use the same parsing and
+ * hashing code as strings without decoding the bytes first.  The bytes are not copied, and are not checked to be
+ * ASCII: use {@link #isAscii(ByteBuffer, int, int)} first.
+ */
+final class AsciiSequence implements CharSequence {
+  private final ByteBuffer buffer;
+
+  // Backing array of heap buffers, read directly as it is much cheaper than going through the buffer
+  private final byte[] array;
+
+  // Offset of the first character, in the array if there is one, otherwise in the buffer
+  private final int offset;
+
+  private final int length;
+
+  AsciiSequence(ByteBuffer buffer, int offset, int length) {
+    this(buffer, buffer.hasArray() ? buffer.array() : null, buffer.hasArray() ? buffer.arrayOffset() + offset : offset, length);
+  }
+
+  private AsciiSequence(ByteBuffer buffer, byte[] array, int offset, int length) {
+    this.buffer = buffer;
+    this.array = array;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  /**
+   * Check that all of the bytes in the given range of the buffer are ASCII.
+   * @param buffer the buffer to check
+   * @param start start index, inclusive
+   * @param end end index, exclusive
+   * @return true if none of the bytes have the high bit set
+   */
+  static boolean isAscii(ByteBuffer buffer, int start, int end) {
+    if (buffer.hasArray()) {
+      byte[] array = buffer.array();
+      int arrayOffset = buffer.arrayOffset();
+
+      for (int i = arrayOffset + start; i < arrayOffset + end; i++) {
+        if (array[i] < 0) return false;
+      }
+
+      return true;
+    }
+
+    for (int i = start; i < end; i++) {
+      if (buffer.get(i) < 0) return false;
+    }
+
+    return true;
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public char charAt(int index) {
+    if (index < 0 || index >= length) throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+
+    return (char) (array != null ? array[offset + index] : buffer.get(offset + index));
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    if (start < 0 || end > length || start > end) throw new IndexOutOfBoundsException(
+      "start " + start + ", end " + end + ", length " + length
+    );
+
+    return new AsciiSequence(buffer, array, offset + start, end - start);
+  }
+
+  @Override
+  public String toString() {
+    char[] chars = new char[length];
+
+    for (int i = 0; i < length; i++) chars[i] = charAt(i);
+
+    return new String(chars);
+  }
+}
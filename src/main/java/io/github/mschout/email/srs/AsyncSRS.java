@@ -0,0 +1,121 @@
+package io.github.mschout.email.srs;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.Getter;
+
+/**
+ * Asynchronous interface to an {@link SRS} instance.
+ * The hashing work is run on an executor so that callers on event loop threads are never blocked by it.
+ */
+public class AsyncSRS {
+  @Getter
+  private final SRS srs;
+
+  @Getter
+  private final Executor executor;
+
+  /**
+   * Create an asynchronous SRS interface that runs on the default executor.
+   * On JDKs with virtual threads, the default executor starts a virtual thread per task.  Otherwise it is a shared
+   * pool of daemon threads, one per available processor.
+   * @param srs the SRS instance to run operations with
+   */
+  public AsyncSRS(SRS srs) {
+    this(srs, DefaultExecutor.INSTANCE);
+  }
+
+  /**
+   * Create an asynchronous SRS interface that runs on the given executor.
+   * @param srs the SRS instance to run operations with
+   * @param executor the executor to run operations on
+   */
+  public AsyncSRS(SRS srs, Executor executor) {
+    this.srs = srs;
+    this.executor = executor;
+  }
+
+  /**
+   * Rewrite an email address using SRS for forwarding, using "false" for alwaysRewrite
+   * @param sender the sender email address
+   * @param alias the local host address or alias
+   * @return future that completes with the rewritten SRS address
+   * @see SRS#forward(String, String)
+   */
+  public CompletableFuture<String> forward(final String sender, final String alias) {
+    return forward(sender, alias, false);
+  }
+
+  /**
+   * Rewrite an email address using SRS for forwarding.
+   * @param sender the sender email address
+   * @param alias the local host address or alias
+   * @param alwaysRewrite use true to always rewrite addresses, even if they match the alias host.
+   * @return future that completes with the rewritten SRS address
+   * @see SRS#forward(String, String, boolean)
+   */
+  public CompletableFuture<String> forward(final String sender, final String alias, boolean alwaysRewrite) {
+    return submit(() -> srs.forward(sender, alias, alwaysRewrite));
+  }
+
+  /**
+   * Reverse an SRS email address.
+   * @param address The address to reverse
+   * @return future that completes with the reversed address
+   * @see SRS#reverse(String)
+   */
+  public CompletableFuture<String> reverse(final String address) {
+    return submit(() -> srs.reverse(address));
+  }
+
+  private interface Operation {
+    String run() throws Exception;
+  }
+
+  private CompletableFuture<String> submit(Operation operation) {
+    CompletableFuture<String> future = new CompletableFuture<>();
+
+    try {
+      executor.execute(
+        () -> {
+          try {
+            future.complete(operation.run());
+          } catch (Exception e) {
+            future.completeExceptionally(e);
+          }
+        }
+      );
+    } catch (RejectedExecutionException e) {
+      future.completeExceptionally(e);
+    }
+
+    return future;
+  }
+
+  // Lazily created default executor, shared by all instances.
+  private static class DefaultExecutor {
+    static final Executor INSTANCE = create();
+
+    private static Executor create() {
+      try {
+        // Available from Java 21 on.  Looked up reflectively so we still run on older JDKs.
+        return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      } catch (ReflectiveOperationException e) {
+        AtomicInteger count = new AtomicInteger();
+
+        return Executors.newFixedThreadPool(
+          Runtime.getRuntime().availableProcessors(),
+          runnable -> {
+            Thread thread = new Thread(runnable, "srs-async-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        );
+      }
+    }
+  }
+}
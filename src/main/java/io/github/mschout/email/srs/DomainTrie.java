@@ -0,0 +1,197 @@
+package io.github.mschout.email.srs;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Case insensitive map from domain patterns to values, compiled into a trie over the reversed domain names.
+ * <p>
+ * A pattern like {@code example.com} matches only that domain, and one with a leading dot like {@code .example.com}
+ * matches every subdomain of it but not the domain itself.  When several patterns match, the one for the longest
+ * suffix wins.  A lookup walks the host once from its last character, so it takes time in proportion to the length of
+ * the host, whatever the number of patterns, and allocates nothing.
+ * <p>
+ * The trie is laid out in arrays: each node has a sorted run of edge characters, with the nodes they lead to, so
+ * tens of thousands of domains take a few flat arrays rather than an object per character.
+ * @param <T> type of the values
+ */
+final class DomainTrie<T> {
+  private static final int NONE = -1;
+
+  // First edge and number of edges of each node
+  private final int[] edgeStart;
+
+  private final int[] edgeCount;
+
+  private final char[] edgeChars;
+
+  private final int[] edgeTargets;
+
+  // Index of the value for the domain that ends at each node, and for its subdomains
+  private final int[] exact;
+
+  private final int[] subdomains;
+
+  private final Object[] values;
+
+  private final int size;
+
+  /**
+   * Compile the patterns.
+   * @param patterns domain patterns and their values
+   * @throws IllegalArgumentException If a pattern is empty.
+   */
+  DomainTrie(Map<String, T> patterns) {
+    Node root = new Node();
+    List<Object> valueList = new ArrayList<>();
+    int nodes = 1;
+    int edges = 0;
+
+    for (Map.Entry<String, T> pattern : patterns.entrySet()) {
+      String domain = pattern.getKey();
+      boolean wildcard = domain.startsWith(".");
+      int start = wildcard ? 1 : 0;
+      int end = domain.endsWith(".") ? domain.length() - 1 : domain.length();
+
+      if (end <= start) throw new IllegalArgumentException("Empty domain pattern: '" + domain + "'");
+
+      Node node = root;
+
+      for (int i = end - 1; i >= start; i--) {
+        char c = lower(domain.charAt(i));
+        Node child = node.children.get(c);
+
+        if (child == null) {
+          child = new Node();
+          node.children.put(c, child);
+          nodes++;
+          edges++;
+        }
+
+        node = child;
+      }
+
+      if (wildcard) node.subdomains = valueList.size(); else node.exact = valueList.size();
+
+      valueList.add(pattern.getValue());
+    }
+
+    edgeStart = new int[nodes];
+    edgeCount = new int[nodes];
+    edgeChars = new char[edges];
+    edgeTargets = new int[edges];
+    exact = new int[nodes];
+    subdomains = new int[nodes];
+    values = valueList.toArray();
+    size = patterns.size();
+
+    // number the nodes breadth first, so that each node's children get consecutive numbers after it
+    Deque<Node> queue = new ArrayDeque<>();
+    int next = 1;
+    int edge = 0;
+
+    root.id = 0;
+    queue.add(root);
+
+    while (!queue.isEmpty()) {
+      Node node = queue.removeFirst();
+
+      edgeStart[node.id] = edge;
+      edgeCount[node.id] = node.children.size();
+      exact[node.id] = node.exact;
+      subdomains[node.id] = node.subdomains;
+
+      for (Map.Entry<Character, Node> child : node.children.entrySet()) {
+        child.getValue().id = next++;
+        edgeChars[edge] = child.getKey();
+        edgeTargets[edge] = child.getValue().id;
+        edge++;
+        queue.addLast(child.getValue());
+      }
+    }
+  }
+
+  /**
+   * @return the number of patterns
+   */
+  int size() {
+    return size;
+  }
+
+  T find(CharSequence host) {
+    return find(host, 0, host.length());
+  }
+
+  /**
+   * Find the value of the most specific pattern that matches a host.
+   * @param source characters containing the host
+   * @param start start index of the host, inclusive
+   * @param end end index of the host, exclusive
+   * @return the value, or null if no pattern matches
+   */
+  @SuppressWarnings("unchecked")
+  T find(CharSequence source, int start, int end) {
+    // a fully qualified name with its root dot is the same domain
+    if (end > start && source.charAt(end - 1) == '.') end--;
+
+    int node = 0;
+    int found = NONE;
+
+    for (int i = end - 1; i >= start; i--) {
+      char c = lower(source.charAt(i));
+
+      // every label boundary inside the host is a subdomain of what has been walked so far
+      if (c == '.' && subdomains[node] != NONE && i > start) found = subdomains[node];
+
+      node = child(node, c);
+
+      if (node == NONE) return found == NONE ? null : (T) values[found];
+    }
+
+    if (exact[node] != NONE && end > start) found = exact[node];
+
+    return found == NONE ? null : (T) values[found];
+  }
+
+  // The node that the edge for c leads to, or NONE
+  private int child(int node, char c) {
+    int low = edgeStart[node];
+    int high = low + edgeCount[node] - 1;
+
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      char edge = edgeChars[mid];
+
+      if (edge < c) {
+        low = mid + 1;
+      } else if (edge > c) {
+        high = mid - 1;
+      } else {
+        return edgeTargets[mid];
+      }
+    }
+
+    return NONE;
+  }
+
+  private static char lower(char c) {
+    if (c < 0x80) return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+
+    return Character.toLowerCase(c);
+  }
+
+  // Node of the trie while it is being built
+  private static final class Node {
+    private final Map<Character, Node> children = new TreeMap<>();
+
+    private int exact = NONE;
+
+    private int subdomains = NONE;
+
+    private int id;
+  }
+}
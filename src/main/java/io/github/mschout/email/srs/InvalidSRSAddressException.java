@@ -0,0 +1,21 @@
+package io.github.mschout.email.srs;
+
+import lombok.Getter;
+
+/**
+ * Thrown when an address can not be parsed or verified.
+ */
+public class InvalidSRSAddressException extends IllegalArgumentException {
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * @return the reason the address was rejected
+   */
+  @Getter
+  private final SRSFailure failure;
+
+  public InvalidSRSAddressException(SRSFailure failure, String message) {
+    super(message);
+    this.failure = failure;
+  }
+}
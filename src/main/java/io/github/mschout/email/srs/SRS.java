@@ -1,10 +1,20 @@
 package io.github.mschout.email.srs;
 
-import com.google.common.collect.ImmutableList;
+import io.github.mschout.email.srs.metrics.SRSMetrics;
 import io.github.mschout.email.srs.provider.DefaultSRSProviderFactory;
+import io.github.mschout.email.srs.provider.HostNormalizer;
 import io.github.mschout.email.srs.provider.SRSProvider;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * Email Sender Rewriting Scheme.
@@ -18,8 +28,24 @@ public class SRS {
     SHORTCUT
   }
 
+  // Smallest number of addresses handed to a single task in parallel batch operations.
+  private static final int MIN_BATCH_CHUNK = 256;
+
+  // Parse results are only needed until the reversed address has been built, so each thread reuses one view.
+  private static final ThreadLocal<SRSAddressView> REVERSE_VIEW = ThreadLocal.withInitial(SRSAddressView::new);
+
+  // Addresses written to byte buffers are built here first, so each thread reuses one builder.
+  private static final ThreadLocal<ByteResult> BYTE_RESULT = ThreadLocal.withInitial(ByteResult::new);
+
+  // Room for the tag, hash, timestamp and separators that forwarding adds to the sender and alias.
+  private static final int FORWARD_OVERHEAD = 32;
+
   private final SRSProvider provider;
 
+  private final SRSMetrics metrics;
+
+  private final boolean metricsEnabled;
+
   /**
    * Create a new SRS instance using the "Guarded" Provider.
    * @param secrets The list of secrets for generating the SRS hashes.  Must contain at least one value.
@@ -39,7 +65,7 @@ public class SRS {
    *                creating hashes, but any other secrets will be checked when verifying hashes.
    */
   public SRS(Type type, List<String> secrets) {
-    this.provider = DefaultSRSProviderFactory.getInstance().createProvider(type, secrets);
+    this(DefaultSRSProviderFactory.getInstance().createProvider(type, secrets));
   }
 
   /**
@@ -48,7 +74,7 @@ public class SRS {
    * @param secret the hash secret.
    */
   public SRS(Type type, String secret) {
-    this(type, ImmutableList.of(secret));
+    this(type, Collections.singletonList(secret));
   }
 
   /**
@@ -56,7 +82,20 @@ public class SRS {
    * @param provider The SRS Provider
    */
   public SRS(SRSProvider provider) {
+    this(provider, SRSMetrics.NONE);
+  }
+
+  /**
+   * Construct an SRS object using the given provider, reporting operations to the given metrics listener.
+   * To also find out which secret verified each reversed address, give the same listener to the
+   * {@link io.github.mschout.email.srs.provider.SRSProviderFactory} that creates the provider.
+   * @param provider The SRS Provider
+   * @param metrics The metrics listener
+   */
+  public SRS(SRSProvider provider, SRSMetrics metrics) {
     this.provider = provider;
+    this.metrics = metrics;
+    this.metricsEnabled = metrics.isEnabled();
   }
 
   /**
@@ -88,24 +127,110 @@ public class SRS {
    * @throws InvalidKeyException If the secret is missing or invalid.
    */
   public String forward(final String sender, final String alias, boolean alwaysRewrite) throws InvalidKeyException {
-    int atPos = sender.indexOf('@');
-    if (atPos == -1) throw new IllegalArgumentException("Sender " + sender + "contains on @");
+    StringBuilder address = new StringBuilder(sender.length() + alias.length() + FORWARD_OVERHEAD);
 
-    String sendUser = sender.substring(0, atPos);
-    String sendHost = sender.substring(atPos + 1);
+    forward(sender, alias, alwaysRewrite, address);
 
-    // Not needed?
-    if (sendUser.indexOf('@') != -1) throw new IllegalArgumentException("Sender username may not contain an @");
+    return address.toString();
+  }
 
-    String aliasHost = alias;
+  /**
+   * Rewrite an ASCII email address held in a buffer for forwarding, using "false" for alwaysRewrite.
+   * @param sender buffer holding the sender address between its position and limit
+   * @param alias the local host address or alias
+   * @param out buffer to write the rewritten address to
+   * @return the number of bytes written to out
+   * @throws InvalidKeyException If the secret is missing or invalid.
+   * @see #forward(ByteBuffer, String, boolean, ByteBuffer)
+   */
+  public int forward(final ByteBuffer sender, final String alias, final ByteBuffer out) throws InvalidKeyException {
+    return forward(sender, alias, false, out);
+  }
+
+  /**
+   * Rewrite an ASCII email address held in a buffer for forwarding, writing the rewritten address to another buffer.
+   * The address is read in place, without being decoded to a string, and the position of the sender buffer is not
+   * changed.  The rewritten address is written at the position of the out buffer, and its position is moved past it.
+   * Addresses that are not pure ASCII are decoded as UTF-8 and rewritten with {@link #forward(String, String, boolean)}.
+   * @param sender buffer holding the sender address between its position and limit
+   * @param alias the local host address or alias
+   * @param alwaysRewrite use true to always rewrite addresses, even if they match the alias host.
+   * @param out buffer to write the rewritten address to
+   * @return the number of bytes written to out
+   * @throws InvalidKeyException If the secret is missing or invalid.
+   * @throws BufferOverflowException If out does not have room for the rewritten address.  Nothing is written to out.
+   */
+  public int forward(final ByteBuffer sender, final String alias, boolean alwaysRewrite, final ByteBuffer out)
+    throws InvalidKeyException {
+    int start = sender.position();
+    int end = sender.limit();
+
+    if (!AsciiSequence.isAscii(sender, start, end)) return put(forward(decode(sender), alias, alwaysRewrite), out);
+
+    ByteResult result = BYTE_RESULT.get();
+
+    forward(new AsciiSequence(sender, start, end - start), alias, alwaysRewrite, result.begin());
+
+    return result.writeTo(out);
+  }
+
+  /**
+   * Rewrite an ASCII email address held in a byte array for forwarding, using "false" for alwaysRewrite.
+   * @param sender array holding the sender address
+   * @param offset index of the first byte of the sender address
+   * @param length length of the sender address
+   * @param alias the local host address or alias
+   * @param out array to write the rewritten address to
+   * @param outOffset index in out to write the rewritten address at
+   * @return the number of bytes written to out
+   * @throws InvalidKeyException If the secret is missing or invalid.
+   * @see #forward(ByteBuffer, String, boolean, ByteBuffer)
+   */
+  public int forward(final byte[] sender, int offset, int length, final String alias, final byte[] out, int outOffset)
+    throws InvalidKeyException {
+    return forward(ByteBuffer.wrap(sender, offset, length), alias, false, ByteBuffer.wrap(out, outOffset, out.length - outOffset));
+  }
 
-    atPos = aliasHost.indexOf('@');
-    if (atPos != -1) aliasHost = aliasHost.substring(atPos + 1);
+  private void forward(final CharSequence sender, final String alias, boolean alwaysRewrite, final StringBuilder out)
+    throws InvalidKeyException {
+    if (!metricsEnabled) {
+      doForward(sender, alias, alwaysRewrite, out);
+      return;
+    }
+
+    long start = System.nanoTime();
+
+    try {
+      doForward(sender, alias, alwaysRewrite, out);
+      metrics.succeeded(SRSMetrics.Operation.FORWARD, System.nanoTime() - start);
+    } catch (InvalidKeyException e) {
+      metrics.failed(SRSMetrics.Operation.FORWARD, SRSFailure.INVALID_KEY);
+      throw e;
+    } catch (IllegalArgumentException e) {
+      metrics.failed(SRSMetrics.Operation.FORWARD, failureOf(e));
+      throw e;
+    }
+  }
+
+  private void doForward(final CharSequence sender, final String alias, boolean alwaysRewrite, final StringBuilder out)
+    throws InvalidKeyException {
+    int atPos = indexOf(sender, '@');
+    if (atPos == -1) throw new IllegalArgumentException("Sender " + sender + "contains on @");
+
+    // atPos is the first @, so the user can not contain one
+    CharSequence sendUser = sender.subSequence(0, atPos);
+    CharSequence sendHost = sender.subSequence(atPos + 1, sender.length());
+
+    int aliasHostStart = alias.indexOf('@') + 1;
 
     // TODO reference implementation has AlwaysRewrite option that determines if we do this or not.
-    if (aliasHost.equalsIgnoreCase(sendHost) && !alwaysRewrite) return sendUser + "@" + sendHost;
+    if (!alwaysRewrite && HostNormalizer.getDefault().sameHost(alias, aliasHostStart, alias.length(), sendHost, 0, sendHost.length())) {
+      out.append(sender);
+      return;
+    }
 
-    return provider.compile(sendHost, sendUser) + "@" + aliasHost;
+    provider.compile(sendHost, sendUser, out);
+    out.append('@').append(alias, aliasHostStart, alias.length());
   }
 
   /**
@@ -114,14 +239,277 @@ public class SRS {
    * @return The reversed address, or the original address if the address is not an SRS address.
    */
   public String reverse(final String address) {
-    int atPos = address.indexOf('@');
+    // The reversed address is always shorter than the SRS address
+    StringBuilder reversed = new StringBuilder(address.length());
+
+    reverse(address, reversed);
+
+    return reversed.toString();
+  }
+
+  /**
+   * Reverse an ASCII SRS email address held in a buffer, writing the reversed address to another buffer.
+   * The address is parsed in place, without being decoded to a string, and the position of the address buffer is not
+   * changed.  The reversed address is written at the position of the out buffer, and its position is moved past it.
+   * Addresses that are not pure ASCII are decoded as UTF-8 and reversed with {@link #reverse(String)}.
+   * @param address buffer holding the address to reverse between its position and limit
+   * @param out buffer to write the reversed address to
+   * @return the number of bytes written to out
+   * @throws BufferOverflowException If out does not have room for the reversed address.  Nothing is written to out.
+   */
+  public int reverse(final ByteBuffer address, final ByteBuffer out) {
+    int start = address.position();
+    int end = address.limit();
+
+    if (!AsciiSequence.isAscii(address, start, end)) return put(reverse(decode(address)), out);
+
+    ByteResult result = BYTE_RESULT.get();
+
+    reverse(new AsciiSequence(address, start, end - start), result.begin());
+
+    return result.writeTo(out);
+  }
+
+  /**
+   * Reverse an ASCII SRS email address held in a byte array, writing the reversed address to another byte array.
+   * @param address array holding the address to reverse
+   * @param offset index of the first byte of the address
+   * @param length length of the address
+   * @param out array to write the reversed address to
+   * @param outOffset index in out to write the reversed address at
+   * @return the number of bytes written to out
+   * @see #reverse(ByteBuffer, ByteBuffer)
+   */
+  public int reverse(final byte[] address, int offset, int length, final byte[] out, int outOffset) {
+    return reverse(ByteBuffer.wrap(address, offset, length), ByteBuffer.wrap(out, outOffset, out.length - outOffset));
+  }
+
+  private void reverse(final CharSequence address, final StringBuilder out) {
+    if (!metricsEnabled) {
+      doReverse(address, out);
+      return;
+    }
+
+    long start = System.nanoTime();
+
+    try {
+      doReverse(address, out);
+      metrics.succeeded(SRSMetrics.Operation.REVERSE, System.nanoTime() - start);
+    } catch (IllegalArgumentException e) {
+      metrics.failed(SRSMetrics.Operation.REVERSE, failureOf(e));
+      throw e;
+    }
+  }
+
+  private void doReverse(final CharSequence address, final StringBuilder out) {
+    int atPos = indexOf(address, '@');
     if (atPos == -1) throw new IllegalArgumentException("Address contains no @");
 
-    String user = address.substring(0, atPos);
+    SRSAddressView parsedAddr = REVERSE_VIEW.get();
+
+    provider.parse(address, 0, atPos, parsedAddr);
+
+    parsedAddr.appendAddress(out);
+  }
+
+  /**
+   * Rewrite a collection of sender addresses for forwarding, in the calling thread.
+   * Failures are returned as results rather than thrown.
+   * @param senders the sender email addresses
+   * @param alias the local host address or alias
+   * @return one result per sender, in the same order as the senders
+   */
+  public List<SRSResult> forwardAll(final Collection<String> senders, final String alias) {
+    return forwardAll(senders.toArray(new String[0]), alias);
+  }
+
+  /**
+   * Rewrite an array of sender addresses for forwarding, in the calling thread.
+   * Failures are returned as results rather than thrown.
+   * @param senders the sender email addresses
+   * @param alias the local host address or alias
+   * @return one result per sender, in the same order as the senders
+   */
+  public List<SRSResult> forwardAll(final String[] senders, final String alias) {
+    SRSResult[] results = new SRSResult[senders.length];
+
+    forwardRange(senders, alias, results, 0, senders.length);
+
+    return Arrays.asList(results);
+  }
+
+  /**
+   * Rewrite a collection of sender addresses for forwarding, spreading the work over the given executor.
+   * The senders are split into contiguous chunks so that each task reuses its thread's keyed hash engines.
+   * Pass {@link java.util.concurrent.ForkJoinPool#commonPool()} to use the common fork-join pool.
+   * @param senders the sender email addresses
+   * @param alias the local host address or alias
+   * @param executor the executor to run the work on
+   * @return one result per sender, in the same order as the senders
+   */
+  public List<SRSResult> forwardAll(final Collection<String> senders, final String alias, final Executor executor) {
+    return forwardAll(senders.toArray(new String[0]), alias, executor);
+  }
+
+  /**
+   * Rewrite an array of sender addresses for forwarding, spreading the work over the given executor.
+   * @param senders the sender email addresses
+   * @param alias the local host address or alias
+   * @param executor the executor to run the work on
+   * @return one result per sender, in the same order as the senders
+   * @see #forwardAll(Collection, String, Executor)
+   */
+  public List<SRSResult> forwardAll(final String[] senders, final String alias, final Executor executor) {
+    SRSResult[] results = new SRSResult[senders.length];
+
+    runChunked(senders.length, executor, (start, end) -> forwardRange(senders, alias, results, start, end));
+
+    return Arrays.asList(results);
+  }
+
+  /**
+   * Reverse a collection of SRS addresses, in the calling thread.
+   * Failures are returned as results rather than thrown.
+   * @param addresses the addresses to reverse
+   * @return one result per address, in the same order as the addresses
+   */
+  public List<SRSResult> reverseAll(final Collection<String> addresses) {
+    return reverseAll(addresses.toArray(new String[0]));
+  }
+
+  /**
+   * Reverse an array of SRS addresses, in the calling thread.
+   * Failures are returned as results rather than thrown.
+   * @param addresses the addresses to reverse
+   * @return one result per address, in the same order as the addresses
+   */
+  public List<SRSResult> reverseAll(final String[] addresses) {
+    SRSResult[] results = new SRSResult[addresses.length];
+
+    reverseRange(addresses, results, 0, addresses.length);
+
+    return Arrays.asList(results);
+  }
+
+  /**
+   * Reverse a collection of SRS addresses, spreading the work over the given executor.
+   * @param addresses the addresses to reverse
+   * @param executor the executor to run the work on
+   * @return one result per address, in the same order as the addresses
+   * @see #forwardAll(Collection, String, Executor)
+   */
+  public List<SRSResult> reverseAll(final Collection<String> addresses, final Executor executor) {
+    return reverseAll(addresses.toArray(new String[0]), executor);
+  }
+
+  /**
+   * Reverse an array of SRS addresses, spreading the work over the given executor.
+   * @param addresses the addresses to reverse
+   * @param executor the executor to run the work on
+   * @return one result per address, in the same order as the addresses
+   * @see #forwardAll(Collection, String, Executor)
+   */
+  public List<SRSResult> reverseAll(final String[] addresses, final Executor executor) {
+    SRSResult[] results = new SRSResult[addresses.length];
+
+    runChunked(addresses.length, executor, (start, end) -> reverseRange(addresses, results, start, end));
+
+    return Arrays.asList(results);
+  }
+
+  private void forwardRange(String[] senders, String alias, SRSResult[] results, int start, int end) {
+    for (int i = start; i < end; i++) {
+      try {
+        results[i] = SRSResult.success(senders[i], forward(senders[i], alias));
+      } catch (Exception e) {
+        results[i] = SRSResult.failure(senders[i], e);
+      }
+    }
+  }
+
+  private void reverseRange(String[] addresses, SRSResult[] results, int start, int end) {
+    for (int i = start; i < end; i++) {
+      try {
+        results[i] = SRSResult.success(addresses[i], reverse(addresses[i]));
+      } catch (Exception e) {
+        results[i] = SRSResult.failure(addresses[i], e);
+      }
+    }
+  }
+
+  private static int indexOf(CharSequence value, char ch) {
+    for (int i = 0; i < value.length(); i++) {
+      if (value.charAt(i) == ch) return i;
+    }
+
+    return -1;
+  }
+
+  private static String decode(ByteBuffer bytes) {
+    return StandardCharsets.UTF_8.decode(bytes.duplicate()).toString();
+  }
+
+  // Write the address to the buffer as UTF-8, which for the usual ASCII address is just one byte per character
+  private static int put(CharSequence address, ByteBuffer out) {
+    byte[] encoded = address.toString().getBytes(StandardCharsets.UTF_8);
+    out.put(encoded);
+    return encoded.length;
+  }
+
+  private static SRSFailure failureOf(IllegalArgumentException e) {
+    return e instanceof InvalidSRSAddressException ? ((InvalidSRSAddressException) e).getFailure() : SRSFailure.MALFORMED;
+  }
+
+  // Per thread buffers for building an address and copying it to a byte buffer in one bulk put
+  private static final class ByteResult {
+    private final StringBuilder chars = new StringBuilder(256);
+
+    private byte[] bytes = new byte[256];
+
+    StringBuilder begin() {
+      chars.setLength(0);
+      return chars;
+    }
+
+    int writeTo(ByteBuffer out) {
+      int length = chars.length();
+
+      if (bytes.length < length) bytes = new byte[Math.max(length, bytes.length * 2)];
+
+      for (int i = 0; i < length; i++) {
+        char c = chars.charAt(i);
+
+        // The alias can still bring in non-ASCII characters
+        if (c >= 0x80) return put(chars, out);
+
+        bytes[i] = (byte) c;
+      }
+
+      out.put(bytes, 0, length);
+
+      return length;
+    }
+  }
+
+  private interface RangeTask {
+    void run(int start, int end);
+  }
+
+  // Split [0, size) into contiguous chunks, run them on the executor, and wait for all of them to finish.
+  private static void runChunked(int size, Executor executor, RangeTask task) {
+    int chunks = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() * 4, size / MIN_BATCH_CHUNK));
+    int chunkSize = (size + chunks - 1) / chunks;
+
+    List<CompletableFuture<Void>> futures = new ArrayList<>(chunks);
+
+    for (int start = 0; start < size; start += chunkSize) {
+      final int from = start;
+      final int to = Math.min(size, start + chunkSize);
 
-    SRSAddress parsedAddr = provider.parse(user);
+      futures.add(CompletableFuture.runAsync(() -> task.run(from, to), executor));
+    }
 
-    return parsedAddr.getUser() + "@" + parsedAddr.getHost();
+    CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
   }
 
   public String getSecret() {
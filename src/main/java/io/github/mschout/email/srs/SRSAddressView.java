@@ -0,0 +1,146 @@
+package io.github.mschout.email.srs;
+
+import java.nio.CharBuffer;
+import lombok.Getter;
+
+/**
+ * Reusable, mutable result of parsing an SRS address.
+ * Rather than copying the fields out of the parsed address, the view records where each field starts and ends in the
+ * source.  Strings are only made when asked for, so a caller that keeps one view per thread can parse and reverse
+ * addresses without allocating.  A view is only valid until it is filled again, and only as long as the source is not
+ * modified.
+ */
+@Getter
+public class SRSAddressView {
+  private CharSequence source;
+
+  private String prefix;
+
+  // Tag that goes in front of the user field, or null.  SRS1 addresses reverse to SRS0 addresses whose tag was removed.
+  private String userTag;
+
+  private int hashStart;
+
+  private int hashEnd;
+
+  private int timestampStart;
+
+  private int timestampEnd;
+
+  private int hostStart;
+
+  private int hostEnd;
+
+  private int userStart;
+
+  private int userEnd;
+
+  /**
+   * Start filling the view for a new address.  All fields are reset to empty.
+   * @param source the characters being parsed
+   * @param prefix the SRS prefix of the address
+   * @return this view
+   */
+  public SRSAddressView reset(CharSequence source, String prefix) {
+    this.source = source;
+    this.prefix = prefix;
+    this.userTag = null;
+    this.hashStart = this.hashEnd = 0;
+    this.timestampStart = this.timestampEnd = 0;
+    this.hostStart = this.hostEnd = 0;
+    this.userStart = this.userEnd = 0;
+
+    return this;
+  }
+
+  public SRSAddressView hash(int start, int end) {
+    this.hashStart = start;
+    this.hashEnd = end;
+    return this;
+  }
+
+  public SRSAddressView timestamp(int start, int end) {
+    this.timestampStart = start;
+    this.timestampEnd = end;
+    return this;
+  }
+
+  public SRSAddressView host(int start, int end) {
+    this.hostStart = start;
+    this.hostEnd = end;
+    return this;
+  }
+
+  public SRSAddressView user(String tag, int start, int end) {
+    this.userTag = tag;
+    this.userStart = start;
+    this.userEnd = end;
+    return this;
+  }
+
+  /**
+   * @return view of the host field.  No characters are copied.
+   */
+  public CharSequence host() {
+    return CharBuffer.wrap(source, hostStart, hostEnd);
+  }
+
+  /**
+   * @return view of the hash field.  No characters are copied.
+   */
+  public CharSequence hash() {
+    return CharBuffer.wrap(source, hashStart, hashEnd);
+  }
+
+  /**
+   * @return the host field as a string
+   */
+  public String hostString() {
+    return source.subSequence(hostStart, hostEnd).toString();
+  }
+
+  /**
+   * @return the user field, including its tag, as a string
+   */
+  public String userString() {
+    return appendUser(new StringBuilder(userLength())).toString();
+  }
+
+  /**
+   * Append the user field, including its tag, to the given buffer.
+   * @param out buffer to append to
+   * @return the buffer
+   */
+  public StringBuilder appendUser(StringBuilder out) {
+    if (userTag != null) out.append(userTag);
+
+    return out.append(source, userStart, userEnd);
+  }
+
+  /**
+   * Append the original address, user@host, to the given buffer.
+   * @param out buffer to append to
+   * @return the buffer
+   */
+  public StringBuilder appendAddress(StringBuilder out) {
+    return appendUser(out).append('@').append(source, hostStart, hostEnd);
+  }
+
+  /**
+   * @return length of the original address, user@host
+   */
+  public int addressLength() {
+    return userLength() + 1 + hostEnd - hostStart;
+  }
+
+  /**
+   * @return an immutable copy of the parsed address
+   */
+  public SRSAddress toSRSAddress() {
+    return new SRSAddress(prefix, hostString(), userString(), source.subSequence(hashStart, hashEnd).toString());
+  }
+
+  private int userLength() {
+    return (userTag != null ? userTag.length() : 0) + userEnd - userStart;
+  }
+}
@@ -0,0 +1,15 @@
+package io.github.mschout.email.srs;
+
+/**
+ * The reasons an SRS address can fail to be rewritten or reversed.
+ */
+public enum SRSFailure {
+  /** The address is not in a form that can be handled */
+  MALFORMED,
+  /** The hash in the address does not match any of the secrets */
+  INVALID_HASH,
+  /** The timestamp in the address is too old, or in the future */
+  EXPIRED,
+  /** The secret could not be used as a hash key */
+  INVALID_KEY
+}
@@ -0,0 +1,142 @@
+package io.github.mschout.email.srs;
+
+import io.github.mschout.email.srs.provider.HostNormalizer;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Singular;
+
+/**
+ * Which senders to rewrite and which alias to rewrite them to, for an {@link SRSRouter}.
+ * <p>
+ * Domains are given in the same form as postsrsd's exclusion list: {@code example.com} is that domain only, and
+ * {@code .example.com} is every subdomain of it.  Matching ignores case.  Where several entries match a domain, the
+ * most specific one counts.  Internationalized domains match in either their A-label or U-label form, see
+ * {@link HostNormalizer}.  A policy is compiled when it is built and never changes, so a router can swap in a new
+ * one while it is in use.
+ */
+public final class SRSPolicy {
+  private final DomainTrie<Boolean> excluded;
+
+  private final DomainTrie<String> aliases;
+
+  /**
+   * Alias to rewrite to when no entry matches the recipient domain, or null to not rewrite those senders.
+   */
+  @Getter
+  private final String defaultAlias;
+
+  /**
+   * Create a policy.
+   * @param excludes sender domains that are never rewritten
+   * @param aliases aliases to rewrite to, by recipient domain
+   * @param defaultAlias alias for recipients that have no entry in aliases, or null to not rewrite their senders
+   */
+  @Builder
+  private SRSPolicy(@Singular Collection<String> excludes, Map<String, String> aliases, String defaultAlias) {
+    Map<String, Boolean> excludedDomains = new LinkedHashMap<>();
+
+    for (String domain : excludes) excludedDomains.put(pattern(domain), Boolean.TRUE);
+
+    Map<String, String> aliasDomains = new LinkedHashMap<>();
+
+    for (Map.Entry<String, String> alias : aliases.entrySet()) aliasDomains.put(pattern(alias.getKey()), alias.getValue());
+
+    this.excluded = new DomainTrie<>(excludedDomains);
+    this.aliases = new DomainTrie<>(aliasDomains);
+    this.defaultAlias = defaultAlias;
+  }
+
+  /**
+   * Returns true if senders from the domain are never rewritten.
+   * @param source characters containing the domain
+   * @param start start index of the domain, inclusive
+   * @param end end index of the domain, exclusive
+   * @return true if the domain is excluded
+   */
+  public boolean isExcluded(CharSequence source, int start, int end) {
+    return find(excluded, source, start, end) != null;
+  }
+
+  public boolean isExcluded(CharSequence domain) {
+    return isExcluded(domain, 0, domain.length());
+  }
+
+  /**
+   * Returns the alias to rewrite senders to, for a recipient domain.
+   * @param source characters containing the recipient domain
+   * @param start start index of the domain, inclusive
+   * @param end end index of the domain, exclusive
+   * @return the alias, the default alias if no entry matches, or null if senders should not be rewritten
+   */
+  public String aliasFor(CharSequence source, int start, int end) {
+    String alias = find(aliases, source, start, end);
+
+    return alias != null ? alias : defaultAlias;
+  }
+
+  public String aliasFor(CharSequence domain) {
+    return aliasFor(domain, 0, domain.length());
+  }
+
+  // Patterns keep their leading dot, the domain after it is normalized
+  private static String pattern(String domain) {
+    String trimmed = domain.trim();
+    boolean wildcard = trimmed.startsWith(".");
+    String host = HostNormalizer.getDefault().normalize(wildcard ? trimmed.substring(1) : trimmed);
+
+    return wildcard ? "." + host : host;
+  }
+
+  // The trie ignores ASCII case itself, so only internationalized hosts need normalizing first
+  private static <T> T find(DomainTrie<T> trie, CharSequence source, int start, int end) {
+    if (HostNormalizer.isAscii(source, start, end)) return trie.find(source, start, end);
+
+    return trie.find(HostNormalizer.getDefault().normalize(source, start, end));
+  }
+
+  /**
+   * @return the number of excluded domain entries
+   */
+  public int getExcludedCount() {
+    return excluded.size();
+  }
+
+  /**
+   * @return the number of alias entries
+   */
+  public int getAliasCount() {
+    return aliases.size();
+  }
+
+  public static class SRSPolicyBuilder {
+    // Built by hand rather than with @Singular, whose generated map copy does not compile cleanly with -Xlint:all
+    private final Map<String, String> aliases = new LinkedHashMap<>();
+
+    /**
+     * @param domain recipient domain, in the same form as the excluded domains
+     * @param alias alias to rewrite senders to for recipients in the domain
+     * @return this builder
+     */
+    public SRSPolicyBuilder alias(String domain, String alias) {
+      aliases.put(domain, alias);
+      return this;
+    }
+
+    /**
+     * @param aliases aliases to rewrite senders to, by recipient domain
+     * @return this builder
+     */
+    public SRSPolicyBuilder aliases(Map<String, String> aliases) {
+      this.aliases.putAll(aliases);
+      return this;
+    }
+
+    public SRSPolicyBuilder clearAliases() {
+      aliases.clear();
+      return this;
+    }
+  }
+}
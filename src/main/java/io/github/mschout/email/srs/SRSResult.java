@@ -0,0 +1,35 @@
+package io.github.mschout.email.srs;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * The outcome of rewriting a single address in a batch operation.
+ * Holds either the rewritten address, or the exception that rewriting the address failed with.
+ */
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+@Getter
+public class SRSResult {
+  private final String input;
+
+  private final String address;
+
+  private final Exception error;
+
+  public static SRSResult success(String input, String address) {
+    return new SRSResult(input, address, null);
+  }
+
+  public static SRSResult failure(String input, Exception error) {
+    return new SRSResult(input, null, error);
+  }
+
+  /**
+   * Return true if the address was rewritten successfully
+   * @return true if the operation succeeded, false if it failed
+   */
+  public boolean isSuccess() {
+    return error == null;
+  }
+}
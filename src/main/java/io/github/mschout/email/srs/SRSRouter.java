@@ -0,0 +1,67 @@
+package io.github.mschout.email.srs;
+
+import java.security.InvalidKeyException;
+import java.util.Objects;
+
+/**
+ * Forwards senders through {@link SRS} according to an {@link SRSPolicy}: senders from excluded domains are passed
+ * through unchanged, and the rest are rewritten to the alias that the policy picks for the recipient's domain.
+ * <p>
+ * The policy can be replaced at any time with {@link #setPolicy(SRSPolicy)}, for example when the exclusion list is
+ * reloaded.  Each call uses one policy throughout, the one in place when it started, and the policy lookups allocate
+ * nothing.
+ */
+public final class SRSRouter {
+  private final SRS srs;
+
+  private volatile SRSPolicy policy;
+
+  public SRSRouter(SRS srs, SRSPolicy policy) {
+    this.srs = Objects.requireNonNull(srs, "srs");
+    this.policy = Objects.requireNonNull(policy, "policy");
+  }
+
+  public SRSPolicy getPolicy() {
+    return policy;
+  }
+
+  /**
+   * Replace the policy.  Calls already running finish with the old one.
+   * @param policy the new policy
+   */
+  public void setPolicy(SRSPolicy policy) {
+    this.policy = Objects.requireNonNull(policy, "policy");
+  }
+
+  /**
+   * Rewrite a sender for a message that is forwarded to a recipient.
+   * @param sender the sender email address
+   * @param recipient the recipient the message is forwarded to
+   * @return the rewritten address, or the sender if the policy says not to rewrite it
+   * @throws InvalidKeyException If the secret is missing or invalid.
+   */
+  public String forward(final String sender, final String recipient) throws InvalidKeyException {
+    SRSPolicy current = policy;
+    // the first @, as SRS splits the sender there too and encodes everything after it as the host
+    int senderAt = sender.indexOf('@');
+
+    if (senderAt == -1) throw new IllegalArgumentException("Sender " + sender + " contains no @");
+
+    if (current.isExcluded(sender, senderAt + 1, sender.length())) return sender;
+
+    int recipientAt = recipient.lastIndexOf('@');
+    String alias = current.aliasFor(recipient, recipientAt + 1, recipient.length());
+
+    return alias == null ? sender : srs.forward(sender, alias);
+  }
+
+  /**
+   * Reverse an SRS address.
+   * @param address the address to reverse
+   * @return the reversed address, or the address itself if it is not an SRS address
+   * @see SRS#reverse(String)
+   */
+  public String reverse(final String address) {
+    return srs.reverse(address);
+  }
+}
@@ -0,0 +1,178 @@
+package io.github.mschout.email.srs.metrics;
+
+import io.github.mschout.email.srs.SRSFailure;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Default metrics implementation.  Counters are striped {@link LongAdder}s and latencies go into lock free histograms,
+ * so recording never blocks and stays cheap under contention.  Use {@link #register(String)} to expose the metrics
+ * over JMX.
+ */
+public class DefaultSRSMetrics implements SRSMetrics, SRSMetricsMBean {
+  // Matches against secrets beyond this position are all counted in the last slot
+  static final int MAX_SECRET_SLOTS = 16;
+
+  private final LongAdder[] successes = adders(Operation.values().length);
+
+  private final LongAdder[][] failures = new LongAdder[Operation.values().length][];
+
+  private final LongAdder[] secretMatches = adders(MAX_SECRET_SLOTS);
+
+  private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+
+  public DefaultSRSMetrics() {
+    for (Operation operation : Operation.values()) {
+      failures[operation.ordinal()] = adders(SRSFailure.values().length);
+      latencies[operation.ordinal()] = new LatencyHistogram();
+    }
+  }
+
+  /**
+   * Register these metrics with the platform MBean server.
+   * @param name value for the name key of the object name, to tell multiple SRS instances apart
+   * @return the object name the metrics were registered under
+   * @throws JMException if registration fails
+   */
+  public ObjectName register(String name) throws JMException {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName objectName = new ObjectName("io.github.mschout.email.srs:type=SRSMetrics,name=" + ObjectName.quote(name));
+
+    server.registerMBean(new StandardMBean(this, SRSMetricsMBean.class), objectName);
+
+    return objectName;
+  }
+
+  @Override
+  public void succeeded(Operation operation, long nanos) {
+    successes[operation.ordinal()].increment();
+    latencies[operation.ordinal()].record(nanos);
+  }
+
+  @Override
+  public void failed(Operation operation, SRSFailure failure) {
+    failures[operation.ordinal()][failure.ordinal()].increment();
+  }
+
+  @Override
+  public void secretMatched(int index) {
+    secretMatches[Math.min(index, MAX_SECRET_SLOTS - 1)].increment();
+  }
+
+  public long getSuccessCount(Operation operation) {
+    return successes[operation.ordinal()].sum();
+  }
+
+  public long getFailureCount(Operation operation, SRSFailure failure) {
+    return failures[operation.ordinal()][failure.ordinal()].sum();
+  }
+
+  public LatencyHistogram getLatency(Operation operation) {
+    return latencies[operation.ordinal()];
+  }
+
+  @Override
+  public long getForwardCount() {
+    return getSuccessCount(Operation.FORWARD);
+  }
+
+  @Override
+  public long getReverseCount() {
+    return getSuccessCount(Operation.REVERSE);
+  }
+
+  @Override
+  public long getForwardFailures() {
+    return sum(failures[Operation.FORWARD.ordinal()]);
+  }
+
+  @Override
+  public long getReverseFailures() {
+    return sum(failures[Operation.REVERSE.ordinal()]);
+  }
+
+  @Override
+  public long getMalformedCount() {
+    return getFailureCount(SRSFailure.MALFORMED);
+  }
+
+  @Override
+  public long getInvalidHashCount() {
+    return getFailureCount(SRSFailure.INVALID_HASH);
+  }
+
+  @Override
+  public long getExpiredCount() {
+    return getFailureCount(SRSFailure.EXPIRED);
+  }
+
+  @Override
+  public long getInvalidKeyCount() {
+    return getFailureCount(SRSFailure.INVALID_KEY);
+  }
+
+  @Override
+  public long[] getSecretMatches() {
+    long[] matches = new long[MAX_SECRET_SLOTS];
+
+    for (int i = 0; i < MAX_SECRET_SLOTS; i++) matches[i] = secretMatches[i].sum();
+
+    return matches;
+  }
+
+  @Override
+  public long getForwardLatencyP50() {
+    return getLatency(Operation.FORWARD).getPercentile(50);
+  }
+
+  @Override
+  public long getForwardLatencyP99() {
+    return getLatency(Operation.FORWARD).getPercentile(99);
+  }
+
+  @Override
+  public long getReverseLatencyP50() {
+    return getLatency(Operation.REVERSE).getPercentile(50);
+  }
+
+  @Override
+  public long getReverseLatencyP99() {
+    return getLatency(Operation.REVERSE).getPercentile(99);
+  }
+
+  @Override
+  public void reset() {
+    for (Operation operation : Operation.values()) {
+      successes[operation.ordinal()].reset();
+      latencies[operation.ordinal()].reset();
+
+      for (LongAdder adder : failures[operation.ordinal()]) adder.reset();
+    }
+
+    for (LongAdder adder : secretMatches) adder.reset();
+  }
+
+  private long getFailureCount(SRSFailure failure) {
+    return getFailureCount(Operation.FORWARD, failure) + getFailureCount(Operation.REVERSE, failure);
+  }
+
+  private static long sum(LongAdder[] adders) {
+    long total = 0;
+
+    for (LongAdder adder : adders) total += adder.sum();
+
+    return total;
+  }
+
+  private static LongAdder[] adders(int count) {
+    LongAdder[] adders = new LongAdder[count];
+
+    for (int i = 0; i < count; i++) adders[i] = new LongAdder();
+
+    return adders;
+  }
+}
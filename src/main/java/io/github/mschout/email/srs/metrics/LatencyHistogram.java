@@ -0,0 +1,79 @@
+package io.github.mschout.email.srs.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free latency histogram with power of two buckets.
+ * Bucket n counts values from 2^(n-1) up to 2^n - 1 nanoseconds, so percentiles are accurate to within a factor of two,
+ * which is plenty for telling a microsecond operation from a millisecond one.
+ * Each bucket is a striped {@link LongAdder}, like the counters in {@link DefaultSRSMetrics}, so threads recording
+ * similar latencies at the same time do not all increment the same word.
+ */
+public class LatencyHistogram {
+  private static final int BUCKETS = 64;
+
+  private final LongAdder[] counts = new LongAdder[BUCKETS];
+
+  public LatencyHistogram() {
+    for (int i = 0; i < BUCKETS; i++) counts[i] = new LongAdder();
+  }
+
+  /**
+   * Record a value.
+   * @param nanos the value to record, in nanoseconds
+   */
+  public void record(long nanos) {
+    counts[bucket(Math.max(0, nanos))].increment();
+  }
+
+  /**
+   * @return total number of recorded values
+   */
+  public long getCount() {
+    long total = 0;
+
+    for (LongAdder count : counts) total += count.sum();
+
+    return total;
+  }
+
+  /**
+   * Return the upper bound of the bucket containing the given percentile.
+   * @param percentile percentile, between 0 and 100
+   * @return the percentile value in nanoseconds, or 0 if nothing has been recorded
+   */
+  public long getPercentile(double percentile) {
+    long[] snapshot = new long[BUCKETS];
+    long total = 0;
+
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = counts[i].sum();
+      total += snapshot[i];
+    }
+
+    if (total == 0) return 0;
+
+    long rank = (long) Math.ceil(total * percentile / 100.0);
+    long seen = 0;
+
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += snapshot[i];
+
+      if (seen >= rank && snapshot[i] > 0) return upperBound(i);
+    }
+
+    return upperBound(BUCKETS - 1);
+  }
+
+  public void reset() {
+    for (LongAdder count : counts) count.reset();
+  }
+
+  private static int bucket(long nanos) {
+    return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+  }
+
+  private static long upperBound(int bucket) {
+    return bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+  }
+}
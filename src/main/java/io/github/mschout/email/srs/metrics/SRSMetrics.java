@@ -0,0 +1,52 @@
+package io.github.mschout.email.srs.metrics;
+
+import io.github.mschout.email.srs.SRSFailure;
+
+/**
+ * Listener for SRS operations.  {@link io.github.mschout.email.srs.SRS} reports each forward and reverse with its
+ * latency, and the providers report which secret verified a hash.  All methods do nothing by default, so an
+ * implementation only needs to override the events it cares about.
+ */
+public interface SRSMetrics {
+  /**
+   * Metrics that are switched off.  When this is in use, no timing is done at all.
+   */
+  SRSMetrics NONE = new SRSMetrics() {
+    @Override
+    public boolean isEnabled() {
+      return false;
+    }
+  };
+
+  enum Operation {
+    FORWARD,
+    REVERSE
+  }
+
+  /**
+   * @return false if nothing should be measured or reported to this listener
+   */
+  default boolean isEnabled() {
+    return true;
+  }
+
+  /**
+   * Called when an operation completes successfully.
+   * @param operation the operation
+   * @param nanos how long the operation took, in nanoseconds
+   */
+  default void succeeded(Operation operation, long nanos) {}
+
+  /**
+   * Called when an operation fails.
+   * @param operation the operation
+   * @param failure the reason the operation failed
+   */
+  default void failed(Operation operation, SRSFailure failure) {}
+
+  /**
+   * Called when a hash is verified.
+   * @param index position of the matching secret in the secrets list.  0 is the primary secret.
+   */
+  default void secretMatched(int index) {}
+}
@@ -0,0 +1,34 @@
+package io.github.mschout.email.srs.metrics;
+
+/**
+ * JMX view of {@link DefaultSRSMetrics}.  Latencies are in nanoseconds.
+ */
+public interface SRSMetricsMBean {
+  long getForwardCount();
+
+  long getReverseCount();
+
+  long getForwardFailures();
+
+  long getReverseFailures();
+
+  long getMalformedCount();
+
+  long getInvalidHashCount();
+
+  long getExpiredCount();
+
+  long getInvalidKeyCount();
+
+  long[] getSecretMatches();
+
+  long getForwardLatencyP50();
+
+  long getForwardLatencyP99();
+
+  long getReverseLatencyP50();
+
+  long getReverseLatencyP99();
+
+  void reset();
+}
@@ -0,0 +1,95 @@
+package io.github.mschout.email.srs.provider;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size bounded, thread safe, least recently used cache.
+ * The entries are spread over independently locked segments so that threads rarely contend on the same lock.
+ * Eviction is per segment, so the cache as a whole is only approximately LRU.
+ */
+final class BoundedCache<K, V> {
+  private static final int MAX_SEGMENTS = 16;
+
+  private final Segment<K, V>[] segments;
+
+  BoundedCache(int maxSize) {
+    if (maxSize < 1) throw new IllegalArgumentException("Cache size must be at least 1");
+
+    // power of two, so the segment can be picked with a mask
+    int count = Integer.highestOneBit(Math.min(MAX_SEGMENTS, maxSize));
+
+    @SuppressWarnings("unchecked")
+    Segment<K, V>[] created = (Segment<K, V>[]) new Segment<?, ?>[count];
+
+    for (int i = 0; i < count; i++) created[i] = new Segment<>((maxSize + count - 1) / count);
+
+    segments = created;
+  }
+
+  V get(K key) {
+    Segment<K, V> segment = segmentFor(key);
+
+    synchronized (segment) {
+      return segment.get(key);
+    }
+  }
+
+  void put(K key, V value) {
+    Segment<K, V> segment = segmentFor(key);
+
+    synchronized (segment) {
+      segment.put(key, value);
+    }
+  }
+
+  void remove(K key) {
+    Segment<K, V> segment = segmentFor(key);
+
+    synchronized (segment) {
+      segment.remove(key);
+    }
+  }
+
+  void clear() {
+    for (Segment<K, V> segment : segments) {
+      synchronized (segment) {
+        segment.clear();
+      }
+    }
+  }
+
+  int size() {
+    int size = 0;
+
+    for (Segment<K, V> segment : segments) {
+      synchronized (segment) {
+        size += segment.size();
+      }
+    }
+
+    return size;
+  }
+
+  private Segment<K, V> segmentFor(K key) {
+    int hash = key.hashCode();
+
+    return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+  }
+
+  private static class Segment<K, V> extends LinkedHashMap<K, V> {
+    private static final long serialVersionUID = 1L;
+
+    private final int capacity;
+
+    Segment(int capacity) {
+      super(16, 0.75f, true);
+      this.capacity = capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+      return size() > capacity;
+    }
+  }
+}
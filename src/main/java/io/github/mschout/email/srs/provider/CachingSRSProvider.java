@@ -0,0 +1,367 @@
+package io.github.mschout.email.srs.provider;
+
+import io.github.mschout.email.srs.SRSAddress;
+import io.github.mschout.email.srs.SRSAddressView;
+import java.security.InvalidKeyException;
+import java.util.List;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Provider that caches the work done by another provider.
+ * <p>
+ * Parsed addresses: repeated reversals of the same address, as seen in bounce storms and callout verification, are
+ * answered from the cache without verifying the hash again.  A cached SRS0 address is only returned until its
+ * timestamp expires, and nothing cached under one set of secrets is returned once the secrets have changed.  Failed
+ * parses are not cached.
+ * <p>
+ * Compiled addresses: timestamps have day precision, so compiling the same sender gives the same address all day.
+ * Compiled addresses are remembered for the current day and primary secret, and the cache is flushed when either of
+ * those changes.
+ * <p>
+ * The parse cache is looked up with the characters of the address where they are, so a hit, whether through
+ * {@link #parse(String)} or the view based parse used by {@code SRS.reverse}, copies nothing.  Only a miss copies the
+ * address, to keep it as the key.
+ */
+public class CachingSRSProvider implements SRSProvider {
+  @Getter
+  private final SRSProvider delegate;
+
+  // Lookup key for each thread, pointed at the characters being parsed for as long as the lookup takes
+  private static final ThreadLocal<AddressKey> LOOKUP_KEY = ThreadLocal.withInitial(AddressKey::new);
+
+  private final BoundedCache<AddressKey, Entry> parseCache;
+
+  private final BoundedCache<ForwardKey, Forwarded> forwardCache;
+
+  // Timestamps are checked the same way the delegate checks them
+  private final SRSTimestamp timestamps;
+
+  // The current day and primary secret.  Forward cache entries are only returned while the generation they were made
+  // in is still the current one, so an entry put after the cache was flushed is never returned.
+  private volatile ForwardGeneration forwardGeneration = new ForwardGeneration(null, null);
+
+  /**
+   * Create a provider that caches parsed addresses only.
+   * @param delegate the provider that does the actual work
+   * @param parseCacheSize maximum number of parsed addresses to keep
+   */
+  public CachingSRSProvider(SRSProvider delegate, int parseCacheSize) {
+    this(delegate, parseCacheSize, 0);
+  }
+
+  /**
+   * Create a caching provider.
+   * @param delegate the provider that does the actual work
+   * @param parseCacheSize maximum number of parsed addresses to keep, or 0 to not cache parsed addresses
+   * @param forwardCacheSize maximum number of compiled addresses to keep, or 0 to not cache compiled addresses
+   */
+  public CachingSRSProvider(SRSProvider delegate, int parseCacheSize, int forwardCacheSize) {
+    this.delegate = delegate;
+    this.parseCache = parseCacheSize > 0 ? new BoundedCache<>(parseCacheSize) : null;
+    this.forwardCache = forwardCacheSize > 0 ? new BoundedCache<>(forwardCacheSize) : null;
+    this.timestamps = delegate instanceof ShortCutSRSProvider ? ((ShortCutSRSProvider) delegate).timestamps() : new SRSTimestamp();
+  }
+
+  @Override
+  public SRSAddress parse(String srsAddress) {
+    if (parseCache == null) return delegate.parse(srsAddress);
+
+    Entry entry = lookup(srsAddress, 0, srsAddress.length());
+
+    if (entry == null) entry = parseAndCache(srsAddress, 0, srsAddress.length(), new SRSAddressView());
+
+    return entry.address();
+  }
+
+  @Override
+  public void parse(CharSequence source, int start, int end, SRSAddressView into) {
+    if (parseCache == null) {
+      delegate.parse(source, start, end, into);
+      return;
+    }
+
+    Entry entry = lookup(source, start, end);
+
+    if (entry == null) {
+      parseAndCache(source, start, end, into);
+    } else {
+      entry.copyTo(into);
+    }
+  }
+
+  // The cached entry for the address, if it is still good for the current time and secrets
+  private Entry lookup(CharSequence source, int start, int end) {
+    AddressKey key = LOOKUP_KEY.get().of(source, start, end);
+    Entry entry;
+
+    try {
+      entry = parseCache.get(key);
+    } finally {
+      key.release();
+    }
+
+    if (entry == null) return null;
+
+    List<String> secrets = delegate.getSecrets();
+
+    if (timestamps.getClock().millis() < entry.expiresAt && (entry.secrets == secrets || entry.secrets.equals(secrets))) return entry;
+
+    parseCache.remove(entry.key);
+
+    return null;
+  }
+
+  // Parse with the delegate into the view, and keep a copy of the result.  Failed parses throw and are not cached.
+  private Entry parseAndCache(CharSequence source, int start, int end, SRSAddressView into) {
+    List<String> secrets = delegate.getSecrets();
+
+    delegate.parse(source, start, end, into);
+
+    String address = source.subSequence(start, end).toString();
+    Entry entry = new Entry(new AddressKey(address), into, source, start, secrets, expiresAt(address));
+
+    parseCache.put(entry.key, entry);
+
+    return entry;
+  }
+
+  @Override
+  public void parseUnverified(CharSequence source, int start, int end, SRSAddressView into) {
+    delegate.parseUnverified(source, start, end, into);
+  }
+
+  // SRS0 addresses are good until their timestamp expires.  SRS1 addresses carry no timestamp of their own.
+  private long expiresAt(String srsAddress) {
+    if (!delegate.isSRS0(srsAddress)) return Long.MAX_VALUE;
+
+    // SRS0=hash=TT=host=user
+    int timestampStart = srsAddress.indexOf('=', SRSPrefix.SRS0.length() + 1) + 1;
+    int timestampEnd = srsAddress.indexOf('=', timestampStart);
+
+    return timestamps.expiresAt(srsAddress.subSequence(timestampStart, timestampEnd));
+  }
+
+  @Override
+  public boolean isSRS0(String address) {
+    return delegate.isSRS0(address);
+  }
+
+  @Override
+  public boolean isSRS1(String address) {
+    return delegate.isSRS1(address);
+  }
+
+  @Override
+  public String compile(String host, String user) throws InvalidKeyException {
+    if (forwardCache == null) return delegate.compile(host, user);
+
+    ForwardGeneration generation = forwardGeneration;
+
+    String timestamp = timestamps.current();
+    String secret = delegate.getSecret();
+
+    if (!generation.isCurrent(timestamp, secret)) {
+      generation = new ForwardGeneration(timestamp, secret);
+      forwardGeneration = generation;
+      forwardCache.clear();
+    }
+
+    ForwardKey key = new ForwardKey(host, user);
+    Forwarded cached = forwardCache.get(key);
+
+    if (cached != null && cached.generation == generation) return cached.address;
+
+    String address = delegate.compile(host, user);
+
+    // the delegate may have used a newer secret or day than the generation, and then the address is not kept
+    if (generation.isCurrent(timestamps.current(), delegate.getSecret())) forwardCache.put(key, new Forwarded(address, generation));
+
+    return address;
+  }
+
+  @Override
+  public void compile(CharSequence host, CharSequence user, StringBuilder out) throws InvalidKeyException {
+    if (forwardCache == null) {
+      delegate.compile(host, user, out);
+    } else {
+      out.append(compile(host.toString(), user.toString()));
+    }
+  }
+
+  @Override
+  public String getSecret() {
+    return delegate.getSecret();
+  }
+
+  @Override
+  public List<String> getSecrets() {
+    return delegate.getSecrets();
+  }
+
+  @Override
+  public String getSeparator() {
+    return delegate.getSeparator();
+  }
+
+  @RequiredArgsConstructor
+  private static class ForwardGeneration {
+    private final String timestamp;
+
+    private final String secret;
+
+    // timestamp strings are shared per day, so an identity check is enough to spot the day changing
+    boolean isCurrent(String currentTimestamp, String currentSecret) {
+      return timestamp == currentTimestamp && currentSecret.equals(secret);
+    }
+  }
+
+  @RequiredArgsConstructor
+  private static class Forwarded {
+    private final String address;
+
+    private final ForwardGeneration generation;
+  }
+
+  @RequiredArgsConstructor
+  @EqualsAndHashCode
+  private static class ForwardKey {
+    private final String host;
+
+    private final String user;
+  }
+
+  // Key for a parsed address, which compares the characters of the address wherever they are held
+  private static final class AddressKey {
+    private CharSequence chars;
+
+    private int start;
+
+    private int length;
+
+    private int hash;
+
+    AddressKey() {}
+
+    AddressKey(String address) {
+      of(address, 0, address.length());
+    }
+
+    // Point this key at a range of characters, with the same hash code as a String of them would have
+    AddressKey of(CharSequence source, int start, int end) {
+      int h = 0;
+
+      for (int i = start; i < end; i++) h = 31 * h + source.charAt(i);
+
+      this.chars = source;
+      this.start = start;
+      this.length = end - start;
+      this.hash = h;
+
+      return this;
+    }
+
+    // Let go of the caller's characters once a lookup is done
+    void release() {
+      chars = null;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof AddressKey)) return false;
+
+      AddressKey other = (AddressKey) o;
+
+      if (hash != other.hash || length != other.length) return false;
+
+      for (int i = 0; i < length; i++) {
+        if (chars.charAt(start + i) != other.chars.charAt(other.start + i)) return false;
+      }
+
+      return true;
+    }
+  }
+
+  // A parsed address, kept as the fields of the view that the delegate filled, over a copy of what they point into
+  private static final class Entry {
+    private final AddressKey key;
+
+    private final List<String> secrets;
+
+    private final long expiresAt;
+
+    private final CharSequence source;
+
+    private final String prefix;
+
+    private final String userTag;
+
+    private final int[] bounds;
+
+    private volatile SRSAddress address;
+
+    Entry(AddressKey key, SRSAddressView view, CharSequence parsed, int start, List<String> secrets, long expiresAt) {
+      this.key = key;
+      this.secrets = secrets;
+      this.expiresAt = expiresAt;
+      this.prefix = view.getPrefix();
+      this.userTag = view.getUserTag();
+
+      // the view usually points into what was parsed, which the key already holds a copy of
+      boolean inPlace = view.getSource() == parsed;
+      int offset = inPlace ? start : 0;
+
+      this.source = inPlace ? key.chars : view.getSource().toString();
+      this.bounds =
+        new int[] {
+          view.getHashStart(),
+          view.getHashEnd(),
+          view.getTimestampStart(),
+          view.getTimestampEnd(),
+          view.getHostStart(),
+          view.getHostEnd(),
+          view.getUserStart(),
+          view.getUserEnd(),
+        };
+
+      // fields that were not filled in stay empty at 0
+      for (int i = 0; i < bounds.length; i += 2) {
+        boolean empty = bounds[i] == bounds[i + 1];
+
+        bounds[i] = empty ? 0 : bounds[i] - offset;
+        bounds[i + 1] = empty ? 0 : bounds[i + 1] - offset;
+      }
+    }
+
+    void copyTo(SRSAddressView into) {
+      into
+        .reset(source, prefix)
+        .hash(bounds[0], bounds[1])
+        .timestamp(bounds[2], bounds[3])
+        .host(bounds[4], bounds[5])
+        .user(userTag, bounds[6], bounds[7]);
+    }
+
+    // Made once, so that repeated parses of the same address give the same object
+    SRSAddress address() {
+      SRSAddress result = address;
+
+      if (result == null) {
+        SRSAddressView view = new SRSAddressView();
+
+        copyTo(view);
+        result = view.toSRSAddress();
+        address = result;
+      }
+
+      return result;
+    }
+  }
+}
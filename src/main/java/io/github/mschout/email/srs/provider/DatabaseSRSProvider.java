@@ -0,0 +1,192 @@
+package io.github.mschout.email.srs.provider;
+
+import io.github.mschout.email.srs.InvalidSRSAddressException;
+import io.github.mschout.email.srs.SRSAddress;
+import io.github.mschout.email.srs.SRSAddressView;
+import io.github.mschout.email.srs.SRSFailure;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.List;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Database SRS provider, like the database mode of the reference implementation.  Rather than encoding the sender
+ * into the address, the sender is kept in an {@link SRSStore} and the address only holds its key: SRS0=key, with a
+ * 13 character key.  Every rewritten address has the same short length however long the sender is, and addresses
+ * that are already SRS addresses are simply stored as they are.
+ * <p>
+ * Keys are random 64 bit numbers, so they can not be guessed, and there is no hash or secret.  They are written in
+ * lowercase base32, which survives mail systems that change the case of the local part.  Addresses can only be
+ * reversed while their entry is in the store, for the store's time to live.
+ */
+public class DatabaseSRSProvider implements SRSProvider {
+  static final int KEY_LENGTH = 13;
+
+  private static final char[] ALPHABET = "abcdefghijklmnopqrstuvwxyz234567".toCharArray();
+
+  /**
+   * @return The store holding the original senders.
+   */
+  @Getter
+  private final SRSStore store;
+
+  @Getter
+  private final String separator;
+
+  /**
+   * Create a new database SRS provider.
+   * @param store The store for the original senders.  It may be shared with other providers.
+   * @param separator The separator after the SRS0 tag.  Defaults to =.
+   */
+  @Builder
+  public DatabaseSRSProvider(SRSStore store, String separator) {
+    if (store == null) throw new IllegalArgumentException("A database provider needs a store");
+
+    this.store = store;
+    this.separator = separator != null ? separator : "=";
+
+    if (this.separator.length() != 1 || !SRSPrefix.SEPARATORS.contains(this.separator)) throw new IllegalArgumentException(
+      "Initial separator must be = - or +, not " + this.separator
+    );
+  }
+
+  @Override
+  public boolean isSRS0(String address) {
+    return SRSPrefix.of(address, 0, address.length()) == SRSPrefix.SRS0;
+  }
+
+  @Override
+  public boolean isSRS1(String address) {
+    return SRSPrefix.of(address, 0, address.length()) == SRSPrefix.SRS1;
+  }
+
+  @Override
+  public String compile(String host, String user) {
+    StringBuilder address = new StringBuilder(SRSPrefix.SRS0.length() + 1 + KEY_LENGTH);
+
+    compile(host, user, address);
+
+    return address.toString();
+  }
+
+  /**
+   * Store the sender and append its address.
+   * @param host the sender host
+   * @param user the sender user
+   * @param out the buffer to append the address to
+   * @throws UncheckedIOException If the store can not start a new segment file.
+   */
+  @Override
+  public void compile(CharSequence host, CharSequence user, StringBuilder out) {
+    long key;
+
+    try {
+      key = store.put(host, user);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    out.append(SRSPrefix.SRS0).append(separator);
+
+    // 64 bits: the top 4, then 12 groups of 5
+    out.append(ALPHABET[(int) (key >>> 60)]);
+    for (int shift = 55; shift >= 0; shift -= 5) out.append(ALPHABET[(int) (key >>> shift) & 31]);
+  }
+
+  @Override
+  public SRSAddress parse(String srsAddress) {
+    SRSAddressView address = new SRSAddressView();
+
+    parse(srsAddress, 0, srsAddress.length(), address);
+
+    return address.toSRSAddress();
+  }
+
+  /**
+   * Look up the sender for an address.  The parsed view has no hash or timestamp.
+   * @param source characters containing the address to parse
+   * @param start start index of the address, inclusive
+   * @param end end index of the address, exclusive
+   * @param into the view to fill
+   */
+  @Override
+  public void parse(CharSequence source, int start, int end, SRSAddressView into) {
+    SRSStore.Entry entry = lookup(source, start, end);
+
+    if (store.isExpired(entry)) throw new InvalidSRSAddressException(SRSFailure.EXPIRED, "Expired database key");
+
+    fill(entry, into);
+  }
+
+  /**
+   * Look up the sender for an address, even if it has expired but is still in the store.
+   * @see SRSProvider#parseUnverified(CharSequence, int, int, SRSAddressView)
+   */
+  @Override
+  public void parseUnverified(CharSequence source, int start, int end, SRSAddressView into) {
+    fill(lookup(source, start, end), into);
+  }
+
+  private SRSStore.Entry lookup(CharSequence source, int start, int end) {
+    if (SRSPrefix.of(source, start, end) != SRSPrefix.SRS0 || end - start != SRSPrefix.SRS0.length() + 1 + KEY_LENGTH) {
+      throw new InvalidSRSAddressException(SRSFailure.MALFORMED, "Invalid database SRS address: " + source.subSequence(start, end));
+    }
+
+    int keyStart = start + SRSPrefix.SRS0.length() + 1;
+    long key = 0;
+
+    for (int i = 0; i < KEY_LENGTH; i++) {
+      int value = decode(source.charAt(keyStart + i));
+
+      // the first character only holds 4 bits
+      if (value < 0 || (i == 0 && value > 15)) throw new InvalidSRSAddressException(
+        SRSFailure.MALFORMED,
+        "Invalid database key: " + source.subSequence(keyStart, end)
+      );
+
+      key = key << 5 | value;
+    }
+
+    SRSStore.Entry entry = store.get(key);
+
+    if (entry == null) throw new InvalidSRSAddressException(
+      SRSFailure.INVALID_HASH,
+      "Unknown database key: " + source.subSequence(keyStart, end)
+    );
+
+    return entry;
+  }
+
+  private static void fill(SRSStore.Entry entry, SRSAddressView into) {
+    String fields = entry.fields();
+
+    into.reset(fields, SRSPrefix.SRS0).host(0, entry.hostEnd()).user(null, entry.hostEnd(), fields.length());
+  }
+
+  // Value of a base32 character, either case, or -1
+  private static int decode(char c) {
+    if (c >= '2' && c <= '7') return c - '2' + 26;
+
+    char lower = (char) (c | 0x20);
+
+    return lower >= 'a' && lower <= 'z' ? lower - 'a' : -1;
+  }
+
+  /**
+   * @return null, database addresses are not hashed
+   */
+  @Override
+  public String getSecret() {
+    return null;
+  }
+
+  /**
+   * @return an empty list, database addresses are not hashed
+   */
+  @Override
+  public List<String> getSecrets() {
+    return Collections.emptyList();
+  }
+}
@@ -10,6 +10,6 @@ public class DefaultSRSProviderFactory extends SRSProviderFactory {
   private static final DefaultSRSProviderFactory instance = new DefaultSRSProviderFactory();
 
   public DefaultSRSProviderFactory() {
-    super(49, 4, 4, "=");
+    super(SRSProviderFactory.builder().build());
   }
 }
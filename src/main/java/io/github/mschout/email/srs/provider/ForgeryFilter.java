@@ -0,0 +1,233 @@
+package io.github.mschout.email.srs.provider;
+
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import lombok.Getter;
+
+/**
+ * Remembers recently forged SRS addresses, so that a flood of the same forgeries is rejected without hashing them
+ * against every secret again.
+ * <p>
+ * The addresses are kept in a pair of Bloom filters: new rejections go into the current one, and lookups check both.
+ * The current filter is retired, and the oldest one dropped, every half of the time to live, or sooner if it fills up,
+ * so an address is remembered for between half and all of the time to live.  Memory use is fixed when the filter is
+ * created, at two filters sized for the capacity and false positive rate.  A false positive rejects a genuine address,
+ * so the rate should be very low: at the default of one in a million, each remembered address takes about 29 bits.
+ * <p>
+ * Addresses are hashed with a random seed, so that nobody outside can work out which genuine addresses a set of
+ * forgeries would block.  Case is ignored, as it is when verifying hashes.
+ */
+public class ForgeryFilter {
+  /**
+   * @return the number of addresses each of the two Bloom filters holds before it is retired
+   */
+  @Getter
+  private final int capacity;
+
+  /**
+   * @return the chance that an address that was never rejected is reported as rejected
+   */
+  @Getter
+  private final double falsePositiveRate;
+
+  /**
+   * @return the longest time that an address is remembered
+   */
+  @Getter
+  private final Duration ttl;
+
+  private final Clock clock;
+
+  private final int bits;
+
+  private final int hashes;
+
+  private final long seed = new SecureRandom().nextLong();
+
+  private volatile Generations generations;
+
+  /**
+   * Create a forgery filter.
+   * @param capacity number of addresses to remember for each half of the time to live
+   * @param falsePositiveRate chance that an address that was never rejected is reported as rejected
+   * @param ttl longest time to remember an address
+   * @param clock clock the time to live is measured with
+   */
+  public ForgeryFilter(int capacity, double falsePositiveRate, Duration ttl, Clock clock) {
+    if (capacity < 1) throw new IllegalArgumentException("capacity must be at least 1, not " + capacity);
+    if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) throw new IllegalArgumentException(
+      "falsePositiveRate must be between 0 and 1, not " + falsePositiveRate
+    );
+    if (ttl.isNegative() || ttl.isZero()) throw new IllegalArgumentException("ttl must be positive, not " + ttl);
+
+    this.capacity = capacity;
+    this.falsePositiveRate = falsePositiveRate;
+    this.ttl = ttl;
+    this.clock = clock;
+
+    // the usual optimal sizing: m = -n ln p / (ln 2)^2 bits, and k = m / n ln 2 hashes
+    double ln2 = Math.log(2);
+    long optimalBits = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (ln2 * ln2));
+
+    if (optimalBits > Integer.MAX_VALUE - 63) throw new IllegalArgumentException("capacity is too large for the false positive rate");
+
+    this.bits = (int) Math.max(64, optimalBits);
+    this.hashes = Math.max(1, (int) Math.round((double) bits / capacity * ln2));
+    this.generations = new Generations(null, new Bloom(bits), new Bloom(bits), clock.millis());
+  }
+
+  /**
+   * @return the memory used by the bit arrays, in bytes
+   */
+  public long getMemoryBytes() {
+    return 2L * ((bits + 63) / 64) * 8;
+  }
+
+  /**
+   * Check whether an address was rejected recently.
+   * @param epoch what the rejections were decided under, e.g. the set of secrets.  A different epoch forgets
+   *              everything remembered so far.
+   * @param source characters containing the address
+   * @param start start index of the address, inclusive
+   * @param end end index of the address, exclusive
+   * @return true if the address, or with a small chance one that was never added, was added recently
+   */
+  public boolean mightContain(Object epoch, CharSequence source, int start, int end) {
+    Generations current = current(epoch);
+    long hash = hash(source, start, end);
+
+    return current.newest.mightContain(hash) || current.oldest.mightContain(hash);
+  }
+
+  /**
+   * Remember that an address was rejected.
+   * @param epoch what the rejection was decided under.  The address is ignored if that is not the current epoch.
+   * @param source characters containing the address
+   * @param start start index of the address, inclusive
+   * @param end end index of the address, exclusive
+   */
+  public void add(Object epoch, CharSequence source, int start, int end) {
+    Generations current = current(epoch);
+
+    // decided under an epoch that has already been replaced
+    if (current.epoch != epoch) return;
+
+    current.newest.add(hash(source, start, end));
+  }
+
+  // The generations for the epoch, retiring the newest filter if it is old or full
+  private Generations current(Object epoch) {
+    Generations current = generations;
+    long now = clock.millis();
+
+    long age = now - current.startedAt;
+
+    // a new epoch, or nothing was looked up for long enough that both filters are out of date
+    if (current.epoch != epoch || age >= ttl.toMillis()) {
+      Generations fresh = new Generations(epoch, new Bloom(bits), new Bloom(bits), now);
+      return replace(current, fresh);
+    }
+
+    if (age >= ttl.toMillis() / 2 || current.newest.count.get() >= capacity) {
+      return replace(current, new Generations(epoch, new Bloom(bits), current.newest, now));
+    }
+
+    return current;
+  }
+
+  // Only one of the threads that saw the same old generations gets to replace them
+  private synchronized Generations replace(Generations expected, Generations replacement) {
+    if (generations == expected) generations = replacement;
+
+    return generations;
+  }
+
+  // 64 bit hash of the lowercased characters, keyed with the seed
+  private long hash(CharSequence source, int start, int end) {
+    long hash = seed;
+
+    for (int i = start; i < end; i++) {
+      char c = source.charAt(i);
+
+      if (c >= 'A' && c <= 'Z') c += 'a' - 'A';
+
+      hash = (hash ^ c) * 0x100000001b3L;
+    }
+
+    return mix(hash ^ (end - start));
+  }
+
+  // Finalizer from MurmurHash3, so that every input bit affects every output bit
+  private static long mix(long hash) {
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+
+    return hash;
+  }
+
+  private static final class Generations {
+    private final Object epoch;
+
+    private final Bloom newest;
+
+    private final Bloom oldest;
+
+    private final long startedAt;
+
+    Generations(Object epoch, Bloom newest, Bloom oldest, long startedAt) {
+      this.epoch = epoch;
+      this.newest = newest;
+      this.oldest = oldest;
+      this.startedAt = startedAt;
+    }
+  }
+
+  private final class Bloom {
+    private final AtomicLongArray words;
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    Bloom(int bits) {
+      this.words = new AtomicLongArray((bits + 63) / 64);
+    }
+
+    void add(long hash) {
+      count.incrementAndGet();
+
+      for (int i = 0; i < hashes; i++) {
+        int bit = bit(hash, i);
+        int word = bit >>> 6;
+        long mask = 1L << bit;
+
+        long current;
+        while (((current = words.get(word)) & mask) == 0 && !words.compareAndSet(word, current, current | mask)) {
+          // lost a race with another bit in the same word, try again
+        }
+      }
+    }
+
+    boolean mightContain(long hash) {
+      for (int i = 0; i < hashes; i++) {
+        int bit = bit(hash, i);
+
+        if ((words.get(bit >>> 6) & (1L << bit)) == 0) return false;
+      }
+
+      return true;
+    }
+
+    // Double hashing: the i'th bit is h1 + i * h2, with both halves taken from the one 64 bit hash
+    private int bit(long hash, int i) {
+      int h1 = (int) hash;
+      int h2 = (int) (hash >>> 32) | 1;
+
+      return ((h1 + i * h2) & Integer.MAX_VALUE) % bits;
+    }
+  }
+}
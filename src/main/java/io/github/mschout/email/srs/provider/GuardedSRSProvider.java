@@ -1,13 +1,10 @@
 package io.github.mschout.email.srs.provider;
 
-import com.google.common.base.CharMatcher;
-import com.google.common.base.Splitter;
-import com.google.common.collect.ImmutableList;
-import io.github.mschout.email.srs.SRSAddress;
+import io.github.mschout.email.srs.InvalidSRSAddressException;
+import io.github.mschout.email.srs.SRSAddressView;
+import io.github.mschout.email.srs.SRSFailure;
 import java.security.InvalidKeyException;
-import java.util.Iterator;
 import java.util.List;
-import java.util.NoSuchElementException;
 import lombok.experimental.SuperBuilder;
 
 @SuperBuilder
@@ -18,61 +15,88 @@ public class GuardedSRSProvider extends ShortCutSRSProvider implements SRSProvid
   }
 
   @Override
-  public SRSAddress parse(String srsAddress) {
-    if (isSRS1(srsAddress)) {
-      String address = removePrefix(srsAddress);
-
-      Iterator<String> addressIter = Splitter.on(SRSSEP).limit(3).split(address).iterator();
+  public void parseUnverified(CharSequence source, int start, int end, SRSAddressView into) {
+    if (srsPrefix(source, start, end) == SRSPrefix.SRS1) {
+      // hash, host, user
+      int hashStart = start + SRSPrefix.SRS1.length() + 1;
+      int hashEnd = indexOf(source, SRSSEP.charAt(0), hashStart, end);
+      int hostEnd = hashEnd == -1 ? -1 : indexOf(source, SRSSEP.charAt(0), hashEnd + 1, end);
+
+      if (hostEnd == -1) throw new InvalidSRSAddressException(
+        SRSFailure.MALFORMED,
+        "Invalid SRS1 Address: " + source.subSequence(start, end)
+      );
+
+      // here we stick SRS0 tag in front of user as we are reversing the SRS1 address back to the SRS0 tag
+      // when we parsed teh SRS0 address, we stripped the tag but left the separator in place
+      into.reset(source, SRSPrefix.SRS1).hash(hashStart, hashEnd).host(hashEnd + 1, hostEnd).user(SRSPrefix.SRS0, hostEnd + 1, end);
+
+      return;
+    }
 
-      try {
-        String hash = addressIter.next();
-        String host = addressIter.next();
-        String user = addressIter.next();
+    super.parseUnverified(source, start, end, into);
+  }
 
-        if (isHashInvalid(ImmutableList.of(host, user), hash)) throw new IllegalArgumentException("Invalid SRS1 Address: " + srsAddress);
+  @Override
+  protected void verify(SRSAddressView address) {
+    if (address.getPrefix() != SRSPrefix.SRS1) {
+      super.verify(address);
+      return;
+    }
 
-        if (host.isEmpty()) throw new IllegalArgumentException("Invalid SRS1 Address: " + srsAddress);
+    if (isHashInvalid(address)) throw new InvalidSRSAddressException(SRSFailure.INVALID_HASH, "Invalid SRS1 Address: " + srs1(address));
 
-        // here we stick SRS0 tag in front of user as we are reversing the SRS1 address back to the SRS0 tag
-        // when we parsed teh SRS0 address, we stripped the tag but left the separator in place
-        return new SRSAddress(SRSPrefix.SRS1, host, SRSPrefix.SRS0 + user, hash);
-      } catch (NoSuchElementException e) {
-        throw new IllegalArgumentException("Invalid SRS1 Address: " + srsAddress);
-      }
-    }
+    if (address.getHostStart() == address.getHostEnd()) throw new InvalidSRSAddressException(
+      SRSFailure.MALFORMED,
+      "Invalid SRS1 Address: " + srs1(address)
+    );
+  }
 
-    return super.parse(srsAddress);
+  // The SRS1 address that a view was parsed from
+  private static CharSequence srs1(SRSAddressView address) {
+    return address.getSource().subSequence(address.getHashStart() - SRSPrefix.SRS1.length() - 1, address.getUserEnd());
   }
 
   @Override
-  public String compile(String host, String user) throws InvalidKeyException {
-    if (isSRS1(user)) {
-      user = removePrefix(user);
+  public void compile(CharSequence host, CharSequence user, StringBuilder out) throws InvalidKeyException {
+    String prefix = srsPrefix(user, 0, user.length());
 
+    if (prefix == SRSPrefix.SRS1) {
       // we could do a sanity check here.  It might *not* be an SRS address,
       // unlikely though that is.  However, since we do not need to interpret
       // it, we don't really care if it's not an SRS address or not.
       // Malicious users get the garbage back that they sent
 
       // hash, srshost, srsuer
-      Iterator<String> addressIter = Splitter.on(CharMatcher.anyOf(separators)).limit(3).split(user).iterator();
-
-      addressIter.next(); // skip hash
-      String srsHost = addressIter.next();
-      String srsUser = addressIter.next();
+      int hostStart = indexOfSepChar(user, SRSPrefix.SRS1.length() + 1) + 1;
+      int hostEnd = hostStart == 0 ? -1 : indexOfSepChar(user, hostStart);
 
-      String hash = createHash(ImmutableList.of(srsHost, srsUser));
+      if (hostEnd == -1) throw new InvalidSRSAddressException(
+        SRSFailure.MALFORMED,
+        "Invalid SRS1 Address: " + user.subSequence(SRSPrefix.SRS1.length() + 1, user.length())
+      );
 
-      return SRSPrefix.SRS1 + getSeparator() + String.join(SRSSEP, hash, srsHost, srsUser);
-    } else if (isSRS0(user)) {
+      compileSRS1(user, hostStart, hostEnd, user, hostEnd + 1, out);
+    } else if (prefix == SRSPrefix.SRS0) {
       // Remove tag, but preserve separator
-      user = user.substring(SRSPrefix.SRS0.length());
+      compileSRS1(host, 0, host.length(), user, SRSPrefix.SRS0.length(), out);
+    } else {
+      super.compile(host, user, out);
+    }
+  }
 
-      String hash = createHash(ImmutableList.of(host, user));
+  private void compileSRS1(CharSequence hostSource, int hostStart, int hostEnd, CharSequence user, int userStart, StringBuilder out)
+    throws InvalidKeyException {
+    out.append(SRSPrefix.SRS1).append(getSeparator());
+    primaryHash().updateHost(hostSource, hostStart, hostEnd).update(user, userStart, user.length()).appendTo(out, hashLength());
+    out.append(SRSSEP).append(hostSource, hostStart, hostEnd).append(SRSSEP).append(user, userStart, user.length());
+  }
 
-      return SRSPrefix.SRS1 + getSeparator() + String.join(SRSSEP, hash, host, user);
+  private int indexOfSepChar(CharSequence value, int from) {
+    for (int i = from; i < value.length(); i++) {
+      if (isSepChar(value.charAt(i))) return i;
     }
 
-    return super.compile(host, user);
+    return -1;
   }
 }
@@ -0,0 +1,122 @@
+package io.github.mschout.email.srs.provider;
+
+import java.net.IDN;
+import java.util.Locale;
+
+/**
+ * Puts host names in the one form that they are hashed and compared in: ASCII, lowercase, with internationalized
+ * labels as their punycode A-labels.  {@code Bücher.example} and {@code xn--bcher-kva.example} are the same host, and
+ * hash the same.
+ * <p>
+ * Nearly every host is ASCII already, and those only need lowercasing, which the callers do as they read the host
+ * without allocating anything.  Hosts that are not ASCII go through {@link IDN#toASCII(String, int)}, which is slow,
+ * so their normalized forms are kept in a bounded cache of recently seen hosts.  A host that is not a valid IDN is
+ * still given a stable form: its lowercase, without regard to the default locale.
+ */
+public final class HostNormalizer {
+  private static final HostNormalizer DEFAULT = new HostNormalizer(4096);
+
+  private final BoundedCache<String, String> cache;
+
+  /**
+   * @param cacheSize number of internationalized hosts to keep the normalized forms of
+   */
+  public HostNormalizer(int cacheSize) {
+    this.cache = new BoundedCache<>(cacheSize);
+  }
+
+  /**
+   * @return the normalizer used by the providers
+   */
+  public static HostNormalizer getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * Returns true if the host is all ASCII, so that lowercasing it is all it takes to normalize it.
+   * @param source characters containing the host
+   * @param start start index of the host, inclusive
+   * @param end end index of the host, exclusive
+   * @return true if the host is ASCII
+   */
+  public static boolean isAscii(CharSequence source, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (source.charAt(i) >= 0x80) return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Normalize a host.
+   * @param host the host
+   * @return the normalized host, which is the host itself if it was normalized already
+   */
+  public String normalize(String host) {
+    if (isAscii(host, 0, host.length())) {
+      for (int i = 0; i < host.length(); i++) {
+        char c = host.charAt(i);
+
+        if (c >= 'A' && c <= 'Z') return host.toLowerCase(Locale.ROOT);
+      }
+
+      return host;
+    }
+
+    String normalized = cache.get(host);
+
+    if (normalized == null) {
+      normalized = toAscii(host);
+      cache.put(host, normalized);
+    }
+
+    return normalized;
+  }
+
+  /**
+   * Normalize a host held in a larger sequence.
+   * @param source characters containing the host
+   * @param start start index of the host, inclusive
+   * @param end end index of the host, exclusive
+   * @return the normalized host
+   */
+  public String normalize(CharSequence source, int start, int end) {
+    return normalize(source.subSequence(start, end).toString());
+  }
+
+  /**
+   * Returns true if two hosts are the same once normalized.  Allocates nothing when both are ASCII.
+   * @param a characters containing the first host
+   * @param aStart start index of the first host, inclusive
+   * @param aEnd end index of the first host, exclusive
+   * @param b characters containing the second host
+   * @param bStart start index of the second host, inclusive
+   * @param bEnd end index of the second host, exclusive
+   * @return true if the hosts are the same
+   */
+  public boolean sameHost(CharSequence a, int aStart, int aEnd, CharSequence b, int bStart, int bEnd) {
+    if (isAscii(a, aStart, aEnd) && isAscii(b, bStart, bEnd)) {
+      if (aEnd - aStart != bEnd - bStart) return false;
+
+      for (int i = 0; i < aEnd - aStart; i++) {
+        if (lower(a.charAt(aStart + i)) != lower(b.charAt(bStart + i))) return false;
+      }
+
+      return true;
+    }
+
+    return normalize(a, aStart, aEnd).equals(normalize(b, bStart, bEnd));
+  }
+
+  static char lower(char c) {
+    return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+  }
+
+  private static String toAscii(String host) {
+    try {
+      return IDN.toASCII(host, IDN.ALLOW_UNASSIGNED).toLowerCase(Locale.ROOT);
+    } catch (IllegalArgumentException e) {
+      return host.toLowerCase(Locale.ROOT);
+    }
+  }
+}
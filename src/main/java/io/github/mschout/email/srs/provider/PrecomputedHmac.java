@@ -0,0 +1,110 @@
+package io.github.mschout.email.srs.provider;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * HMAC-SHA1 or HMAC-SHA256 for one secret, with the keyed inner and outer states worked out once.
+ * <p>
+ * An HMAC hashes the key padded with ipad and then the message, and then hashes the key padded with opad and then that
+ * result.  The key blocks are the same every time, so digests that have already taken them in are kept, and each hash
+ * starts from copies of those: it only compresses the message and the inner digest, two blocks for an address instead
+ * of the four that a {@link javax.crypto.Mac} compresses after a reset.  The digests stay the platform's own, which
+ * use the processor's SHA instructions where it has them.  The kept digests are only ever copied, never updated, so
+ * they are shared by all threads.
+ */
+final class PrecomputedHmac {
+  private static final int BLOCK_SIZE = 64;
+
+  // Digest that has taken in the key padded with ipad
+  private final MessageDigest inner;
+
+  // Digest that has taken in the key padded with opad
+  private final MessageDigest outer;
+
+  private final int digestLength;
+
+  private PrecomputedHmac(MessageDigest inner, MessageDigest outer) {
+    this.inner = inner;
+    this.outer = outer;
+    this.digestLength = inner.getDigestLength();
+  }
+
+  /**
+   * Work out the keyed states for a secret.
+   * @param algorithm the hash algorithm
+   * @param key the secret, as the bytes that the HMAC is keyed with
+   * @return the precomputed HMAC, or null if the algorithm is not an HMAC, or its digests can not be copied
+   */
+  static PrecomputedHmac of(SRSHashAlgorithm algorithm, byte[] key) {
+    switch (algorithm) {
+      case HMAC_SHA1:
+        return of("SHA-1", key);
+      case HMAC_SHA256:
+        return of("SHA-256", key);
+      default:
+        return null;
+    }
+  }
+
+  private static PrecomputedHmac of(String digestName, byte[] key) {
+    MessageDigest inner;
+    MessageDigest outer;
+
+    try {
+      inner = MessageDigest.getInstance(digestName);
+      outer = MessageDigest.getInstance(digestName);
+    } catch (NoSuchAlgorithmException e) {
+      // Every JRE has to support both
+      throw new RuntimeException(e);
+    }
+
+    byte[] block = Arrays.copyOf(key.length > BLOCK_SIZE ? inner.digest(key) : key, BLOCK_SIZE);
+
+    for (int i = 0; i < BLOCK_SIZE; i++) block[i] ^= 0x36;
+    inner.update(block);
+
+    for (int i = 0; i < BLOCK_SIZE; i++) block[i] ^= 0x36 ^ 0x5c;
+    outer.update(block);
+
+    try {
+      inner.clone();
+    } catch (CloneNotSupportedException e) {
+      return null;
+    }
+
+    return new PrecomputedHmac(inner, outer);
+  }
+
+  /**
+   * Hash a message.
+   * @param message array holding the message
+   * @param offset offset of the message in the array
+   * @param length length of the message
+   * @param digest array to write the digest to, from the start
+   */
+  void hash(byte[] message, int offset, int length, byte[] digest) {
+    try {
+      MessageDigest md = (MessageDigest) inner.clone();
+
+      md.update(message, offset, length);
+      md.digest(digest, 0, digestLength);
+
+      md = (MessageDigest) outer.clone();
+      md.update(digest, 0, digestLength);
+      md.digest(digest, 0, digestLength);
+    } catch (CloneNotSupportedException | DigestException e) {
+      // Can not happen, copying was tried when the states were made, and the digest array is large enough
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @return the length of the digest, in bytes
+   */
+  int digestLength() {
+    return digestLength;
+  }
+}
@@ -1,6 +1,5 @@
 package io.github.mschout.email.srs.provider;
 
-import com.google.common.collect.ImmutableList;
 import java.security.InvalidKeyException;
 import java.util.List;
 import lombok.RequiredArgsConstructor;
@@ -14,11 +13,11 @@ public class ReversibleSRSProvider extends ShortCutSRSProvider implements SRSPro
   }
 
   @Override
-  public String compile(String host, String user) throws InvalidKeyException {
-    String timestamp = SRSTimestamp.generate();
+  public void compile(CharSequence host, CharSequence user, StringBuilder out) throws InvalidKeyException {
+    String timestamp = timestamps().current();
 
-    String hash = createHash(ImmutableList.of(timestamp, host, user));
-
-    return String.join(SRSSEP, SRSPrefix.SRS0, hash, timestamp, host, user);
+    out.append(SRSPrefix.SRS0).append(SRSSEP);
+    primaryHash().update(timestamp).updateHost(host).update(user).appendTo(out, hashLength());
+    out.append(SRSSEP).append(timestamp).append(SRSSEP).append(host).append(SRSSEP).append(user);
   }
 }
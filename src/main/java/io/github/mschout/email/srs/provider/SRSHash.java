@@ -0,0 +1,243 @@
+package io.github.mschout.email.srs.provider;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.util.Arrays;
+import java.util.Locale;
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+
+/**
+ * Per-thread hash state used to compute SRS hashes without building intermediate strings.
+ * Values are lowercased into a message buffer as they are added, and only the base64 characters that are needed are
+ * ever encoded.  Use {@link #begin(SRSKey, SRSHashAlgorithm)} to start a new hash on the calling thread.
+ * <p>
+ * The message is kept until the next begin, so it can be checked against several keys by switching with
+ * {@link #key(SRSKey, SRSHashAlgorithm)}.  HMACs start from the precomputed states of the key, so checking one more
+ * key costs about half of a full HMAC, and nothing to encode the values again.
+ */
+final class SRSHash {
+  private static final char[] BASE64_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+  private static final ThreadLocal<SRSHash> STATE = ThreadLocal.withInitial(SRSHash::new);
+
+  // Lowercased message
+  private byte[] input = new byte[128];
+
+  private int messageLength;
+
+  private final byte[] digest = new byte[64];
+
+  private PrecomputedHmac hmac;
+
+  // Engine for algorithms that are not HMACs
+  private Mac mac;
+
+  private int digestLength;
+
+  private SRSHash() {}
+
+  /**
+   * Start a new hash on the calling thread.  The returned object is only valid until the next call to begin on the
+   * same thread.
+   * @param key the key to hash with
+   * @param algorithm the hash algorithm
+   * @return the hash state for the calling thread
+   * @throws InvalidKeyException if the secret can not be used as a key
+   */
+  static SRSHash begin(SRSKey key, SRSHashAlgorithm algorithm) throws InvalidKeyException {
+    return begin().key(key, algorithm);
+  }
+
+  /**
+   * Start a new message on the calling thread, to be hashed with the keys given to {@link #key(SRSKey,
+   * SRSHashAlgorithm)}.  The returned object is only valid until the next call to begin on the same thread.
+   * @return the hash state for the calling thread
+   */
+  static SRSHash begin() {
+    SRSHash hash = STATE.get();
+
+    hash.messageLength = 0;
+    hash.hmac = null;
+    hash.mac = null;
+    hash.digestLength = 0;
+
+    return hash;
+  }
+
+  /**
+   * Hash the message with a different key, keeping the values added so far.
+   * @param key the key to hash with
+   * @param algorithm the hash algorithm
+   * @return this hash
+   * @throws InvalidKeyException if the secret can not be used as a key
+   */
+  SRSHash key(SRSKey key, SRSHashAlgorithm algorithm) throws InvalidKeyException {
+    hmac = key.hmac(algorithm);
+    mac = hmac == null ? key.mac(algorithm) : null;
+    digestLength = 0;
+
+    return this;
+  }
+
+  SRSHash update(CharSequence value) {
+    return update(value, 0, value.length());
+  }
+
+  /**
+   * Add the lowercased characters of value from start to end to the hash.
+   * @param value the characters to add
+   * @param start start index, inclusive
+   * @param end end index, exclusive
+   * @return this hash
+   */
+  SRSHash update(CharSequence value, int start, int end) {
+    reserve(end - start);
+    digestLength = 0;
+
+    for (int i = start; i < end; i++) {
+      char c = value.charAt(i);
+
+      if (c >= 0x80) {
+        // Not ASCII.  Rare enough that we just take the slow path that does full unicode case mapping, the same on
+        // every machine whatever its default locale and charset.
+        append(value.subSequence(start, end).toString().toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8));
+        return this;
+      }
+    }
+
+    appendLowercase(value, start, end);
+
+    return this;
+  }
+
+  SRSHash updateHost(CharSequence host) {
+    return updateHost(host, 0, host.length());
+  }
+
+  /**
+   * Add a host to the hash, in the form given by {@link HostNormalizer}, so that a host hashes the same whether its
+   * internationalized labels are A-labels or U-labels.
+   * @param value characters containing the host
+   * @param start start index, inclusive
+   * @param end end index, exclusive
+   * @return this hash
+   */
+  SRSHash updateHost(CharSequence value, int start, int end) {
+    if (!HostNormalizer.isAscii(value, start, end)) {
+      String host = HostNormalizer.getDefault().normalize(value, start, end);
+
+      return update(host, 0, host.length());
+    }
+
+    reserve(end - start);
+    digestLength = 0;
+    appendLowercase(value, start, end);
+
+    return this;
+  }
+
+  // Append ASCII characters to the message, lowercased
+  private void appendLowercase(CharSequence value, int start, int end) {
+    for (int i = start; i < end; i++) input[messageLength++] = (byte) HostNormalizer.lower(value.charAt(i));
+  }
+
+  private void append(byte[] bytes) {
+    reserve(bytes.length);
+    System.arraycopy(bytes, 0, input, messageLength, bytes.length);
+    messageLength += bytes.length;
+  }
+
+  // Make room for count more bytes of message
+  private void reserve(int count) {
+    if (input.length - messageLength < count) input = Arrays.copyOf(input, Math.max(messageLength + count, input.length * 2));
+  }
+
+  /**
+   * Append the first length characters of the base64 encoded hash to the given buffer.
+   * @param out the buffer to append to
+   * @param length the number of characters to append
+   */
+  void appendTo(StringBuilder out, int length) {
+    finish();
+
+    for (int i = 0; i < length; i++) out.append(base64Char(i));
+  }
+
+  /**
+   * Returns true if the given hash matches the first hashLength characters of the base64 encoded hash, ignoring case.
+   * @param hash the hash to check
+   * @param hashLength the number of hash characters that are significant
+   * @return true if the hash matches
+   */
+  boolean matches(CharSequence hash, int hashLength) {
+    return matches(hash, 0, hash.length(), hashLength);
+  }
+
+  /**
+   * Returns true if the hash in the given range matches the first hashLength characters of the base64 encoded hash,
+   * ignoring case.
+   * @param source characters containing the hash to check
+   * @param start start index of the hash, inclusive
+   * @param end end index of the hash, exclusive
+   * @param hashLength the number of hash characters that are significant
+   * @return true if the hash matches
+   */
+  boolean matches(CharSequence source, int start, int end, int hashLength) {
+    if (end - start != hashLength) return false;
+
+    finish();
+
+    for (int i = 0; i < hashLength; i++) {
+      char expected = base64Char(i);
+      char actual = source.charAt(start + i);
+
+      if (expected != actual && Character.toUpperCase(expected) != Character.toUpperCase(actual)) return false;
+    }
+
+    return true;
+  }
+
+  private void finish() {
+    if (digestLength != 0) return;
+
+    if (hmac != null) {
+      hmac.hash(input, 0, messageLength, digest);
+      digestLength = hmac.digestLength();
+      return;
+    }
+
+    try {
+      mac.reset();
+      mac.update(input, 0, messageLength);
+      digestLength = mac.getMacLength();
+      mac.doFinal(digest, 0);
+    } catch (ShortBufferException e) {
+      // Can not happen, the digest buffer is larger than any MAC we use
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // The base64 character at the given position of the encoded digest
+  private char base64Char(int pos) {
+    int offset = (pos / 4) * 3;
+    int available = digestLength - offset;
+
+    if (available <= 0) throw new IndexOutOfBoundsException("Hash length exceeds encoded digest length");
+
+    int b0 = digest[offset] & 0xff;
+    int b1 = available > 1 ? digest[offset + 1] & 0xff : 0;
+    int b2 = available > 2 ? digest[offset + 2] & 0xff : 0;
+
+    switch (pos % 4) {
+      case 0:
+        return BASE64_CHARS[b0 >> 2];
+      case 1:
+        return BASE64_CHARS[((b0 & 0x03) << 4) | (b1 >> 4)];
+      case 2:
+        return available > 1 ? BASE64_CHARS[((b1 & 0x0f) << 2) | (b2 >> 6)] : '=';
+      default:
+        return available > 2 ? BASE64_CHARS[b2 & 0x3f] : '=';
+    }
+  }
+}
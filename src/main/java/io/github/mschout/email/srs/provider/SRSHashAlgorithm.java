@@ -0,0 +1,81 @@
+package io.github.mschout.email.srs.provider;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Keyed hash functions for the hash in SRS addresses.  Only the first few base64 characters of the hash end up in an
+ * address, so the choice is between compatibility, speed, and the strength of the function, not the digest length.
+ */
+public enum SRSHashAlgorithm {
+  /**
+   * HMAC-SHA1.  The default, and the only choice that other SRS implementations understand.
+   */
+  HMAC_SHA1("HmacSHA1", 20),
+
+  /**
+   * HMAC-SHA256, for sites that need a stronger MAC.
+   */
+  HMAC_SHA256("HmacSHA256", 32),
+
+  /**
+   * SipHash-2-4, a keyed function made for short inputs, and a lot cheaper per address than the HMACs.  Its 128 bit
+   * key is derived from the secret with SHA-256.
+   */
+  SIPHASH("SipHash-2-4", 8);
+
+  private final String macName;
+
+  private final int macLength;
+
+  SRSHashAlgorithm(String macName, int macLength) {
+    this.macName = macName;
+    this.macLength = macLength;
+  }
+
+  /**
+   * @return the longest hash this algorithm can make, in base64 characters without padding
+   */
+  public int maxHashLength() {
+    return (macLength * 8 + 5) / 6;
+  }
+
+  /**
+   * Create a MAC engine keyed with the given secret.
+   * @param secret the secret
+   * @return the keyed engine
+   * @throws InvalidKeyException if the secret can not be used as a key
+   */
+  Mac newMac(String secret) throws InvalidKeyException {
+    if (secret.isEmpty()) throw new InvalidKeyException("Secrets can not be empty");
+
+    if (this == SIPHASH) {
+      Mac mac = new SipHashMac();
+      mac.init(new SecretKeySpec(Arrays.copyOf(sha256(secret), SipHashMac.KEY_SIZE), macName));
+      return mac;
+    }
+
+    try {
+      Mac mac = Mac.getInstance(macName);
+      mac.init(new SecretKeySpec(secret.getBytes(), macName));
+      return mac;
+    } catch (NoSuchAlgorithmException e) {
+      // Really should never happen, every JRE has to support both HMACs
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static byte[] sha256(String secret) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(secret.getBytes(StandardCharsets.UTF_8));
+    } catch (NoSuchAlgorithmException e) {
+      // Every JRE has to support SHA-256
+      throw new RuntimeException(e);
+    }
+  }
+}
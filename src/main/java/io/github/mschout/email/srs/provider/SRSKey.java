@@ -0,0 +1,109 @@
+package io.github.mschout.email.srs.provider;
+
+import java.security.InvalidKeyException;
+import javax.crypto.Mac;
+import lombok.Getter;
+
+/**
+ * A secret together with the keyed MAC engines used to hash with it.
+ * The secret is turned into a keyed prototype engine for each {@link SRSHashAlgorithm} once, when the key is created.
+ * Mac instances are not thread safe, so each thread gets its own copy of a prototype, which is then reused for every
+ * hash made with this secret and algorithm on that thread.  The HMACs also get their keyed states precomputed, which
+ * are only ever read, so they are shared by all threads.
+ */
+final class SRSKey {
+  private static final SRSHashAlgorithm[] ALGORITHMS = SRSHashAlgorithm.values();
+
+  @Getter
+  private final String secret;
+
+  // Keyed engines that the per thread engines are copied from, by algorithm, or null if the secret is not a usable key
+  private final Mac[] prototypes;
+
+  // Precomputed HMACs by algorithm, null for algorithms that are not HMACs, or if the secret is not a usable key
+  private final PrecomputedHmac[] hmacs;
+
+  // Why the secret is not a usable key
+  private final InvalidKeyException invalid;
+
+  private final ThreadLocal<Mac[]> engines = ThreadLocal.withInitial(() -> new Mac[ALGORITHMS.length]);
+
+  SRSKey(String secret) {
+    Mac[] macs = new Mac[ALGORITHMS.length];
+    PrecomputedHmac[] precomputed = new PrecomputedHmac[ALGORITHMS.length];
+    InvalidKeyException failure = null;
+
+    try {
+      for (SRSHashAlgorithm algorithm : ALGORITHMS) {
+        macs[algorithm.ordinal()] = algorithm.newMac(secret);
+        // keyed with the same bytes as the Mac
+        precomputed[algorithm.ordinal()] = PrecomputedHmac.of(algorithm, secret.getBytes());
+      }
+    } catch (InvalidKeyException e) {
+      macs = null;
+      precomputed = null;
+      failure = e;
+    }
+
+    this.secret = secret;
+    this.prototypes = macs;
+    this.hmacs = precomputed;
+    this.invalid = failure;
+  }
+
+  /**
+   * Returns true if the secret can be used as a key.
+   * @return true if {@link #mac(SRSHashAlgorithm)} will not throw
+   */
+  boolean isValid() {
+    return prototypes != null;
+  }
+
+  /**
+   * Returns the keyed MAC engine for the calling thread.  The engine is reset and ready for use.
+   * @param algorithm the hash algorithm
+   * @return the keyed MAC engine
+   * @throws InvalidKeyException if the secret can not be used as a key
+   */
+  Mac mac(SRSHashAlgorithm algorithm) throws InvalidKeyException {
+    Mac[] macs = engines.get();
+    Mac mac = macs[algorithm.ordinal()];
+
+    if (mac == null) {
+      if (prototypes == null) throw invalid;
+
+      mac = copyPrototype(algorithm);
+      macs[algorithm.ordinal()] = mac;
+    } else {
+      // discard anything left over from a hash that was abandoned part way through
+      mac.reset();
+    }
+
+    return mac;
+  }
+
+  /**
+   * Returns the precomputed HMAC for an algorithm.  It can be used from any thread.
+   * @param algorithm the hash algorithm
+   * @return the precomputed HMAC, or null if the algorithm is not an HMAC
+   * @throws InvalidKeyException if the secret can not be used as a key
+   */
+  PrecomputedHmac hmac(SRSHashAlgorithm algorithm) throws InvalidKeyException {
+    if (hmacs == null) throw invalid;
+
+    return hmacs[algorithm.ordinal()];
+  }
+
+  // Copying the keyed state skips the provider lookup and key setup
+  private Mac copyPrototype(SRSHashAlgorithm algorithm) throws InvalidKeyException {
+    Mac prototype = prototypes[algorithm.ordinal()];
+
+    try {
+      synchronized (prototype) {
+        return (Mac) prototype.clone();
+      }
+    } catch (CloneNotSupportedException e) {
+      return algorithm.newMac(secret);
+    }
+  }
+}
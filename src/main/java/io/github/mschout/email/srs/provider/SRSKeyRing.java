@@ -0,0 +1,65 @@
+package io.github.mschout.email.srs.provider;
+
+import java.security.InvalidKeyException;
+import java.util.List;
+
+/**
+ * The secrets that a provider hashes with, which can be rotated while the provider is in use.
+ * <p>
+ * The secrets are held as an immutable snapshot, so every hash or verification works from one consistent set of
+ * secrets and readers never block.  A rotation keys any new secrets before they are swapped in, and keeps the keyed
+ * engines of the secrets that stay, so that nothing has to be set up on the verification path afterwards.  Share one
+ * key ring between providers to rotate them together, and see {@link SecretsFileWatcher} to rotate from a file.
+ */
+public class SRSKeyRing {
+  private volatile SRSKeySet keys;
+
+  /**
+   * Create a key ring.
+   * @param secrets The secrets.  Must contain at least one value.  The first one is used for creating hashes, and all
+   *                of them are tried when verifying hashes.
+   */
+  public SRSKeyRing(List<String> secrets) {
+    this.keys = SRSKeySet.of(secrets);
+  }
+
+  /**
+   * Replace the secrets.  Addresses made and verified from now on use the new secrets, while those already in
+   * progress finish with the old ones.
+   * @param secrets The new secrets.  Must contain at least one value.  Keep the old primary secret in the list until
+   *                the addresses made with it have expired.
+   * @throws InvalidKeyException If one of the secrets can not be used as a key.  The secrets are left as they were.
+   */
+  public synchronized void rotate(List<String> secrets) throws InvalidKeyException {
+    SRSKeySet next = keys.rotate(secrets);
+
+    checkKeys(next);
+    keys = next;
+  }
+
+  // Throws if one of the secrets can not be used as a key
+  static void checkKeys(SRSKeySet keys) throws InvalidKeyException {
+    int invalid = keys.firstInvalidKey();
+
+    if (invalid != -1) throw new InvalidKeyException("Secret number " + (invalid + 1) + " can not be used as a key");
+  }
+
+  /**
+   * @return the current secrets, primary first
+   */
+  public List<String> getSecrets() {
+    return keys.getSecrets();
+  }
+
+  /**
+   * @return the current primary secret
+   */
+  public String getSecret() {
+    return keys.primary().getSecret();
+  }
+
+  // The current snapshot.  Read it once per operation.
+  SRSKeySet current() {
+    return keys;
+  }
+}
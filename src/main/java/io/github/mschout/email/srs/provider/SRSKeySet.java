@@ -0,0 +1,126 @@
+package io.github.mschout.email.srs.provider;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of the secrets, each with its keyed MAC engines.  The first key is used to hash new addresses,
+ * and all of them are tried when verifying.  Verification starts with the key that most recently matched, as nearly
+ * all of the addresses seen at any time were made with the same secret.
+ */
+final class SRSKeySet {
+  private final List<String> secrets;
+
+  private final SRSKey[] keys;
+
+  // The candidate that last verified a hash.  Only a hint, so there is no harm in threads racing to set it.
+  private volatile int hint;
+
+  private SRSKeySet(List<String> secrets, SRSKey[] keys) {
+    this.secrets = secrets;
+    this.keys = keys;
+  }
+
+  /**
+   * Key the given secrets.
+   * @param secrets the secrets, primary first
+   * @return the key set
+   */
+  static SRSKeySet of(List<String> secrets) {
+    return of(secrets, Collections.emptyMap());
+  }
+
+  /**
+   * Key the given secrets, reusing the keys of this set for secrets that it already has.  Reused keys keep the engines
+   * that threads have already set up, so replacing a key set costs nothing for the secrets that stay.
+   * @param secrets the secrets, primary first
+   * @return the new key set
+   */
+  SRSKeySet rotate(List<String> secrets) {
+    Map<String, SRSKey> existing = new HashMap<>();
+
+    for (SRSKey key : keys) existing.put(key.getSecret(), key);
+
+    return of(secrets, existing);
+  }
+
+  private static SRSKeySet of(List<String> secrets, Map<String, SRSKey> existing) {
+    if (secrets == null || secrets.isEmpty()) throw new IllegalArgumentException("At least one secret is required");
+
+    SRSKey[] keys = new SRSKey[secrets.size()];
+
+    for (int i = 0; i < keys.length; i++) {
+      SRSKey key = existing.get(secrets.get(i));
+      keys[i] = key != null ? key : new SRSKey(secrets.get(i));
+    }
+
+    return new SRSKeySet(Collections.unmodifiableList(new ArrayList<>(secrets)), keys);
+  }
+
+  List<String> getSecrets() {
+    return secrets;
+  }
+
+  int size() {
+    return keys.length;
+  }
+
+  /**
+   * Returns the key used to hash new addresses.
+   * @return the primary key
+   */
+  SRSKey primary() {
+    return keys[0];
+  }
+
+  SRSKey get(int index) {
+    return keys[index];
+  }
+
+  /**
+   * Returns the candidate that last verified a hash.  A candidate is a key, or a key and hash algorithm when a provider
+   * verifies with more than one.  Read it once per verification and pass it to {@link #candidate(int, int)}, so that
+   * every candidate is tried once even if another thread moves the hint.
+   * @return the hinted candidate
+   */
+  int hint() {
+    return hint;
+  }
+
+  /**
+   * Returns the candidate to try on the given attempt at verifying a hash: the hinted candidate first, then the rest
+   * in order.
+   * @param first the hinted candidate
+   * @param attempt the attempt, from 0 to the number of candidates - 1
+   * @return the candidate to try
+   */
+  static int candidate(int first, int attempt) {
+    if (attempt == 0) return first;
+
+    return attempt - 1 < first ? attempt - 1 : attempt;
+  }
+
+  /**
+   * Record that a candidate verified a hash.
+   * @param candidate the candidate
+   */
+  void matched(int candidate) {
+    // only write when it changes, so that threads verifying with the same key do not fight over the cache line
+    if (hint != candidate) hint = candidate;
+  }
+
+  /**
+   * Returns the index of the first secret that can not be used as a key, or -1 if they all can.
+   * @return the index of the invalid secret
+   */
+  int firstInvalidKey() {
+    for (int i = 0; i < keys.length; i++) {
+      if (!keys[i].isValid()) return i;
+    }
+
+    return -1;
+  }
+}
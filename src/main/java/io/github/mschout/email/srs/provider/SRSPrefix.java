@@ -1,6 +1,67 @@
 package io.github.mschout.email.srs.provider;
 
-class SRSPrefix {
-  static final String SRS0 = "SRS0";
-  static final String SRS1 = "SRS1";
+import java.nio.ByteBuffer;
+
+/**
+ * The prefixes of SRS addresses, and the test for them.  An address is an SRS address if it starts with SRS0 or SRS1,
+ * in any case, followed by one of the separator characters.  The providers, and the servers and tools that only pass
+ * SRS addresses on to them, all use this one test.
+ */
+public final class SRSPrefix {
+  public static final String SRS0 = "SRS0";
+
+  public static final String SRS1 = "SRS1";
+
+  /**
+   * Characters that can follow the prefix.
+   */
+  public static final String SEPARATORS = "-+=";
+
+  private SRSPrefix() {}
+
+  /**
+   * Find out which SRS prefix, if any, the address in the given range starts with.
+   * @param source characters containing the address
+   * @param start start index of the address, inclusive
+   * @param end end index of the address, exclusive
+   * @return {@link #SRS0}, {@link #SRS1}, or null if the address is not an SRS address
+   */
+  public static String of(CharSequence source, int start, int end) {
+    if (end - start <= SRS0.length()) return null;
+
+    return match(
+      source.charAt(start),
+      source.charAt(start + 1),
+      source.charAt(start + 2),
+      source.charAt(start + 3),
+      source.charAt(start + 4)
+    );
+  }
+
+  /**
+   * Find out which SRS prefix, if any, the ASCII address in the given range of a buffer starts with.  The buffer's
+   * position and limit are not used or changed.
+   * @param buffer bytes containing the address
+   * @param start absolute index of the start of the address, inclusive
+   * @param end absolute index of the end of the address, exclusive
+   * @return {@link #SRS0}, {@link #SRS1}, or null if the address is not an SRS address
+   */
+  public static String of(ByteBuffer buffer, int start, int end) {
+    if (end - start <= SRS0.length()) return null;
+
+    return match(buffer.get(start), buffer.get(start + 1), buffer.get(start + 2), buffer.get(start + 3), buffer.get(start + 4));
+  }
+
+  private static String match(int s, int r, int s2, int digit, int separator) {
+    if ((s | 0x20) != 's' || (r | 0x20) != 'r' || (s2 | 0x20) != 's' || SEPARATORS.indexOf(separator) == -1) return null;
+
+    switch (digit) {
+      case '0':
+        return SRS0;
+      case '1':
+        return SRS1;
+      default:
+        return null;
+    }
+  }
 }
@@ -1,7 +1,10 @@
 package io.github.mschout.email.srs.provider;
 
 import io.github.mschout.email.srs.SRSAddress;
+import io.github.mschout.email.srs.SRSAddressView;
 import java.security.InvalidKeyException;
+import java.util.Collections;
+import java.util.List;
 
 public interface SRSProvider {
   boolean isSRS0(String address);
@@ -10,9 +13,68 @@ public interface SRSProvider {
 
   String compile(String host, String user) throws InvalidKeyException;
 
+  /**
+   * Compile the SRS address for the given host and user, appending it to a caller owned buffer.
+   * The default implementation appends the result of {@link #compile(String, String)}.
+   * @param host the sender host
+   * @param user the sender user
+   * @param out the buffer to append the address to
+   * @throws InvalidKeyException If the secret is missing or invalid.
+   */
+  default void compile(CharSequence host, CharSequence user, StringBuilder out) throws InvalidKeyException {
+    out.append(compile(host.toString(), user.toString()));
+  }
+
   SRSAddress parse(String srsAddress);
 
+  /**
+   * Parse an SRS address into a caller owned view, without copying the address fields.
+   * @param srsAddress the address to parse
+   * @param into the view to fill
+   */
+  default void parse(CharSequence srsAddress, SRSAddressView into) {
+    parse(srsAddress, 0, srsAddress.length(), into);
+  }
+
+  /**
+   * Parse the SRS address in the given range into a caller owned view, without copying the address fields.
+   * The default implementation parses a copy of the address with {@link #parse(String)}.
+   * @param source characters containing the address to parse
+   * @param start start index of the address, inclusive
+   * @param end end index of the address, exclusive
+   * @param into the view to fill
+   */
+  default void parse(CharSequence source, int start, int end, SRSAddressView into) {
+    SRSAddress address = parse(source.subSequence(start, end).toString());
+
+    String fields = address.getHash() + address.getHost() + address.getUser();
+    int hostStart = address.getHash().length();
+    int userStart = hostStart + address.getHost().length();
+
+    into.reset(fields, address.getPrefix()).hash(0, hostStart).host(hostStart, userStart).user(null, userStart, fields.length());
+  }
+
+  /**
+   * Split the SRS address in the given range into a caller owned view, without checking its hash or timestamp.
+   * This is only for reading addresses that can no longer be verified, such as expired addresses in old logs, and must
+   * never be used to decide where to deliver mail.  The default implementation verifies the address anyway.
+   * @param source characters containing the address to parse
+   * @param start start index of the address, inclusive
+   * @param end end index of the address, exclusive
+   * @param into the view to fill
+   */
+  default void parseUnverified(CharSequence source, int start, int end, SRSAddressView into) {
+    parse(source, start, end, into);
+  }
+
   String getSecret();
 
+  /**
+   * @return all of the secrets used to verify hashes, starting with the one used to create them
+   */
+  default List<String> getSecrets() {
+    return Collections.singletonList(getSecret());
+  }
+
   String getSeparator();
 }
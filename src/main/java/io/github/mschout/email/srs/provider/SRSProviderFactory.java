@@ -1,12 +1,18 @@
 package io.github.mschout.email.srs.provider;
 
 import io.github.mschout.email.srs.SRS;
+import io.github.mschout.email.srs.metrics.SRSMetrics;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
+import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 
 @Builder
-@AllArgsConstructor
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
 public class SRSProviderFactory {
   @Builder.Default
   private final Integer maxAge = 49;
@@ -20,16 +26,139 @@ public class SRSProviderFactory {
   @Builder.Default
   private final String separator = "=";
 
+  @Builder.Default
+  private final SRSMetrics metrics = SRSMetrics.NONE;
+
+  /**
+   * Clock used to generate and check timestamps.
+   */
+  @Builder.Default
+  private final Clock clock = Clock.systemUTC();
+
+  /**
+   * Keyed hash function for new addresses.
+   */
+  @Builder.Default
+  private final SRSHashAlgorithm hashAlgorithm = SRSHashAlgorithm.HMAC_SHA1;
+
+  /**
+   * Other hash functions that are still accepted when verifying, e.g. {@link SRSHashAlgorithm#HMAC_SHA1} while moving
+   * to another algorithm.
+   */
+  @Builder.Default
+  private final List<SRSHashAlgorithm> acceptedHashAlgorithms = Collections.emptyList();
+
+  /**
+   * Number of parsed addresses to cache.  0, the default, disables the cache.
+   */
+  @Builder.Default
+  private final Integer parseCacheSize = 0;
+
+  /**
+   * Number of compiled addresses to remember for the current day.  0, the default, disables the cache.
+   */
+  @Builder.Default
+  private final Integer forwardCacheSize = 0;
+
+  /**
+   * Number of forged addresses to remember for each half of the forgery filter's time to live.  0, the default,
+   * disables the filter.  See {@link ForgeryFilter}.
+   */
+  @Builder.Default
+  private final Integer forgeryFilterSize = 0;
+
+  /**
+   * Chance that the forgery filter rejects a genuine address.
+   */
+  @Builder.Default
+  private final Double forgeryFilterFalsePositiveRate = 1e-6;
+
+  /**
+   * Longest time that the forgery filter remembers a forged address.
+   */
+  @Builder.Default
+  private final Duration forgeryFilterTtl = Duration.ofMinutes(10);
+
+  public SRSProviderFactory(Integer maxAge, Integer hashMinLength, Integer hashLength, String separator) {
+    this(builder().maxAge(maxAge).hashMinLength(hashMinLength).hashLength(hashLength).separator(separator).build());
+  }
+
+  /**
+   * Create a factory with the same settings as another.
+   * @param settings the factory to copy
+   */
+  protected SRSProviderFactory(SRSProviderFactory settings) {
+    this.maxAge = settings.maxAge;
+    this.hashMinLength = settings.hashMinLength;
+    this.hashLength = settings.hashLength;
+    this.separator = settings.separator;
+    this.metrics = settings.metrics;
+    this.clock = settings.clock;
+    this.hashAlgorithm = settings.hashAlgorithm;
+    this.acceptedHashAlgorithms = settings.acceptedHashAlgorithms;
+    this.parseCacheSize = settings.parseCacheSize;
+    this.forwardCacheSize = settings.forwardCacheSize;
+    this.forgeryFilterSize = settings.forgeryFilterSize;
+    this.forgeryFilterFalsePositiveRate = settings.forgeryFilterFalsePositiveRate;
+    this.forgeryFilterTtl = settings.forgeryFilterTtl;
+  }
+
   public SRSProvider createProvider(SRS.Type type, List<String> secrets) {
+    return createProvider(type, new SRSKeyRing(secrets));
+  }
+
+  /**
+   * Create a provider whose secrets can be rotated while it is in use.
+   * @param type the type of provider
+   * @param keyRing the secrets, which may be shared with other providers
+   * @return the provider
+   */
+  public SRSProvider createProvider(SRS.Type type, SRSKeyRing keyRing) {
+    SRSProvider provider = createBaseProvider(type, keyRing);
+
+    if (parseCacheSize > 0 || forwardCacheSize > 0) provider = new CachingSRSProvider(provider, parseCacheSize, forwardCacheSize);
+
+    return provider;
+  }
+
+  /**
+   * Create a provider that keeps senders in a store instead of hashing them into the address.  It has no secrets, and
+   * only the separator setting applies to it.  Its lookups are as fast as the caches, so it is never cached.
+   * @param store the store for the senders
+   * @return the provider
+   */
+  public SRSProvider createDatabaseProvider(SRSStore store) {
+    return DatabaseSRSProvider.builder().store(Objects.requireNonNull(store, "store")).separator(separator).build();
+  }
+
+  private SRSProvider createBaseProvider(SRS.Type type, SRSKeyRing keyRing) {
     switch (type) {
       case GUARDED:
-        return new GuardedSRSProvider(secrets, hashLength, hashMinLength, separator);
+        return configure(GuardedSRSProvider.builder(), keyRing).build();
       case REVERSIBLE:
-        return new ReversibleSRSProvider(secrets, hashLength, hashMinLength, separator);
+        return configure(ReversibleSRSProvider.builder(), keyRing).build();
       case SHORTCUT:
-        return new ShortCutSRSProvider(secrets, hashLength, hashMinLength, separator);
+        return configure(ShortCutSRSProvider.builder(), keyRing).build();
       default:
         throw new IllegalArgumentException("Unknown SRS Provider Type: " + type.name());
     }
   }
+
+  private <B extends ShortCutSRSProvider.ShortCutSRSProviderBuilder<?, ?>> B configure(B builder, SRSKeyRing keyRing) {
+    builder
+      .keyRing(keyRing)
+      .hashLength(hashLength)
+      .hashMinLength(hashMinLength)
+      .separator(separator)
+      .maxAge(maxAge)
+      .clock(clock)
+      .forgeryFilter(
+        forgeryFilterSize > 0 ? new ForgeryFilter(forgeryFilterSize, forgeryFilterFalsePositiveRate, forgeryFilterTtl, clock) : null
+      )
+      .hashAlgorithm(hashAlgorithm)
+      .acceptedHashAlgorithms(acceptedHashAlgorithms)
+      .metrics(metrics);
+
+    return builder;
+  }
 }
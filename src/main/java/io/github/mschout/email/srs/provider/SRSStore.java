@@ -0,0 +1,674 @@
+package io.github.mschout.email.srs.provider;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.CRC32;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * An embedded store of original sender addresses for {@link DatabaseSRSProvider}, kept in memory mapped files.
+ * <p>
+ * Entries are appended to segment files in the store's directory and never changed.  When a segment fills up it is
+ * flushed to disk and a new one is started, so the segments hold entries in the order they were made.  Every entry
+ * lives for the same time, so compaction never copies anything: once the newest entry in a segment has expired, the
+ * whole segment is deleted.
+ * <p>
+ * The index from key to entry is an open addressing table on the heap, at 8 bytes per slot and at most 70% full.  When
+ * it fills up, or compaction has left it with more removed slots than live ones, a new table is started and the old
+ * one is kept behind it: lookups search both, and every write moves a few more slots of the old table across until it
+ * is empty.  No write waits for the whole index to be copied, at the cost of lookups probing two tables for a while.
+ * <p>
+ * The index is rebuilt from the segments when the store is opened, which is also how the store recovers from a crash:
+ * every entry has a checksum, and each segment ends at the first entry that is incomplete or damaged.  A crash of the
+ * JVM loses nothing, as the written pages belong to the operating system.  A crash of the machine loses whatever was
+ * written to the current segment since the last {@link #flush()}.
+ * <p>
+ * Lookups take no locks.  They read the index and the segments through volatile references that are replaced, never
+ * changed, when segments are added or dropped.  Writes are serialized on the store, as they all append to the one
+ * current segment, so one store takes new entries no faster than one thread can write them.
+ */
+public final class SRSStore implements Closeable {
+  // Entry layout: length, key, created millis, host and user lengths, host and user in UTF-8, then a CRC32 of
+  // everything between the length and the checksum
+  private static final int HEADER_SIZE = 4 + 8 + 8 + 2 + 2;
+
+  private static final int CHECKSUM_SIZE = 4;
+
+  private static final int MAX_FIELD_LENGTH = 0xffff;
+
+  private static final int MIN_SEGMENT_SIZE = 4096;
+
+  private static final String SUFFIX = ".srs";
+
+  // Index slots hold the segment id in the high half and the offset of the entry in the low half.  Segment ids start
+  // at 1, so a location is never 0.
+  private static final long EMPTY = 0;
+
+  private static final long REMOVED = -1;
+
+  private static final int MIN_INDEX_SIZE = 1024;
+
+  private static final int MAX_INDEX_SIZE = 1 << 30;
+
+  // Least number of slots of an old index that each insert moves to the new one
+  private static final int MIGRATION_STEP = 16;
+
+  /**
+   * @return the directory holding the segment files
+   */
+  @Getter
+  private final Path directory;
+
+  /**
+   * @return how long entries live
+   */
+  @Getter
+  private final Duration ttl;
+
+  /**
+   * @return the size of each segment file, in bytes
+   */
+  @Getter
+  private final int segmentSize;
+
+  private final Clock clock;
+
+  private final SecureRandom random = new SecureRandom();
+
+  private volatile Index index = new Index(MIN_INDEX_SIZE, null);
+
+  private volatile Segments segments = new Segments(1, new Segment[0]);
+
+  private volatile boolean closed;
+
+  // Writer state, guarded by this
+
+  private Segment current;
+
+  private ByteBuffer writer;
+
+  private final CRC32 crc = new CRC32();
+
+  /**
+   * Open a store, creating its directory if needed, and recover the entries already in it.
+   * @param directory directory holding the segment files.  Nothing else should use it.
+   * @param ttl how long entries live.  Defaults to 21 days, the longest that hashed addresses are valid for.
+   * @param segmentSize size of each segment file, in bytes.  Defaults to 64MB.
+   * @param clock clock that entries are timed with.  Defaults to the system clock.
+   * @throws IOException If the segment files can not be read or created.
+   */
+  @Builder(buildMethodName = "open")
+  private SRSStore(Path directory, Duration ttl, Integer segmentSize, Clock clock) throws IOException {
+    if (directory == null) throw new IllegalArgumentException("A store needs a directory");
+
+    this.directory = directory;
+    this.ttl = ttl != null ? ttl : Duration.ofDays(SRSTimestamp.DEFAULT_MAX_AGE);
+    this.segmentSize = segmentSize != null ? segmentSize : 64 << 20;
+    this.clock = clock != null ? clock : Clock.systemUTC();
+
+    if (this.ttl.isNegative() || this.ttl.isZero()) throw new IllegalArgumentException("ttl must be positive, not " + this.ttl);
+    if (this.segmentSize < MIN_SEGMENT_SIZE) throw new IllegalArgumentException(
+      "segmentSize must be at least " + MIN_SEGMENT_SIZE + ", not " + this.segmentSize
+    );
+
+    Files.createDirectories(directory);
+
+    recover();
+    compact();
+  }
+
+  /**
+   * Store an address.
+   * @param host the sender host
+   * @param user the sender user
+   * @return a new, random key for the address
+   * @throws IOException If a new segment file can not be created.
+   * @throws IllegalArgumentException If the host or user is longer than 65535 bytes in UTF-8.
+   */
+  public synchronized long put(CharSequence host, CharSequence user) throws IOException {
+    if (closed) throw new IllegalStateException("Store is closed");
+
+    byte[] hostBytes = host.toString().getBytes(StandardCharsets.UTF_8);
+    byte[] userBytes = user.toString().getBytes(StandardCharsets.UTF_8);
+
+    if (hostBytes.length > MAX_FIELD_LENGTH || userBytes.length > MAX_FIELD_LENGTH) {
+      throw new IllegalArgumentException("Address is too long to store");
+    }
+
+    int length = HEADER_SIZE + hostBytes.length + userBytes.length + CHECKSUM_SIZE;
+
+    if (length > segmentSize) throw new IllegalArgumentException("Address is too long for the segment size");
+
+    if (current.end + length > current.buffer.capacity()) roll();
+
+    long key = newKey();
+    long created = clock.millis();
+    int offset = current.end;
+
+    writer.position(offset);
+    writer
+      .putInt(length)
+      .putLong(key)
+      .putLong(created)
+      .putShort((short) hostBytes.length)
+      .putShort((short) userBytes.length)
+      .put(hostBytes)
+      .put(userBytes)
+      .putInt(checksum(current.buffer, offset, length));
+
+    current.end += length;
+    current.newest = Math.max(current.newest, created);
+
+    // publishing the location makes the entry visible to lookups, so it has to come last
+    insert(key, location(current.id, offset));
+
+    return key;
+  }
+
+  /**
+   * Look up an address.  Expired entries are returned until compaction removes them, see {@link #isExpired(Entry)}.
+   * @param key the key returned by {@link #put(CharSequence, CharSequence)}
+   * @return the entry, or null if there is no entry for the key
+   */
+  public Entry get(long key) {
+    if (closed) throw new IllegalStateException("Store is closed");
+
+    Index index = this.index;
+    // read before searching the new index, so that an entry moved out of the previous one is not missed
+    Index previous = index.previous;
+    Entry entry = find(index, key);
+
+    return entry == null && previous != null ? find(previous, key) : entry;
+  }
+
+  /**
+   * @param entry an entry from this store
+   * @return true if the entry is older than the time to live
+   */
+  public boolean isExpired(Entry entry) {
+    return clock.millis() - entry.created >= ttl.toMillis();
+  }
+
+  /**
+   * @return the number of entries, including expired entries that have not been compacted yet
+   */
+  public synchronized int size() {
+    return live();
+  }
+
+  /**
+   * Delete the segments whose entries have all expired.  This is done whenever a new segment is started, so it only
+   * needs to be called by applications that want expired entries gone from disk sooner.  The segment being written
+   * to is never deleted.
+   * @return the number of entries removed
+   */
+  public synchronized int compact() {
+    long cutoff = clock.millis() - ttl.toMillis();
+    Segment[] all = segments.segments;
+    int expired = 0;
+
+    while (expired < all.length - 1 && all[expired].newest <= cutoff) expired++;
+
+    if (expired == 0) return 0;
+
+    int removed = 0;
+
+    for (int s = 0; s < expired; s++) {
+      Segment segment = all[s];
+
+      for (int offset = 0; offset < segment.end; offset += segment.buffer.getInt(offset)) {
+        if (remove(segment.key(offset), location(segment.id, offset))) removed++;
+      }
+    }
+
+    segments = new Segments(all[expired].id, Arrays.copyOfRange(all, expired, all.length));
+
+    for (int s = 0; s < expired; s++) {
+      try {
+        Files.deleteIfExists(all[s].path);
+      } catch (IOException e) {
+        // Some platforms will not delete a mapped file.  It is dropped again the next time the store is opened.
+      }
+    }
+
+    // while an index is still being moved, removed slots wait for the next compaction
+    if (index.previous == null && index.removed > index.live) rebuildIndex(index.live);
+
+    return removed;
+  }
+
+  /**
+   * Write the entries in the current segment to disk.
+   */
+  public synchronized void flush() {
+    if (current != null) current.buffer.force();
+  }
+
+  /**
+   * Flush the store and stop using it.  The mapped files are released when they are garbage collected.
+   */
+  @Override
+  public synchronized void close() {
+    if (closed) return;
+
+    flush();
+    closed = true;
+  }
+
+  // Map the existing segments and index their entries, or start the first segment in an empty directory
+  private void recover() throws IOException {
+    List<Integer> ids = new ArrayList<>();
+
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+      for (Path file : files) {
+        String name = file.getFileName().toString();
+
+        try {
+          ids.add(Integer.parseInt(name.substring(0, name.length() - SUFFIX.length())));
+        } catch (NumberFormatException e) {
+          // not one of ours
+        }
+      }
+    }
+
+    Collections.sort(ids);
+
+    for (int i = 0; i < ids.size(); i++) {
+      boolean last = i == ids.size() - 1;
+      Segment segment = map(ids.get(i), last);
+
+      segments = segments.plus(segment);
+      recover(segment);
+
+      if (last) current = segment;
+    }
+
+    if (current == null) {
+      current = map(1, true);
+      segments = segments.plus(current);
+    }
+
+    writer = current.buffer.duplicate();
+  }
+
+  // Index the entries in a segment, up to the first one that is incomplete or damaged.  New entries are written over
+  // whatever follows, so nothing after it is ever read again.
+  private void recover(Segment segment) {
+    ByteBuffer buffer = segment.buffer;
+    int offset = 0;
+
+    while (buffer.capacity() - offset >= HEADER_SIZE + CHECKSUM_SIZE) {
+      int length = buffer.getInt(offset);
+
+      if (length < HEADER_SIZE + CHECKSUM_SIZE || length > buffer.capacity() - offset) break;
+
+      int fields = (buffer.getShort(offset + 20) & 0xffff) + (buffer.getShort(offset + 22) & 0xffff);
+
+      if (HEADER_SIZE + fields + CHECKSUM_SIZE != length) break;
+      if (checksum(buffer, offset, length) != buffer.getInt(offset + length - CHECKSUM_SIZE)) break;
+
+      insert(segment.key(offset), location(segment.id, offset));
+      segment.newest = Math.max(segment.newest, buffer.getLong(offset + 12));
+      offset += length;
+    }
+
+    segment.end = offset;
+  }
+
+  // Seal the current segment and start writing to a new one
+  private void roll() throws IOException {
+    current.buffer.force();
+
+    Segment next = map(current.id + 1, true);
+
+    segments = segments.plus(next);
+    current = next;
+    writer = next.buffer.duplicate();
+
+    compact();
+  }
+
+  // Map a segment file.  The segment being written to is mapped at full size, which creates or extends its file.
+  private Segment map(int id, boolean writable) throws IOException {
+    Path path = directory.resolve(String.format("%010d%s", id, SUFFIX));
+
+    if (writable) {
+      try (
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)
+      ) {
+        return new Segment(id, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(channel.size(), segmentSize)));
+      }
+    }
+
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return new Segment(id, path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  private int checksum(ByteBuffer buffer, int offset, int length) {
+    ByteBuffer entry = buffer.duplicate();
+
+    entry.limit(offset + length - CHECKSUM_SIZE);
+    entry.position(offset + 4);
+
+    crc.reset();
+    crc.update(entry);
+
+    return (int) crc.getValue();
+  }
+
+  private long newKey() {
+    long key;
+
+    do {
+      key = random.nextLong();
+    } while (find(index, key) != null || (index.previous != null && find(index.previous, key) != null));
+
+    return key;
+  }
+
+  private Entry find(Index index, long key) {
+    for (int i = index.home(key), probes = 0; probes <= index.mask; i = (i + 1) & index.mask, probes++) {
+      long location = index.slots.get(i);
+
+      if (location == EMPTY) return null;
+      if (location == REMOVED) continue;
+
+      // read after the slot, so that the segment the slot points to has been published
+      Segment segment = segments.get(segmentId(location));
+
+      if (segment != null && segment.key(offset(location)) == key) return segment.read(offset(location));
+    }
+
+    return null;
+  }
+
+  // Live entries in the index, counting those not yet moved out of the previous one
+  private int live() {
+    Index previous = index.previous;
+
+    return index.live + (previous != null ? previous.live : 0);
+  }
+
+  // Removed slots are not reused, as a lookup that passed over one may still be probing
+  private void insert(long key, long location) {
+    migrate(index.step);
+
+    Index previous = index.previous;
+    long used = index.live + index.removed + (previous != null ? previous.live : 0) + 1;
+
+    if (used * 10 > (long) index.slots.length() * 7) rebuildIndex(live() + 1);
+
+    index.add(key, location);
+  }
+
+  // Mark the slots holding an entry as removed, in the previous index too.  Returns true if the entry was live.
+  private boolean remove(long key, long location) {
+    boolean removed = false;
+    int slot = index.slotOf(key, location);
+
+    if (slot != -1) {
+      index.slots.set(slot, REMOVED);
+      index.live--;
+      index.removed++;
+      removed = true;
+    }
+
+    Index previous = index.previous;
+    int old = previous != null ? previous.slotOf(key, location) : -1;
+
+    if (old != -1) {
+      previous.slots.set(old, REMOVED);
+
+      // slots before the cursor have been moved, and were counted in the new index
+      if (old >= index.moved) {
+        previous.live--;
+        removed = true;
+      }
+    }
+
+    return removed;
+  }
+
+  // Publish a new index at most half full with the given number of entries, with the current one behind it.  The
+  // live slots are moved across by later inserts, enough on each that the move is done before the new index fills up.
+  private void rebuildIndex(int entries) {
+    // only reached while moving if the new index filled up early, so that the old one has to go in one step
+    migrate(Integer.MAX_VALUE);
+
+    long wanted = Math.max(MIN_INDEX_SIZE, 2L * entries);
+
+    if (wanted > MAX_INDEX_SIZE) throw new IllegalStateException("Too many entries in the store");
+
+    Index old = index;
+    Index rebuilt = new Index(Long.highestOneBit(wanted - 1) << 1, old);
+    long room = rebuilt.slots.length() * 7L / 10 - entries;
+
+    rebuilt.step = (int) Math.max(MIGRATION_STEP, (old.slots.length() + room - 1) / room);
+    index = rebuilt;
+  }
+
+  // Move up to count slots of the previous index into the current one, and drop the previous index once it is empty
+  private void migrate(int count) {
+    Index previous = index.previous;
+
+    if (previous == null) return;
+
+    int end = (int) Math.min(previous.slots.length(), (long) index.moved + count);
+
+    for (; index.moved < end; index.moved++) {
+      long location = previous.slots.get(index.moved);
+
+      if (location == EMPTY || location == REMOVED) continue;
+
+      index.add(segments.get(segmentId(location)).key(offset(location)), location);
+      previous.live--;
+    }
+
+    if (index.moved == previous.slots.length()) index.previous = null;
+  }
+
+  private static long location(int segmentId, int offset) {
+    return (long) segmentId << 32 | offset;
+  }
+
+  private static int segmentId(long location) {
+    return (int) (location >>> 32);
+  }
+
+  private static int offset(long location) {
+    return (int) location;
+  }
+
+  /**
+   * A stored address.
+   */
+  public static final class Entry {
+    /**
+     * @return the key of the entry
+     */
+    @Getter
+    private final long key;
+
+    private final long created;
+
+    // Host followed by user, so that a parsed address view can use it as its source
+    private final String fields;
+
+    private final int hostEnd;
+
+    Entry(long key, long created, String fields, int hostEnd) {
+      this.key = key;
+      this.created = created;
+      this.fields = fields;
+      this.hostEnd = hostEnd;
+    }
+
+    /**
+     * @return when the entry was stored
+     */
+    public Instant getCreated() {
+      return Instant.ofEpochMilli(created);
+    }
+
+    public String getHost() {
+      return fields.substring(0, hostEnd);
+    }
+
+    public String getUser() {
+      return fields.substring(hostEnd);
+    }
+
+    String fields() {
+      return fields;
+    }
+
+    int hostEnd() {
+      return hostEnd;
+    }
+  }
+
+  private static final class Index {
+    private final AtomicLongArray slots;
+
+    private final int mask;
+
+    // The index this one replaced, until all of its live slots have been moved here
+    private volatile Index previous;
+
+    // Counts, only used by writers.  Once this index has replaced another, the other's live count is the number of
+    // its entries that have not been moved yet.
+    private int live;
+
+    private int removed;
+
+    // Writer state for moving the previous index: the next slot to move, and how many to move on each insert
+    private int moved;
+
+    private int step;
+
+    Index(long size, Index previous) {
+      this.slots = new AtomicLongArray((int) size);
+      this.mask = (int) size - 1;
+      this.previous = previous;
+    }
+
+    // Keys are random, so their low bits are as good a hash as any
+    int home(long key) {
+      return (int) key & mask;
+    }
+
+    void add(long key, long location) {
+      int i = home(key);
+
+      while (slots.get(i) != EMPTY) i = (i + 1) & mask;
+
+      slots.set(i, location);
+      live++;
+    }
+
+    // Slot holding the location, or -1 if it is not in this index
+    int slotOf(long key, long location) {
+      for (int i = home(key), probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+        long slot = slots.get(i);
+
+        if (slot == EMPTY) return -1;
+        if (slot == location) return i;
+      }
+
+      return -1;
+    }
+  }
+
+  private static final class Segments {
+    private final int first;
+
+    private final Segment[] segments;
+
+    Segments(int first, Segment[] segments) {
+      this.first = first;
+      this.segments = segments;
+    }
+
+    Segment get(int id) {
+      int i = id - first;
+
+      return i >= 0 && i < segments.length ? segments[i] : null;
+    }
+
+    Segments plus(Segment segment) {
+      Segment[] added = Arrays.copyOf(segments, segments.length + 1);
+      added[segments.length] = segment;
+
+      return new Segments(segments.length == 0 ? segment.id : first, added);
+    }
+  }
+
+  private static final class Segment {
+    private final int id;
+
+    private final Path path;
+
+    private final MappedByteBuffer buffer;
+
+    // Writer state: where the next entry goes, and when the newest entry was made
+    private int end;
+
+    private long newest = Long.MIN_VALUE;
+
+    Segment(int id, Path path, MappedByteBuffer buffer) {
+      this.id = id;
+      this.path = path;
+      this.buffer = buffer;
+    }
+
+    long key(int offset) {
+      return buffer.getLong(offset + 4);
+    }
+
+    // Absolute reads only, as the buffer is shared by every reader
+    Entry read(int offset) {
+      int hostLength = buffer.getShort(offset + 20) & 0xffff;
+      int userLength = buffer.getShort(offset + 22) & 0xffff;
+      byte[] bytes = new byte[hostLength + userLength];
+      boolean ascii = true;
+
+      for (int i = 0; i < bytes.length; i++) {
+        bytes[i] = buffer.get(offset + HEADER_SIZE + i);
+        ascii &= bytes[i] >= 0;
+      }
+
+      String fields;
+      int hostEnd;
+
+      if (ascii) {
+        fields = new String(bytes, StandardCharsets.ISO_8859_1);
+        hostEnd = hostLength;
+      } else {
+        String host = new String(bytes, 0, hostLength, StandardCharsets.UTF_8);
+        fields = host + new String(bytes, hostLength, userLength, StandardCharsets.UTF_8);
+        hostEnd = host.length();
+      }
+
+      return new Entry(key(offset), buffer.getLong(offset + 12), fields, hostEnd);
+    }
+  }
+}
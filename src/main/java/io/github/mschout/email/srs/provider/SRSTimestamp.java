@@ -1,21 +1,86 @@
 package io.github.mschout.email.srs.provider;
 
-import java.time.Instant;
-import lombok.AccessLevel;
-import lombok.RequiredArgsConstructor;
-
-@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+import io.github.mschout.email.srs.InvalidSRSAddressException;
+import io.github.mschout.email.srs.SRSFailure;
+import java.time.Clock;
+import java.util.Arrays;
+import lombok.Getter;
+
+/**
+ * SRS timestamp generation and validation.
+ * An instance is a timestamp engine for one clock and max age.  It caches the current day's timestamp along with a
+ * table of which of the timestamp slots are valid on that day, and only recomputes them when the day rolls over, so
+ * generating or checking a timestamp is a clock read and an array lookup.
+ */
 class SRSTimestamp {
   // Ported from reference implemenation.  Best not to change any of this unless you *really* know what you are doing
   private static final int TIMESTAMP_PRECISION = 60 * 60 * 24;
   private static final int TIMESTAMP_BASE_BITS = 5;
   private static final String TIMESTAMP_BASE_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567";
-  private static final int TIMESTAMP_SIZE = 2;
+  static final int TIMESTAMP_SIZE = 2;
   private static final int TIMESTAMP_SLOTS = (1 << (TIMESTAMP_BASE_BITS << (TIMESTAMP_SIZE - 1)));
-  private static final int DEFAULT_MAX_AGE = 21;
+  static final int DEFAULT_MAX_AGE = 21;
+
+  private static final long DAY_MILLIS = TIMESTAMP_PRECISION * 1000L;
+
+  // The encoded string for each timestamp slot, so that generating a timestamp does not allocate
+  private static final String[] SLOT_STRINGS = new String[TIMESTAMP_SLOTS];
+
+  // Value of each timestamp character, either case, or -1 if it is not a timestamp character
+  private static final int[] CHAR_VALUES = new int[128];
+
+  static {
+    for (int slot = 0; slot < TIMESTAMP_SLOTS; slot++) {
+      char[] buf = new char[TIMESTAMP_SIZE];
+
+      buf[1] = TIMESTAMP_BASE_CHARS.charAt(slot & ((1 << TIMESTAMP_BASE_BITS) - 1));
+      buf[0] = TIMESTAMP_BASE_CHARS.charAt((slot >> TIMESTAMP_BASE_BITS) & ((1 << TIMESTAMP_BASE_BITS) - 1));
+
+      SLOT_STRINGS[slot] = new String(buf);
+    }
+
+    Arrays.fill(CHAR_VALUES, -1);
+
+    for (int i = 0; i < TIMESTAMP_BASE_CHARS.length(); i++) {
+      char c = TIMESTAMP_BASE_CHARS.charAt(i);
+
+      CHAR_VALUES[c] = i;
+      CHAR_VALUES[Character.toLowerCase(c)] = i;
+    }
+  }
+
+  @Getter
+  private Clock clock = Clock.systemUTC();
+
+  @Getter
+  private int maxAge = DEFAULT_MAX_AGE;
 
-  private final String timestamp;
-  private final int maxAge;
+  private volatile Day today;
+
+  /**
+   * Create a timestamp engine using the system clock and the default max age.
+   */
+  SRSTimestamp() {}
+
+  /**
+   * Create a timestamp engine.
+   * @param clock the clock to take the current time from
+   * @param maxAge number of days old that a timestamp can be and still be valid
+   */
+  SRSTimestamp(Clock clock, int maxAge) {
+    configure(clock, maxAge);
+  }
+
+  /**
+   * Set the clock and max age.  Only to be called while the owner of this engine is being constructed.
+   * @param clock the clock to take the current time from
+   * @param maxAge number of days old that a timestamp can be and still be valid
+   */
+  void configure(Clock clock, int maxAge) {
+    this.clock = clock;
+    this.maxAge = maxAge;
+    this.today = null;
+  }
 
   /**
    * Returns true if the given timestmap is invalud, using default max age of the timestamp.
@@ -29,11 +94,11 @@ class SRSTimestamp {
   /**
    * Returns true if the timstamp is invalid.
    * @param timestamp two char timestamp string
-   * @param maxAge number of seconds old that the timestamp could have been generated
+   * @param maxAge number of days old that the timestamp could have been generated
    * @return true if the timestamp is invalid, false otherwise
    */
   public static boolean isInvalid(String timestamp, int maxAge) {
-    return new SRSTimestamp(timestamp, maxAge).isInvalid();
+    return age(timestamp, Math.floorDiv(System.currentTimeMillis(), DAY_MILLIS)) > maxAge;
   }
 
   /**
@@ -54,38 +119,116 @@ class SRSTimestamp {
 
     now = now / TIMESTAMP_PRECISION;
 
-    char[] buf = new char[2];
+    return SLOT_STRINGS[(int) (now & (TIMESTAMP_SLOTS - 1))];
+  }
+
+  /**
+   * Returns the timestamp string for the current day.  The same string instance is returned all day.
+   * @return two character string representing the current timestamp
+   */
+  String current() {
+    return today().timestamp;
+  }
+
+  /**
+   * Returns true if the timestamp is too old, or in the future.
+   * @param timestamp the timestamp
+   * @return true if the timestamp is not valid today
+   */
+  boolean isInvalidNow(CharSequence timestamp) {
+    return isInvalidNow(timestamp, 0, timestamp.length());
+  }
+
+  /**
+   * Returns true if the timestamp in the given range is too old, or in the future.
+   * @param source characters containing the timestamp
+   * @param start start index of the timestamp, inclusive
+   * @param end end index of the timestamp, exclusive
+   * @return true if the timestamp is not valid today
+   */
+  boolean isInvalidNow(CharSequence source, int start, int end) {
+    Day day = today();
 
-    buf[1] = TIMESTAMP_BASE_CHARS.charAt((int) (now & ((1 << TIMESTAMP_BASE_BITS) - 1)));
-    now = now >> TIMESTAMP_BASE_BITS;
-    buf[0] = TIMESTAMP_BASE_CHARS.charAt((int) (now & ((1 << TIMESTAMP_BASE_BITS) - 1)));
+    if (end - start != TIMESTAMP_SIZE) return age(source.subSequence(start, end), day.number) > maxAge;
 
-    return new String(buf);
+    return !day.valid[(charValue(source.charAt(start)) << TIMESTAMP_BASE_BITS) | charValue(source.charAt(start + 1))];
   }
 
   /**
-   * Returns true if the timestamp string is too old to be considered valid.
-   * @return true if the timestamp is too old to be valid, false otherwise.
+   * Returns the time at which the given timestamp stops being valid.
+   * @param timestamp the timestamp
+   * @return the time in milliseconds at which the timestamp becomes invalid.  If the timestamp is already invalid,
+   *         this is at or before the current time.
    */
-  public boolean isInvalid() {
-    long then = 0L;
+  long expiresAt(CharSequence timestamp) {
+    Day day = today();
+
+    long age = age(timestamp, day.number);
 
-    for (char c : timestamp.toCharArray()) {
-      int charPos = TIMESTAMP_BASE_CHARS.indexOf(Character.toUpperCase(c));
+    if (age > maxAge) return day.start;
+
+    // valid until the end of the last day within maxAge
+    return day.start + (maxAge - age + 1) * DAY_MILLIS;
+  }
 
-      if (charPos == -1) throw new IllegalArgumentException("Bad timestamp character: " + c);
+  private Day today() {
+    Day day = today;
+    long now = clock.millis();
 
-      then = (then << TIMESTAMP_BASE_BITS) | charPos;
+    if (day == null || now >= day.start + DAY_MILLIS || now < day.start) {
+      day = new Day(Math.floorDiv(now, DAY_MILLIS), maxAge);
+      today = day;
     }
 
-    long now = Instant.now().toEpochMilli() / 1000;
+    return day;
+  }
+
+  // Age of the timestamp in days, on the given day.
+  private static long age(CharSequence timestamp, long today) {
+    long then = 0L;
+
+    for (int i = 0; i < timestamp.length(); i++) {
+      then = (then << TIMESTAMP_BASE_BITS) | charValue(timestamp.charAt(i));
+    }
 
-    now = (now / TIMESTAMP_PRECISION) % TIMESTAMP_SLOTS;
+    long now = today % TIMESTAMP_SLOTS;
 
     while (now < then) {
       now = now + TIMESTAMP_SLOTS;
     }
 
-    return (now > then + maxAge);
+    return now - then;
+  }
+
+  private static int charValue(char c) {
+    int value = c < CHAR_VALUES.length ? CHAR_VALUES[c] : -1;
+
+    if (value == -1) throw new InvalidSRSAddressException(SRSFailure.MALFORMED, "Bad timestamp character: " + c);
+
+    return value;
+  }
+
+  // Everything about timestamps that only changes once a day
+  private static class Day {
+    private final long number;
+
+    private final long start;
+
+    private final String timestamp;
+
+    // valid[slot] is true if a timestamp for the given slot is valid on this day
+    private final boolean[] valid = new boolean[TIMESTAMP_SLOTS];
+
+    Day(long number, int maxAge) {
+      this.number = number;
+      this.start = number * DAY_MILLIS;
+
+      int slot = (int) (number & (TIMESTAMP_SLOTS - 1));
+      this.timestamp = SLOT_STRINGS[slot];
+
+      for (int then = 0; then < TIMESTAMP_SLOTS; then++) {
+        valid[then] = ((slot - then) & (TIMESTAMP_SLOTS - 1)) <= maxAge;
+      }
+    }
   }
 }
@@ -0,0 +1,197 @@
+package io.github.mschout.email.srs.provider;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.InvalidKeyException;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import lombok.Getter;
+
+/**
+ * Keeps a {@link SRSKeyRing} in step with a secrets file.
+ * <p>
+ * The file has one secret per line, primary first.  Blank lines and lines starting with # are ignored.  The directory
+ * holding the file is watched from a background thread, and the key ring is rotated whenever the file changes.  Write
+ * the new file next to the old one and rename it into place, so that a half written file is never read.  A file that
+ * can not be read, has no secrets, or has a secret that can not be used as a key is ignored, and the key ring keeps
+ * the secrets it has.  Such failures are kept in {@link #getLastFailure()}, and passed to the failure listener if
+ * there is one, so that daemons can report that they are still using the old secrets.
+ */
+public class SecretsFileWatcher implements Closeable {
+  /**
+   * @return the key ring kept in step with the file
+   */
+  @Getter
+  private final SRSKeyRing keyRing;
+
+  private final Path file;
+
+  private final WatchService watcher;
+
+  private final Thread thread;
+
+  // Told about each change to the file that could not be loaded, or null
+  private final Consumer<Exception> onFailure;
+
+  /**
+   * @return why the last change to the file was not loaded, or null if it was
+   */
+  @Getter
+  private volatile Exception lastFailure;
+
+  /**
+   * Load the secrets file into the key ring, and start watching it.
+   * @param keyRing the key ring to rotate
+   * @param file the secrets file
+   * @throws IOException If the file can not be read, or its directory can not be watched.
+   * @throws InvalidKeyException If one of the secrets can not be used as a key.
+   */
+  public SecretsFileWatcher(SRSKeyRing keyRing, Path file) throws IOException, InvalidKeyException {
+    this(keyRing, file, null);
+  }
+
+  /**
+   * Load the secrets file into the key ring, and start watching it.
+   * @param keyRing the key ring to rotate
+   * @param file the secrets file
+   * @param onFailure called from the watching thread with the reason each change to the file was not loaded
+   * @throws IOException If the file can not be read, or its directory can not be watched.
+   * @throws InvalidKeyException If one of the secrets can not be used as a key.
+   */
+  public SecretsFileWatcher(SRSKeyRing keyRing, Path file, Consumer<Exception> onFailure) throws IOException, InvalidKeyException {
+    this(keyRing, onFailure, file.toAbsolutePath());
+
+    try {
+      reload();
+    } catch (IOException | InvalidKeyException | RuntimeException e) {
+      close();
+      throw e;
+    }
+  }
+
+  /**
+   * Create a key ring from the secrets file, and start watching it.  The file is only read once to start with.
+   * @param file the secrets file
+   * @param onFailure called from the watching thread with the reason each change to the file was not loaded
+   * @throws IOException If the file can not be read, has no secrets in it, or its directory can not be watched.
+   * @throws InvalidKeyException If one of the secrets can not be used as a key.
+   */
+  public SecretsFileWatcher(Path file, Consumer<Exception> onFailure) throws IOException, InvalidKeyException {
+    this(loadKeyRing(file), onFailure, file.toAbsolutePath());
+  }
+
+  // Start watching, without loading the file
+  private SecretsFileWatcher(SRSKeyRing keyRing, Consumer<Exception> onFailure, Path file) throws IOException {
+    this.keyRing = keyRing;
+    this.file = file;
+    this.onFailure = onFailure;
+
+    // files are usually replaced by renaming a new one over them, which shows up as a create in the directory
+    Path directory = this.file.getParent();
+    this.watcher = directory.getFileSystem().newWatchService();
+    directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+    this.thread = new Thread(this::watch, "srs-secrets-watcher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  // A key ring with the secrets in the file, checked as a rotation would check them
+  private static SRSKeyRing loadKeyRing(Path file) throws IOException, InvalidKeyException {
+    SRSKeyRing keyRing = new SRSKeyRing(readSecrets(file));
+
+    SRSKeyRing.checkKeys(keyRing.current());
+
+    return keyRing;
+  }
+
+  /**
+   * Read the secrets from a file.
+   * @param file the secrets file
+   * @return the secrets, primary first
+   * @throws IOException If the file can not be read, or has no secrets in it.
+   */
+  public static List<String> readSecrets(Path file) throws IOException {
+    List<String> secrets = Files
+      .readAllLines(file, StandardCharsets.UTF_8)
+      .stream()
+      .map(String::trim)
+      .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+      .collect(Collectors.toList());
+
+    if (secrets.isEmpty()) throw new IOException("No secrets in " + file);
+
+    return secrets;
+  }
+
+  /**
+   * Load the secrets file into the key ring now.
+   * @return true if the secrets changed
+   * @throws IOException If the file can not be read, or has no secrets in it.
+   * @throws InvalidKeyException If one of the secrets can not be used as a key.
+   */
+  public boolean reload() throws IOException, InvalidKeyException {
+    List<String> secrets = readSecrets(file);
+
+    if (secrets.equals(keyRing.getSecrets())) return false;
+
+    keyRing.rotate(secrets);
+
+    return true;
+  }
+
+  /**
+   * Stop watching the file.
+   * @throws IOException If the watch service can not be closed.
+   */
+  @Override
+  public void close() throws IOException {
+    watcher.close();
+
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void watch() {
+    try {
+      while (true) {
+        WatchKey key = watcher.take();
+        boolean changed = false;
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+          // an overflow means events were lost, which may have included ours
+          changed |= event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context());
+        }
+
+        key.reset();
+
+        if (changed) {
+          try {
+            reload();
+            lastFailure = null;
+          } catch (IOException | InvalidKeyException | RuntimeException e) {
+            lastFailure = e;
+
+            if (onFailure != null) onFailure.accept(e);
+          }
+        }
+      }
+    } catch (ClosedWatchServiceException e) {
+      // closed
+    } catch (InterruptedException e) {
+      // nothing else owns this thread, so being interrupted means stop
+    }
+  }
+}
@@ -1,26 +1,25 @@
 package io.github.mschout.email.srs.provider;
 
-import com.google.common.base.Splitter;
-import com.google.common.collect.ImmutableList;
+import io.github.mschout.email.srs.InvalidSRSAddressException;
 import io.github.mschout.email.srs.SRSAddress;
+import io.github.mschout.email.srs.SRSAddressView;
+import io.github.mschout.email.srs.SRSFailure;
+import io.github.mschout.email.srs.metrics.SRSMetrics;
 import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
 import java.util.*;
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 import lombok.Getter;
 import lombok.experimental.SuperBuilder;
 
 @SuperBuilder
 public class ShortCutSRSProvider implements SRSProvider {
   /**
-   * @param The list of secrets for encoding addresses and verfiying hashes.  If the list size is > 1, the first value
-   *            will be the one used when creating hashes, but when verifying hashes, all of the values will be tried.
-   *            This way you can rotate secrets and allow time for the old hashes to expire.
-   * @return The list of secrets.
+   * @param Secrets for encoding addresses and verifying hashes, which can be rotated while the provider is in use.
+   *            Defaults to a key ring holding the {@link ShortCutSRSProviderBuilder#secrets(List) secrets}.
+   * @return The key ring.
    */
   @Getter
-  private final List<String> secrets;
+  private final SRSKeyRing keyRing;
 
   private final Integer hashLength;
 
@@ -29,9 +28,59 @@ public class ShortCutSRSProvider implements SRSProvider {
   @Getter
   protected final String separator;
 
+  /**
+   * @param Listener that is told which secret verified each hash.  Defaults to {@link SRSMetrics#NONE}.
+   * @return The metrics listener.
+   */
+  @Getter
+  private final SRSMetrics metrics;
+
+  /**
+   * @param Number of days old that a timestamp can be and still be valid.  Defaults to 21.
+   * @return The max age.
+   */
+  @Getter
+  private final Integer maxAge;
+
+  /**
+   * @param Clock that timestamps are generated and checked against.  Defaults to the system clock.
+   * @return The clock.
+   */
+  @Getter
+  private final Clock clock;
+
+  /**
+   * @param Keyed hash function used to make and verify hashes.  Defaults to {@link SRSHashAlgorithm#HMAC_SHA1}.
+   * @return The hash algorithm.
+   */
+  @Getter
+  private final SRSHashAlgorithm hashAlgorithm;
+
+  /**
+   * @param Other hash functions whose hashes are still accepted, while moving from one algorithm to another.  Hashes
+   *            made with the {@link #getHashAlgorithm() hash algorithm} are tried first.  Defaults to none.
+   * @return The other accepted hash algorithms.
+   */
+  @Getter
+  private final List<SRSHashAlgorithm> acceptedHashAlgorithms;
+
+  /**
+   * @param Filter of recently forged addresses, which are rejected without checking their hash again.  Defaults to
+   *            none.  Each provider needs its own filter.
+   * @return The forgery filter, or null.
+   */
+  @Getter
+  private final ForgeryFilter forgeryFilter;
+
   protected final String SRSSEP = "=";
 
-  protected final String separators = "-+=";
+  protected final String separators = SRSPrefix.SEPARATORS;
+
+  // Timestamp engine for the clock and max age, set up by the constructor
+  private final SRSTimestamp timestamps = new SRSTimestamp();
+
+  // Every algorithm that verifies hashes, the one that makes them first
+  private final List<SRSHashAlgorithm> verifyAlgorithms = new ArrayList<>();
 
   /**
    * Create a new shortcut SRS provider.
@@ -42,76 +91,201 @@ public class ShortCutSRSProvider implements SRSProvider {
    * @param separator The initial separator character
    */
   public ShortCutSRSProvider(List<String> secrets, int hashLength, int hashMinLength, String separator) {
-    if (!separators.contains(separator)) throw new IllegalArgumentException("Initial separator must be = - or +, not " + separator);
+    this(builder().secrets(secrets).hashLength(hashLength).hashMinLength(hashMinLength).separator(separator));
+  }
+
+  protected ShortCutSRSProvider(ShortCutSRSProviderBuilder<?, ?> builder) {
+    if (!separators.contains(builder.separator)) throw new IllegalArgumentException(
+      "Initial separator must be = - or +, not " + builder.separator
+    );
+
+    this.keyRing = builder.keyRing != null ? builder.keyRing : new SRSKeyRing(builder.secrets);
+    this.hashLength = builder.hashLength;
+    this.hashMinLength = builder.hashMinLength;
+    this.separator = builder.separator;
+    this.metrics = builder.metrics != null ? builder.metrics : SRSMetrics.NONE;
+    this.maxAge = builder.maxAge != null ? builder.maxAge : SRSTimestamp.DEFAULT_MAX_AGE;
+    this.clock = builder.clock != null ? builder.clock : Clock.systemUTC();
+    this.forgeryFilter = builder.forgeryFilter;
+    this.hashAlgorithm = builder.hashAlgorithm != null ? builder.hashAlgorithm : SRSHashAlgorithm.HMAC_SHA1;
+    this.acceptedHashAlgorithms = builder.acceptedHashAlgorithms != null
+      ? Collections.unmodifiableList(new ArrayList<>(builder.acceptedHashAlgorithms))
+      : Collections.emptyList();
+
+    if (hashLength != null && hashLength > hashAlgorithm.maxHashLength()) {
+      throw new IllegalArgumentException("Hash length " + hashLength + " is longer than " + hashAlgorithm + " hashes can be");
+    }
+
+    verifyAlgorithms.add(hashAlgorithm);
 
-    this.secrets = secrets;
-    this.hashLength = hashLength;
-    this.hashMinLength = hashMinLength;
-    this.separator = separator;
+    for (SRSHashAlgorithm algorithm : acceptedHashAlgorithms) {
+      if (!verifyAlgorithms.contains(algorithm)) verifyAlgorithms.add(algorithm);
+    }
+
+    timestamps.configure(clock, maxAge);
   }
 
+  /**
+   * Hash address fields with the primary secret.
+   * @param value the hashed fields in address order: the timestamp if there is one, then the host and the user
+   * @return the hash
+   * @throws InvalidKeyException If the primary secret can not be used as a key.
+   */
   protected String createHash(List<String> value) throws InvalidKeyException {
-    return createHash(value, getSecret());
-  }
+    SRSHash hash = updateFields(SRSHash.begin(keyRing.current().primary(), hashAlgorithm), value);
 
-  private String createHash(List<String> value, String secret) throws InvalidKeyException {
-    final String algorithm = "HmacSHA1";
+    StringBuilder buf = new StringBuilder(hashLength);
+    hash.appendTo(buf, hashLength);
 
-    try {
-      SecretKeySpec secretKeySpec = new SecretKeySpec(secret.getBytes(), algorithm);
-      Mac mac = Mac.getInstance(algorithm);
-      mac.init(secretKeySpec);
+    return buf.toString();
+  }
 
-      String data = String.join("", value).toLowerCase();
+  // The host is the field before the user, and is hashed in its normalized form as it is by compile and parse
+  private static SRSHash updateFields(SRSHash hash, List<? extends CharSequence> fields) {
+    int host = fields.size() - 2;
 
-      return Base64.getEncoder().encodeToString(mac.doFinal(data.getBytes())).substring(0, hashLength);
-    } catch (NoSuchAlgorithmException e) {
-      // Really should never happen since we hard coded HmacSHA1
-      throw new RuntimeException(e);
+    for (int i = 0; i < fields.size(); i++) {
+      if (i == host) hash.updateHost(fields.get(i)); else hash.update(fields.get(i));
     }
+
+    return hash;
+  }
+
+  // Start a hash with the primary secret.  The caller feeds it the hashed fields and appends it to the address.
+  SRSHash primaryHash() throws InvalidKeyException {
+    return SRSHash.begin(keyRing.current().primary(), hashAlgorithm);
+  }
+
+  // Hash length used in generated addresses
+  int hashLength() {
+    return hashLength;
   }
 
   protected boolean isHashInvalid(List<String> value, String hash) {
-    if (hash.length() < hashMinLength) return false;
+    return isHashInvalid(hash, value.toArray(new CharSequence[0]));
+  }
 
-    List<String> validHashes = new ArrayList<>();
+  /**
+   * Check a hash against the given values using all of the secrets.  Hashes are compared case insensitively.
+   * @param hash the hash to check
+   * @param values the hashed fields in address order: the timestamp if there is one, then the host and the user
+   * @return true if the hash does not match any of the secrets
+   */
+  protected boolean isHashInvalid(CharSequence hash, CharSequence... values) {
+    if (hash.length() < hashMinLength) return false;
 
-    for (String secret : secrets) {
-      try {
-        String candidate = createHash(value, secret);
+    SRSKeySet keys = keyRing.current();
+    int candidates = keys.size() * verifyAlgorithms.size();
+    int first = firstCandidate(keys, candidates);
+    SRSHash message = updateFields(SRSHash.begin(), Arrays.asList(values));
 
-        // If we got an exact match, bail out, the hash is valid.
-        if (candidate.equals(hash)) return false;
+    for (int attempt = 0; attempt < candidates; attempt++) {
+      int c = SRSKeySet.candidate(first, attempt);
+      int i = c % keys.size();
 
-        validHashes.add(candidate);
+      try {
+        if (message.key(keys.get(i), verifyAlgorithms.get(c / keys.size())).matches(hash, hashLength)) {
+          keys.matched(c);
+          metrics.secretMatched(i);
+          return false;
+        }
       } catch (InvalidKeyException e) {
         // invalid key = hash is invalid
         return true;
       }
     }
 
-    // if we did not match any of the hashes exactly, try case-insensitive matching
-    for (String candidate : validHashes) {
-      if (candidate.equalsIgnoreCase(hash)) return false;
+    // nothing matched, its not valid
+    return true;
+  }
+
+  /**
+   * Check the hash in a parsed address against all of the secrets.  The hashed values are the timestamp, host and
+   * user fields of the view, without the user tag.  Hashes are compared case insensitively.
+   * @param address the parsed address
+   * @return true if the hash does not match any of the secrets
+   */
+  protected boolean isHashInvalid(SRSAddressView address) {
+    CharSequence source = address.getSource();
+
+    if (address.getHashEnd() - address.getHashStart() < hashMinLength) return false;
+
+    SRSKeySet keys = keyRing.current();
+    int candidates = keys.size() * verifyAlgorithms.size();
+    int first = firstCandidate(keys, candidates);
+    // the message is the same for every candidate, only the key changes
+    SRSHash message = SRSHash
+      .begin()
+      .update(source, address.getTimestampStart(), address.getTimestampEnd())
+      .updateHost(source, address.getHostStart(), address.getHostEnd())
+      .update(source, address.getUserStart(), address.getUserEnd());
+
+    for (int attempt = 0; attempt < candidates; attempt++) {
+      int c = SRSKeySet.candidate(first, attempt);
+      int i = c % keys.size();
+
+      try {
+        SRSHash candidate = message.key(keys.get(i), verifyAlgorithms.get(c / keys.size()));
+
+        if (candidate.matches(source, address.getHashStart(), address.getHashEnd(), hashLength)) {
+          keys.matched(c);
+          metrics.secretMatched(i);
+          return false;
+        }
+      } catch (InvalidKeyException e) {
+        // invalid key = hash is invalid
+        return true;
+      }
     }
 
     // nothing matched, its not valid
     return true;
   }
 
+  // The candidate to verify with first.  Candidates are the keys with each verifying algorithm in turn.  Providers
+  // sharing a key ring may have fewer algorithms than the one that set the hint.
+  private static int firstCandidate(SRSKeySet keys, int candidates) {
+    int hint = keys.hint();
+
+    return hint < candidates ? hint : 0;
+  }
+
+  // Upper bound on the size of the address compiled for the given host and user: tag, hash, timestamp, host and user
+  protected int compiledLength(CharSequence host, CharSequence user) {
+    return SRSPrefix.SRS0.length() + 1 + hashLength + 1 + SRSTimestamp.TIMESTAMP_SIZE + 1 + host.length() + 1 + user.length();
+  }
+
   protected boolean isSepChar(char ch) {
     return separators.indexOf(ch) != -1;
   }
 
   public boolean isSRS0(String address) {
-    String prefix = SRSPrefix.SRS0;
-
-    return (address.toUpperCase().startsWith(prefix) && isSepChar(address.charAt(prefix.length())));
+    return srsPrefix(address, 0, address.length()) == SRSPrefix.SRS0;
   }
 
   public boolean isSRS1(String address) {
-    String prefix = SRSPrefix.SRS1;
-    return (address.toUpperCase().startsWith(prefix) && isSepChar(address.charAt(prefix.length())));
+    return srsPrefix(address, 0, address.length()) == SRSPrefix.SRS1;
+  }
+
+  /**
+   * Find out which SRS prefix, if any, the address in the given range starts with.  The prefix is matched case
+   * insensitively, and must be followed by a separator character.
+   * @param source characters containing the address
+   * @param start start index of the address, inclusive
+   * @param end end index of the address, exclusive
+   * @return {@link SRSPrefix#SRS0}, {@link SRSPrefix#SRS1}, or null if the address is not an SRS address
+   */
+  protected String srsPrefix(CharSequence source, int start, int end) {
+    return SRSPrefix.of(source, start, end);
+  }
+
+  // Index of the first ch in source between from and end, or -1 if there isn't one
+  protected static int indexOf(CharSequence source, char ch, int from, int end) {
+    for (int i = from; i < end; i++) {
+      if (source.charAt(i) == ch) return i;
+    }
+
+    return -1;
   }
 
   // Remove the SRS prefix tag plus the separator char that follows it.
@@ -126,70 +300,190 @@ public class ShortCutSRSProvider implements SRSProvider {
     }
   }
 
+  // Timestamp engine used by this provider
+  SRSTimestamp timestamps() {
+    return timestamps;
+  }
+
   @Override
   public String compile(String host, String user) throws InvalidKeyException {
-    String timestamp = SRSTimestamp.generate();
+    StringBuilder address = new StringBuilder(compiledLength(host, user));
 
-    List<String> hashData = new ArrayList<>(3);
-    hashData.add(timestamp);
+    compile(host, user, address);
 
-    if (isSRS0(user)) {
-      // This dulplicates effort in GuardedSRSProvider but makes this file work standalone
-      user = removePrefix(user);
+    return address.toString();
+  }
+
+  @Override
+  public void compile(CharSequence host, CharSequence user, StringBuilder out) throws InvalidKeyException {
+    String timestamp = timestamps.current();
+    String prefix = srsPrefix(user, 0, user.length());
 
-      List<String> addressIter = Splitter.on(SRSSEP).limit(4).splitToList(user);
+    CharSequence hostSource = host;
+    int hostStart = 0;
+    int hostEnd = host.length();
+    int userStart = 0;
+    int userEnd = user.length();
 
-      host = addressIter.get(2);
-      user = addressIter.get(3);
-    } else if (isSRS1(user)) {
+    if (prefix == SRSPrefix.SRS0) {
+      // This dulplicates effort in GuardedSRSProvider but makes this file work standalone
+      // hash, timestamp, host, user
+      int hashEnd = indexOf(user, '=', SRSPrefix.SRS0.length() + 1, userEnd);
+      int timestampEnd = hashEnd == -1 ? -1 : indexOf(user, '=', hashEnd + 1, userEnd);
+      hostEnd = timestampEnd == -1 ? -1 : indexOf(user, '=', timestampEnd + 1, userEnd);
+
+      if (hostEnd == -1) throw new InvalidSRSAddressException(
+        SRSFailure.MALFORMED,
+        "Invalid SRS0 Address: " + user.subSequence(SRSPrefix.SRS0.length() + 1, userEnd)
+      );
+
+      hostSource = user;
+      hostStart = timestampEnd + 1;
+      userStart = hostEnd + 1;
+    } else if (prefix == SRSPrefix.SRS1) {
       // This should never be hit in practice.  It would be bad.
       // Introduce compatibility with the guarded format?
       // tag, SRSHOST, hash, timestamp, host, user
-      List<String> addressIter = Splitter.on(SRSSEP).limit(6).splitToList(user);
-      host = addressIter.get(3);
-      user = addressIter.get(4);
-    }
+      int field = 0;
+      int sep = -1;
+
+      while (field < 3 && (sep = indexOf(user, '=', sep + 1, userEnd)) != -1) field++;
+
+      hostEnd = sep == -1 ? -1 : indexOf(user, '=', sep + 1, userEnd);
+
+      if (hostEnd == -1) throw new InvalidSRSAddressException(SRSFailure.MALFORMED, "Invalid SRS1 Address: " + user);
 
-    hashData.add(host);
-    hashData.add(user);
+      int extra = indexOf(user, '=', hostEnd + 1, userEnd);
 
-    String hash = createHash(hashData);
+      hostSource = user;
+      hostStart = sep + 1;
+      userStart = hostEnd + 1;
+      userEnd = extra == -1 ? userEnd : extra;
+    }
 
-    return SRSPrefix.SRS0 + getSeparator() + String.join(SRSSEP, hash, timestamp, host, user);
+    out.append(SRSPrefix.SRS0).append(getSeparator());
+    primaryHash().update(timestamp).updateHost(hostSource, hostStart, hostEnd).update(user, userStart, userEnd).appendTo(out, hashLength);
+    out
+      .append(SRSSEP)
+      .append(timestamp)
+      .append(SRSSEP)
+      .append(hostSource, hostStart, hostEnd)
+      .append(SRSSEP)
+      .append(user, userStart, userEnd);
   }
 
   @Override
   public SRSAddress parse(String srsAddress) {
-    if (!isSRS0(srsAddress)) throw new IllegalArgumentException(
-      String.format("Reverse address %s does not start with %s=", srsAddress, SRSPrefix.SRS0)
-    );
+    SRSAddressView address = new SRSAddressView();
 
-    String address = removePrefix(srsAddress);
+    parse(srsAddress, 0, srsAddress.length(), address);
+
+    return address.toSRSAddress();
+  }
+
+  @Override
+  public void parse(CharSequence source, int start, int end, SRSAddressView into) {
+    if (forgeryFilter == null) {
+      parseUnverified(source, start, end, into);
+      verify(into);
+      return;
+    }
+
+    // rejections only hold for the secrets they were checked against
+    SRSKeySet keys = keyRing.current();
+
+    if (forgeryFilter.mightContain(keys, source, start, end)) throw new RecentlyForgedException();
+
+    parseUnverified(source, start, end, into);
 
     try {
-      // The 4 here matches the number of fields we encoded above. If
-      // there are more separators, then they belong in senduser anyway.
-      Iterator<String> addressIter = Splitter.on(SRSSEP).limit(4).split(address).iterator();
+      verify(into);
+    } catch (InvalidSRSAddressException e) {
+      if (e.getFailure() == SRSFailure.INVALID_HASH) forgeryFilter.add(keys, source, start, end);
+      throw e;
+    }
+  }
 
-      String hash = addressIter.next();
-      String timestamp = addressIter.next();
-      String host = addressIter.next();
-      String user = addressIter.next();
+  @Override
+  public void parseUnverified(CharSequence source, int start, int end, SRSAddressView into) {
+    if (srsPrefix(source, start, end) != SRSPrefix.SRS0) throw new InvalidSRSAddressException(
+      SRSFailure.MALFORMED,
+      String.format("Reverse address %s does not start with %s=", source.subSequence(start, end), SRSPrefix.SRS0)
+    );
 
-      if (isHashInvalid(ImmutableList.of(timestamp, host, user), hash)) {
-        throw new IllegalArgumentException("Invalid address hash: " + hash);
-      }
+    // hash, timestamp, host, user.  If there are more separators, then they belong in the user anyway.
+    int hashStart = start + SRSPrefix.SRS0.length() + 1;
+    int hashEnd = indexOf(source, '=', hashStart, end);
+    int timestampEnd = hashEnd == -1 ? -1 : indexOf(source, '=', hashEnd + 1, end);
+    int hostEnd = timestampEnd == -1 ? -1 : indexOf(source, '=', timestampEnd + 1, end);
+
+    if (hostEnd == -1) throw new InvalidSRSAddressException(SRSFailure.MALFORMED, "Invalid SRS Address: " + source.subSequence(start, end));
 
-      if (SRSTimestamp.isInvalid(timestamp)) throw new IllegalArgumentException("Invalid timestamp");
+    into
+      .reset(source, SRSPrefix.SRS0)
+      .hash(hashStart, hashEnd)
+      .timestamp(hashEnd + 1, timestampEnd)
+      .host(timestampEnd + 1, hostEnd)
+      .user(null, hostEnd + 1, end);
+  }
 
-      return new SRSAddress(SRSPrefix.SRS0, host, user, hash);
-    } catch (NoSuchElementException e) {
-      throw new IllegalArgumentException("Invalid SRS Address: " + srsAddress);
+  /**
+   * Check the hash and timestamp of an address split by {@link #parseUnverified}.  The hash is checked first, so an
+   * {@link SRSFailure#EXPIRED} failure means that the hash was good.
+   * @param address the split address
+   * @throws InvalidSRSAddressException If the hash does not match or the timestamp has expired.
+   */
+  protected void verify(SRSAddressView address) {
+    if (isHashInvalid(address)) {
+      throw new InvalidSRSAddressException(SRSFailure.INVALID_HASH, "Invalid address hash: " + address.hash());
+    }
+
+    if (timestamps.isInvalidNow(address.getSource(), address.getTimestampStart(), address.getTimestampEnd())) {
+      throw new InvalidSRSAddressException(SRSFailure.EXPIRED, "Invalid timestamp");
     }
   }
 
   @Override
   public String getSecret() {
-    return secrets.get(0);
+    return keyRing.getSecret();
+  }
+
+  /**
+   * @return The current secrets, primary first.
+   */
+  @Override
+  public List<String> getSecrets() {
+    return keyRing.getSecrets();
+  }
+
+  // Thrown for addresses that the forgery filter has seen, which are common enough in a flood that the stack trace
+  // is not worth filling in
+  private static final class RecentlyForgedException extends InvalidSRSAddressException {
+    private static final long serialVersionUID = 1L;
+
+    RecentlyForgedException() {
+      super(SRSFailure.INVALID_HASH, "Invalid address hash: recently rejected");
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+      return this;
+    }
+  }
+
+  public abstract static class ShortCutSRSProviderBuilder<C extends ShortCutSRSProvider, B extends ShortCutSRSProviderBuilder<C, B>> {
+    private List<String> secrets;
+
+    /**
+     * @param secrets The list of secrets for encoding addresses and verifying hashes, used when no key ring is given.
+     *                If the list size is > 1, the first value will be the one used when creating hashes, but when
+     *                verifying hashes, all of the values will be tried.  This way you can rotate secrets and allow
+     *                time for the old hashes to expire.
+     * @return this builder
+     */
+    public B secrets(List<String> secrets) {
+      this.secrets = secrets;
+      return self();
+    }
   }
 }
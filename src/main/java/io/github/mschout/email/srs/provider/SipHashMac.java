@@ -0,0 +1,155 @@
+package io.github.mschout.email.srs.provider;
+
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.spec.AlgorithmParameterSpec;
+import javax.crypto.Mac;
+import javax.crypto.MacSpi;
+
+/**
+ * SipHash-2-4 as a {@link Mac}, so that it can be used anywhere an HMAC engine is.  The JRE does not provide SipHash,
+ * and it is small enough that registering a security provider for it is not worth it.
+ */
+final class SipHashMac extends Mac {
+  static final int KEY_SIZE = 16;
+
+  SipHashMac() {
+    super(new Spi(), null, "SipHash-2-4");
+  }
+
+  private static final class Spi extends MacSpi implements Cloneable {
+    private long k0;
+
+    private long k1;
+
+    private long v0;
+
+    private long v1;
+
+    private long v2;
+
+    private long v3;
+
+    // Bytes of the current, incomplete block, little endian
+    private long block;
+
+    private int blockLength;
+
+    private long totalLength;
+
+    @Override
+    protected int engineGetMacLength() {
+      return 8;
+    }
+
+    @Override
+    protected void engineInit(Key key, AlgorithmParameterSpec params) throws InvalidKeyException, InvalidAlgorithmParameterException {
+      if (params != null) throw new InvalidAlgorithmParameterException("SipHash takes no parameters");
+
+      byte[] bytes = key.getEncoded();
+
+      if (bytes == null || bytes.length != KEY_SIZE) throw new InvalidKeyException("SipHash needs a 128 bit key");
+
+      k0 = littleEndian(bytes, 0);
+      k1 = littleEndian(bytes, 8);
+
+      engineReset();
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {
+      block |= (input & 0xffL) << (blockLength << 3);
+      totalLength++;
+
+      if (++blockLength == 8) {
+        compress(block);
+        block = 0;
+        blockLength = 0;
+      }
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int length) {
+      int end = offset + length;
+      int i = offset;
+
+      while (i < end && blockLength != 0) engineUpdate(input[i++]);
+
+      // whole blocks straight from the input
+      int blocksStart = i;
+      for (; i + 8 <= end; i += 8) compress(littleEndian(input, i));
+      totalLength += i - blocksStart;
+
+      while (i < end) engineUpdate(input[i++]);
+    }
+
+    @Override
+    protected byte[] engineDoFinal() {
+      compress(block | (totalLength << 56));
+
+      v2 ^= 0xff;
+      round();
+      round();
+      round();
+      round();
+
+      long hash = v0 ^ v1 ^ v2 ^ v3;
+      byte[] out = new byte[8];
+
+      for (int i = 0; i < 8; i++) out[i] = (byte) (hash >>> (i << 3));
+
+      engineReset();
+
+      return out;
+    }
+
+    @Override
+    protected void engineReset() {
+      v0 = k0 ^ 0x736f6d6570736575L;
+      v1 = k1 ^ 0x646f72616e646f6dL;
+      v2 = k0 ^ 0x6c7967656e657261L;
+      v3 = k1 ^ 0x7465646279746573L;
+      block = 0;
+      blockLength = 0;
+      totalLength = 0;
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+      return super.clone();
+    }
+
+    private void compress(long m) {
+      v3 ^= m;
+      round();
+      round();
+      v0 ^= m;
+    }
+
+    private void round() {
+      v0 += v1;
+      v1 = Long.rotateLeft(v1, 13);
+      v1 ^= v0;
+      v0 = Long.rotateLeft(v0, 32);
+      v2 += v3;
+      v3 = Long.rotateLeft(v3, 16);
+      v3 ^= v2;
+      v0 += v3;
+      v3 = Long.rotateLeft(v3, 21);
+      v3 ^= v0;
+      v2 += v1;
+      v1 = Long.rotateLeft(v1, 17);
+      v1 ^= v2;
+      v2 = Long.rotateLeft(v2, 32);
+    }
+
+    private static long littleEndian(byte[] bytes, int offset) {
+      long value = 0;
+
+      for (int i = 7; i >= 0; i--) value = (value << 8) | (bytes[offset + i] & 0xffL);
+
+      return value;
+    }
+  }
+}
@@ -0,0 +1,11 @@
+/**
+ * Email Sender Rewriting Scheme.  Only needs the JDK: java.management is for registering
+ * {@link io.github.mschout.email.srs.metrics.DefaultSRSMetrics} as an MBean.
+ */
+module io.github.mschout.email.srs {
+  requires java.management;
+
+  exports io.github.mschout.email.srs;
+  exports io.github.mschout.email.srs.metrics;
+  exports io.github.mschout.email.srs.provider;
+}
@@ -0,0 +1,39 @@
+package io.github.mschout.email.srs;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.common.collect.ImmutableList;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.jupiter.api.Test;
+
+class AsyncSRSTest {
+
+  @Test
+  void defaultExecutor() {
+    AsyncSRS async = new AsyncSRS(SRS.guardedSRS(ImmutableList.of("dummy-secret")));
+
+    String forward = async.forward("jdoe@example.com", "other.com").join();
+    assertTrue(forward.startsWith("SRS0="));
+
+    assertEquals("jdoe@example.com", async.reverse(forward).join());
+  }
+
+  @Test
+  void givenExecutor() {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    try {
+      AsyncSRS async = new AsyncSRS(SRS.guardedSRS(ImmutableList.of("dummy-secret")), executor);
+
+      String forward = async.forward("jdoe@example.com", "other.com").thenCompose(async::reverse).join();
+      assertEquals("jdoe@example.com", forward);
+
+      CompletionException exception = assertThrows(CompletionException.class, () -> async.reverse("no-at-sign").join());
+      assertInstanceOf(IllegalArgumentException.class, exception.getCause(), "Failures complete the future exceptionally");
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
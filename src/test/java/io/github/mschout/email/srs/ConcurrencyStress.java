@@ -0,0 +1,352 @@
+package io.github.mschout.email.srs;
+
+import io.github.mschout.email.srs.provider.DefaultSRSProviderFactory;
+import io.github.mschout.email.srs.provider.SRSKeyRing;
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Stress and scaling harness for SRS.  Worker threads forward addresses, and reverse both their own and each other's,
+ * while another thread keeps rotating the secrets.  Every reversal is checked against the address it was made from.
+ * <p>
+ * A reversal that gives a different address is always wrong.  A reversal that fails is only allowed once enough
+ * rotations have happened since the address was made for its secret to have been dropped.
+ * <p>
+ * {@link #main(String[])} prints throughput by thread count for each provider type, and is run by the stressTest
+ * Gradle task.  {@link ConcurrencyStressTest} runs it briefly as part of the tests.
+ */
+public final class ConcurrencyStress {
+  private static final String ALIAS = "alias@forwarder.example.net";
+
+  // Addresses shared between the workers, so that threads reverse addresses made on other threads
+  private static final int SHARED = 1024;
+
+  private final SRS.Type type;
+
+  private final int threads;
+
+  private final long durationMillis;
+
+  private final long rotateMillis;
+
+  private final int retained;
+
+  /**
+   * @param type provider type to test
+   * @param threads number of worker threads
+   * @param durationMillis how long to run for
+   * @param rotateMillis how often to rotate the secrets, or 0 not to
+   * @param retained number of secrets kept after each rotation, the new primary included
+   */
+  public ConcurrencyStress(SRS.Type type, int threads, long durationMillis, long rotateMillis, int retained) {
+    if (threads < 1) throw new IllegalArgumentException("threads must be at least 1, not " + threads);
+    if (retained < 2) throw new IllegalArgumentException("At least two secrets must be kept to rotate, not " + retained);
+
+    this.type = type;
+    this.threads = threads;
+    this.durationMillis = durationMillis;
+    this.rotateMillis = rotateMillis;
+    this.retained = retained;
+  }
+
+  /**
+   * What one run did.
+   */
+  public static final class Result {
+    private long operations;
+
+    private long wrong;
+
+    private long failed;
+
+    private long rotations;
+
+    private long elapsedNanos;
+
+    // The first few problems, for the report
+    private final List<String> problems = new ArrayList<>();
+
+    /** @return forwards and reverses done, by all the threads */
+    public long getOperations() {
+      return operations;
+    }
+
+    /** @return reversals that gave a different address than the one the SRS address was made from */
+    public long getWrong() {
+      return wrong;
+    }
+
+    /** @return forwards or reversals that failed while their secret was still in use */
+    public long getFailed() {
+      return failed;
+    }
+
+    public long getRotations() {
+      return rotations;
+    }
+
+    public double getOperationsPerSecond() {
+      return operations * 1e9 / elapsedNanos;
+    }
+
+    public List<String> getProblems() {
+      return Collections.unmodifiableList(problems);
+    }
+
+    private synchronized void add(Worker worker) {
+      operations += worker.operations;
+      wrong += worker.wrong;
+      failed += worker.failed;
+
+      for (String problem : worker.problems) if (problems.size() < 10) problems.add(problem);
+    }
+  }
+
+  /**
+   * Run the workers and the rotation for the configured time.
+   * @return what was done, and what went wrong
+   * @throws InterruptedException If interrupted while waiting for the workers.
+   * @throws InvalidKeyException If the secrets can not be used, which they always can.
+   */
+  public Result run() throws InterruptedException, InvalidKeyException {
+    SRSKeyRing ring = new SRSKeyRing(secrets(0));
+    SRS srs = new SRS(DefaultSRSProviderFactory.getInstance().createProvider(type, ring));
+    State state = new State();
+    Result result = new Result();
+    CountDownLatch start = new CountDownLatch(1);
+    List<Thread> workers = new ArrayList<>();
+
+    for (int t = 0; t < threads; t++) {
+      Worker worker = new Worker(t, srs, state);
+      Thread thread = new Thread(
+        () -> {
+          try {
+            start.await();
+            worker.run();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+
+          result.add(worker);
+        },
+        "srs-stress-" + t
+      );
+
+      thread.start();
+      workers.add(thread);
+    }
+
+    long began = System.nanoTime();
+    long deadline = began + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+
+    start.countDown();
+
+    while (System.nanoTime() < deadline) {
+      Thread.sleep(rotateMillis > 0 ? Math.min(rotateMillis, durationMillis) : durationMillis);
+
+      if (rotateMillis > 0 && System.nanoTime() < deadline) {
+        // the ring first, so that a worker that reads the generation never uses an older secret than it says
+        ring.rotate(secrets(state.generation + 1));
+        state.generation++;
+        result.rotations++;
+      }
+    }
+
+    state.stopped = true;
+
+    for (Thread thread : workers) thread.join();
+
+    result.elapsedNanos = System.nanoTime() - began;
+
+    return result;
+  }
+
+  // The secrets after the given number of rotations, newest first
+  private List<String> secrets(int generation) {
+    List<String> secrets = new ArrayList<>();
+
+    for (int g = generation; g > generation - retained && g >= 0; g--) secrets.add("stress-secret-" + g);
+
+    return secrets;
+  }
+
+  private static final class State {
+    private volatile int generation;
+
+    private volatile boolean stopped;
+
+    private final AtomicReferenceArray<Sample> shared = new AtomicReferenceArray<>(SHARED);
+  }
+
+  // An address and what it was forwarded to, made no earlier than the given generation of secrets
+  private static final class Sample {
+    private final String sender;
+
+    private final String forwarded;
+
+    private final int generation;
+
+    Sample(String sender, String forwarded, int generation) {
+      this.sender = sender;
+      this.forwarded = forwarded;
+      this.generation = generation;
+    }
+  }
+
+  private final class Worker {
+    private final int id;
+
+    private final SRS srs;
+
+    private final State state;
+
+    private long operations;
+
+    private long wrong;
+
+    private long failed;
+
+    private final List<String> problems = new ArrayList<>();
+
+    Worker(int id, SRS srs, State state) {
+      this.id = id;
+      this.srs = srs;
+      this.state = state;
+    }
+
+    void run() {
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+
+      for (long n = 0; !state.stopped; n++) {
+        int generation = state.generation;
+        String sender = "User" + id + "." + n + "@Example" + (n % 101) + ".com";
+        String forwarded;
+
+        try {
+          forwarded = srs.forward(sender, ALIAS);
+        } catch (Exception e) {
+          failed("forward " + sender, e);
+          continue;
+        }
+
+        Sample own = new Sample(sender, forwarded, generation);
+
+        state.shared.set(random.nextInt(SHARED), own);
+        check(own);
+
+        Sample other = state.shared.get(random.nextInt(SHARED));
+
+        if (other != null) check(other);
+
+        operations += other != null ? 3 : 2;
+      }
+    }
+
+    private void check(Sample sample) {
+      String reversed;
+
+      try {
+        reversed = srs.reverse(sample.forwarded);
+      } catch (Exception e) {
+        // the ring may be one rotation ahead of the generation, which is updated after it
+        if (state.generation + 1 - sample.generation < retained) failed("reverse " + sample.forwarded, e);
+
+        return;
+      }
+
+      if (!sample.sender.equals(reversed)) {
+        wrong++;
+        problem(sample.forwarded + " reversed to " + reversed + " instead of " + sample.sender);
+      }
+    }
+
+    private void failed(String operation, Exception e) {
+      failed++;
+      problem(operation + ": " + e);
+    }
+
+    private void problem(String problem) {
+      if (problems.size() < 10) problems.add(problem);
+    }
+  }
+
+  /**
+   * Print throughput by thread count.
+   * <pre>
+   * ConcurrencyStress [seconds [maxThreads [TYPE...]]]
+   * </pre>
+   * Each provider type is run with 1, 2, 4 and so on threads up to maxThreads, for the given number of seconds each,
+   * with the secrets rotated every 10ms.  The defaults are 5 seconds, one thread per processor, and the GUARDED,
+   * REVERSIBLE and SHORTCUT types.  Exits with status 1 if any reversal was wrong or failed.
+   * @param args command line arguments
+   * @throws Exception If the harness fails.
+   */
+  public static void main(String[] args) throws Exception {
+    int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+    int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+    List<SRS.Type> types = new ArrayList<>();
+
+    for (int i = 2; i < args.length; i++) types.add(SRS.Type.valueOf(args[i].toUpperCase()));
+
+    if (types.isEmpty()) Collections.addAll(types, SRS.Type.GUARDED, SRS.Type.REVERSIBLE, SRS.Type.SHORTCUT);
+
+    List<Integer> counts = new ArrayList<>();
+
+    for (int t = 1; t < maxThreads; t *= 2) counts.add(t);
+
+    counts.add(maxThreads);
+
+    System.out.printf(
+      "%d processors, %ds per run, secrets rotated every 10ms%n%n%-10s %7s %14s %8s %10s %7s %7s%n",
+      Runtime.getRuntime().availableProcessors(),
+      seconds,
+      "type",
+      "threads",
+      "ops/s",
+      "speedup",
+      "efficiency",
+      "wrong",
+      "failed"
+    );
+
+    boolean ok = true;
+
+    for (SRS.Type type : types) {
+      // unmeasured runs first, so that the single thread figure is not the one that pays for warming up
+      new ConcurrencyStress(type, 1, seconds * 1000L, 10, 4).run();
+      new ConcurrencyStress(type, maxThreads, seconds * 1000L, 10, 4).run();
+
+      double single = 0;
+
+      for (int threads : counts) {
+        Result result = new ConcurrencyStress(type, threads, seconds * 1000L, 10, 4).run();
+        double rate = result.getOperationsPerSecond();
+
+        if (threads == 1) single = rate;
+
+        System.out.printf(
+          "%-10s %7d %14.0f %7.2fx %9.0f%% %7d %7d%n",
+          type,
+          threads,
+          rate,
+          rate / single,
+          100 * rate / single / threads,
+          result.getWrong(),
+          result.getFailed()
+        );
+
+        for (String problem : result.getProblems()) System.out.println("  " + problem);
+
+        ok &= result.getWrong() == 0 && result.getFailed() == 0;
+      }
+    }
+
+    System.exit(ok ? 0 : 1);
+  }
+}
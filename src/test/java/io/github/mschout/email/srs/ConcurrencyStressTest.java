@@ -0,0 +1,21 @@
+package io.github.mschout.email.srs;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class ConcurrencyStressTest {
+
+  @Test
+  void concurrentRoundTripsWhileRotating() throws Exception {
+    for (SRS.Type type : new SRS.Type[] { SRS.Type.GUARDED, SRS.Type.REVERSIBLE, SRS.Type.SHORTCUT }) {
+      // rotating often, and keeping few secrets, so that rotations land in the middle of forwards and reverses
+      ConcurrencyStress.Result result = new ConcurrencyStress(type, 4, 500, 2, 3).run();
+
+      assertTrue(result.getOperations() > 1000, type + " made progress");
+      assertTrue(result.getRotations() > 10, type + " rotated");
+      assertEquals(0, result.getWrong(), type + " wrong reversals: " + result.getProblems());
+      assertEquals(0, result.getFailed(), type + " failures: " + result.getProblems());
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package io.github.mschout.email.srs;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.security.InvalidKeyException;
+import org.junit.jupiter.api.Test;
+
+class SRSRouterTest {
+  private final SRS srs = new SRS(SRS.Type.GUARDED, "router-secret");
+
+  @Test
+  void policyMatching() {
+    SRSPolicy.SRSPolicyBuilder builder = SRSPolicy
+      .builder()
+      .exclude("example.com")
+      .exclude(".Trusted.ORG")
+      .exclude("bücher.de")
+      .alias(".net", "srs@relay.net")
+      .alias("customer.net", "srs@customer-relay.net")
+      .alias(".eu.customer.net", "srs@eu-relay.net")
+      .defaultAlias("srs@relay.example");
+
+    // enough entries that the trie has wide nodes
+    for (int i = 0; i < 50000; i++) builder.exclude("domain" + i + ".example");
+
+    SRSPolicy policy = builder.build();
+
+    assertEquals(50003, policy.getExcludedCount());
+    assertTrue(policy.isExcluded("example.com"));
+    assertTrue(policy.isExcluded("EXAMPLE.Com."), "Case and a root dot are ignored");
+    assertFalse(policy.isExcluded("mail.example.com"), "An entry without a dot is only that domain");
+    assertFalse(policy.isExcluded("badexample.com"));
+    assertTrue(policy.isExcluded("mx.trusted.org"), "An entry with a dot is every subdomain");
+    assertFalse(policy.isExcluded("trusted.org"));
+    assertFalse(policy.isExcluded("untrusted.org"));
+    assertTrue(policy.isExcluded("BÜCHER.de"));
+    assertTrue(policy.isExcluded("xn--bcher-kva.de"), "Either form of an internationalized domain matches");
+    assertTrue(policy.isExcluded("domain49999.example"));
+    assertFalse(policy.isExcluded("domain50000.example"));
+    assertFalse(policy.isExcluded(""));
+    assertTrue(policy.isExcluded("jdoe@example.com", 5, 16), "Ranges of a longer sequence");
+
+    assertEquals("srs@customer-relay.net", policy.aliasFor("customer.net"));
+    assertEquals("srs@relay.net", policy.aliasFor("eu.customer.net"));
+    assertEquals("srs@eu-relay.net", policy.aliasFor("paris.eu.customer.net"), "The most specific entry wins");
+    assertEquals("srs@relay.net", policy.aliasFor("other.net"));
+    assertEquals("srs@relay.example", policy.aliasFor("example.org"));
+    assertNull(SRSPolicy.builder().build().aliasFor("example.org"));
+
+    assertThrows(IllegalArgumentException.class, () -> SRSPolicy.builder().exclude(".").build());
+  }
+
+  @Test
+  void routing() throws InvalidKeyException {
+    SRSRouter router = new SRSRouter(
+      srs,
+      SRSPolicy.builder().exclude(".trusted.org").alias("customer.net", "srs@customer-relay.net").defaultAlias("srs@relay.example").build()
+    );
+
+    assertEquals("jdoe@mx.trusted.org", router.forward("jdoe@mx.trusted.org", "someone@customer.net"));
+
+    String forwarded = router.forward("jdoe@example.com", "someone@customer.net");
+
+    assertTrue(forwarded.endsWith("@customer-relay.net"), forwarded);
+    assertEquals("jdoe@example.com", router.reverse(forwarded));
+    assertTrue(router.forward("jdoe@example.com", "someone@elsewhere.org").endsWith("@relay.example"));
+
+    SRSPolicy old = router.getPolicy();
+
+    router.setPolicy(SRSPolicy.builder().exclude("example.com").build());
+
+    assertEquals("jdoe@example.com", router.forward("jdoe@example.com", "someone@customer.net"));
+    assertEquals("jdoe@mx.trusted.org", router.forward("jdoe@mx.trusted.org", "someone@elsewhere.org"), "No alias, not rewritten");
+    assertTrue(old.isExcluded("mx.trusted.org"), "Replacing the policy does not change the old one");
+    assertThrows(IllegalArgumentException.class, () -> router.forward("jdoe", "someone@customer.net"));
+
+    // SRS takes everything after the first @ as the host, so the exclusions have to look at the same host
+    SRSRouter split = new SRSRouter(srs, SRSPolicy.builder().exclude("example.com").defaultAlias("srs@relay.example").build());
+    String sender = "jdoe@home@example.com";
+
+    assertEquals(srs.forward(sender, "srs@relay.example"), split.forward(sender, "someone@customer.net"));
+  }
+}
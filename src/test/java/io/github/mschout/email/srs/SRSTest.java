@@ -5,8 +5,12 @@ import static org.junit.jupiter.api.Assertions.*;
 import com.google.common.collect.ImmutableList;
 import io.github.mschout.email.srs.provider.SRSProvider;
 import io.github.mschout.email.srs.provider.SRSProviderFactory;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import org.junit.jupiter.api.Test;
@@ -192,4 +196,74 @@ class SRSTest {
       }
     }
   }
+
+  @Test
+  public void batch() throws InvalidKeyException {
+    SRS srs = SRS.guardedSRS(ImmutableList.of("dummy-secret"));
+
+    List<String> senders = IntStream.range(0, 1000).mapToObj(i -> String.format("user%s@host%s.tld", i, i)).collect(Collectors.toList());
+
+    List<SRSResult> forwarded = srs.forwardAll(senders, "alias.com", ForkJoinPool.commonPool());
+    assertEquals(senders.size(), forwarded.size(), "One result per sender");
+
+    for (int i = 0; i < senders.size(); i++) {
+      assertTrue(forwarded.get(i).isSuccess());
+      assertEquals(senders.get(i), forwarded.get(i).getInput(), "Results are in input order");
+      assertEquals(srs.forward(senders.get(i), "alias.com"), forwarded.get(i).getAddress());
+    }
+
+    List<String> addresses = forwarded.stream().map(SRSResult::getAddress).collect(Collectors.toList());
+    List<SRSResult> reversed = srs.reverseAll(addresses, ForkJoinPool.commonPool());
+
+    for (int i = 0; i < senders.size(); i++) {
+      assertEquals(senders.get(i), reversed.get(i).getAddress(), "Reverses to original address");
+    }
+
+    List<SRSResult> mixed = srs.reverseAll(new String[] { addresses.get(0), "SRS0=XXXX=ZZ=example.com=jdoe@alias.com", "no-at-sign" });
+    assertTrue(mixed.get(0).isSuccess());
+    assertFalse(mixed.get(1).isSuccess(), "Invalid hash is reported as a failure");
+    assertInstanceOf(IllegalArgumentException.class, mixed.get(2).getError(), "Malformed address is reported as a failure");
+  }
+
+  @Test
+  public void byteBuffers() throws InvalidKeyException {
+    for (SRS.Type type : SRS.Type.values()) {
+      SRS srs = new SRS(type, "dummy-secret");
+
+      for (String sender : ImmutableList.of("jdoe@example.com", srs.forward("jdoe@example.com", "other.com"))) {
+        String forward = srs.forward(sender, "alias.com");
+
+        ByteBuffer in = ByteBuffer.wrap(("<" + sender + ">").getBytes(StandardCharsets.US_ASCII), 1, sender.length());
+        ByteBuffer out = ByteBuffer.allocateDirect(256);
+
+        int length = srs.forward(in, "alias.com", out);
+        assertEquals(1, in.position(), "Input position is not moved");
+        assertEquals(length, out.position());
+        assertEquals(forward, StandardCharsets.US_ASCII.decode((ByteBuffer) out.flip()).toString(), type + " forward " + sender);
+
+        byte[] reversed = new byte[64];
+        length = srs.reverse(forward.getBytes(StandardCharsets.US_ASCII), 0, forward.length(), reversed, 2);
+        assertEquals(srs.reverse(forward), new String(reversed, 2, length, StandardCharsets.US_ASCII));
+      }
+    }
+
+    SRS srs = new SRS(SRS.Type.GUARDED, "dummy-secret");
+
+    // non-ASCII addresses go through the string path
+    String sender = "j\u00f6rg@example.com";
+    byte[] utf8 = sender.getBytes(StandardCharsets.UTF_8);
+    byte[] out = new byte[128];
+    int length = srs.forward(utf8, 0, utf8.length, "alias.com", out, 0);
+    assertEquals(srs.forward(sender, "alias.com"), new String(out, 0, length, StandardCharsets.UTF_8));
+
+    ByteBuffer local = ByteBuffer.wrap("jdoe@ALIAS.com".getBytes());
+    assertEquals(local.remaining(), srs.forward(local, "alias.com", ByteBuffer.allocate(32)), "Local senders are not rewritten");
+
+    ByteBuffer small = ByteBuffer.allocate(8);
+    assertThrows(BufferOverflowException.class, () -> srs.forward(ByteBuffer.wrap("jdoe@example.com".getBytes()), "alias.com", small));
+    assertEquals(0, small.position(), "Nothing written on overflow");
+
+    ByteBuffer forged = ByteBuffer.wrap("SRS0=XXXX=ZZ=example.com=jdoe@alias.com".getBytes());
+    assertThrows(InvalidSRSAddressException.class, () -> srs.reverse(forged, ByteBuffer.allocate(64)));
+  }
 }
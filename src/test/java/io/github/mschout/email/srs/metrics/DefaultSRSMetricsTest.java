@@ -0,0 +1,93 @@
+package io.github.mschout.email.srs.metrics;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.common.collect.ImmutableList;
+import io.github.mschout.email.srs.SRS;
+import io.github.mschout.email.srs.SRSFailure;
+import io.github.mschout.email.srs.provider.SRSProviderFactory;
+import java.lang.management.ManagementFactory;
+import java.security.InvalidKeyException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import org.junit.jupiter.api.Test;
+
+class DefaultSRSMetricsTest {
+
+  @Test
+  void counters() throws InvalidKeyException {
+    DefaultSRSMetrics metrics = new DefaultSRSMetrics();
+
+    SRSProviderFactory factory = SRSProviderFactory.builder().metrics(metrics).build();
+    SRS srs = new SRS(factory.createProvider(SRS.Type.GUARDED, ImmutableList.of("new", "old")), metrics);
+    SRS oldSrs = new SRS(factory.createProvider(SRS.Type.GUARDED, ImmutableList.of("old")));
+
+    String srs0 = srs.forward("jdoe@example.com", "other.com");
+    srs.reverse(srs0);
+    srs.reverse(oldSrs.forward("jdoe@example.com", "other.com"));
+
+    assertThrows(IllegalArgumentException.class, () -> srs.reverse("SRS0=XXXX" + srs0.substring(srs0.indexOf('=', 8))));
+    assertThrows(IllegalArgumentException.class, () -> srs.reverse("SRS0=XXXX@other.com"));
+    assertThrows(IllegalArgumentException.class, () -> srs.reverse("no-at-sign"));
+
+    assertEquals(1, metrics.getForwardCount());
+    assertEquals(2, metrics.getReverseCount());
+    assertEquals(1, metrics.getFailureCount(SRSMetrics.Operation.REVERSE, SRSFailure.INVALID_HASH));
+    assertEquals(2, metrics.getFailureCount(SRSMetrics.Operation.REVERSE, SRSFailure.MALFORMED));
+    assertEquals(1, metrics.getSecretMatches()[0], "Primary secret matched once");
+    assertEquals(1, metrics.getSecretMatches()[1], "Old secret matched once");
+    assertTrue(metrics.getReverseLatencyP99() > 0);
+
+    metrics.reset();
+    assertEquals(0, metrics.getReverseCount());
+    assertEquals(0, metrics.getReverseLatencyP50());
+  }
+
+  @Test
+  void histogram() {
+    LatencyHistogram histogram = new LatencyHistogram();
+
+    for (int i = 0; i < 99; i++) histogram.record(100);
+    histogram.record(1_000_000);
+
+    assertEquals(100, histogram.getCount());
+    assertEquals(127, histogram.getPercentile(50), "Values are reported as the bucket upper bound");
+    assertEquals(127, histogram.getPercentile(99));
+    assertEquals((1 << 20) - 1, histogram.getPercentile(100));
+  }
+
+  @Test
+  void histogramThreads() throws InterruptedException {
+    LatencyHistogram histogram = new LatencyHistogram();
+    Thread[] threads = new Thread[4];
+
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread(() -> {
+        for (int i = 0; i < 100_000; i++) histogram.record(100);
+      });
+      threads[t].start();
+    }
+
+    for (Thread thread : threads) thread.join();
+
+    assertEquals(400_000, histogram.getCount());
+    assertEquals(127, histogram.getPercentile(100));
+
+    histogram.reset();
+    assertEquals(0, histogram.getCount());
+  }
+
+  @Test
+  void jmx() throws JMException {
+    DefaultSRSMetrics metrics = new DefaultSRSMetrics();
+    ObjectName name = metrics.register("test");
+
+    try {
+      metrics.succeeded(SRSMetrics.Operation.FORWARD, 1000);
+
+      assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "ForwardCount"));
+    } finally {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+    }
+  }
+}
@@ -0,0 +1,242 @@
+package io.github.mschout.email.srs.provider;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.common.collect.ImmutableList;
+import io.github.mschout.email.srs.SRS;
+import io.github.mschout.email.srs.SRSAddress;
+import io.github.mschout.email.srs.SRSAddressView;
+import io.github.mschout.email.srs.metrics.DefaultSRSMetrics;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class CachingSRSProviderTest {
+
+  @Test
+  public void parseCache() throws InvalidKeyException {
+    DefaultSRSMetrics metrics = new DefaultSRSMetrics();
+
+    SRSProvider provider = SRSProviderFactory
+      .builder()
+      .metrics(metrics)
+      .parseCacheSize(100)
+      .build()
+      .createProvider(SRS.Type.GUARDED, ImmutableList.of("foo"));
+
+    assertInstanceOf(CachingSRSProvider.class, provider);
+
+    String srs0 = provider.compile("example.com", "jdoe");
+    String srs1 = provider.compile("forwarder.com", srs0);
+
+    SRSAddress parsed = provider.parse(srs0);
+    assertEquals("jdoe", parsed.getUser());
+    assertSame(parsed, provider.parse(srs0), "Second parse comes from the cache");
+
+    assertEquals(srs0, provider.parse(srs1).getUser());
+    assertEquals(srs0, provider.parse(srs1).getUser());
+
+    assertEquals(2, metrics.getSecretMatches()[0], "Each hash was only verified once");
+
+    SRSAddressView view = new SRSAddressView();
+    provider.parse(srs0, view);
+    assertEquals("example.com", view.hostString(), "Views are filled from the cache");
+    assertEquals("jdoe", view.userString());
+    assertEquals(2, metrics.getSecretMatches()[0]);
+
+    assertThrows(IllegalArgumentException.class, () -> provider.parse("SRS0=XXXX" + srs0.substring(srs0.indexOf('=', 8))));
+  }
+
+  @Test
+  public void reverseHits() throws InvalidKeyException {
+    DefaultSRSMetrics metrics = new DefaultSRSMetrics();
+    SRS srs = new SRS(
+      SRSProviderFactory.builder().metrics(metrics).parseCacheSize(100).build().createProvider(SRS.Type.GUARDED, ImmutableList.of("foo"))
+    );
+
+    String srs0 = srs.forward("jdoe@example.com", "alias@forwarder.net");
+    String srs1 = srs.forward(srs0, "alias@another.org");
+
+    byte[] bytes = ("x" + srs0).getBytes(StandardCharsets.US_ASCII);
+    byte[] out = new byte[64];
+
+    for (int i = 0; i < 5; i++) {
+      assertEquals("jdoe@example.com", srs.reverse(srs0));
+      assertEquals(srs0, srs.reverse(srs1), "SRS1 addresses keep their user tag");
+
+      int length = srs.reverse(bytes, 1, bytes.length - 1, out, 0);
+      assertEquals("jdoe@example.com", new String(out, 0, length, StandardCharsets.US_ASCII), "Ranges of a longer buffer");
+    }
+
+    assertEquals(2, metrics.getSecretMatches()[0], "Reversals after the first come from the cache");
+  }
+
+  @Test
+  public void secretRotation() throws InvalidKeyException {
+    RotatingProvider rotating = new RotatingProvider();
+    SRSProvider provider = new CachingSRSProvider(rotating, 100);
+
+    String srs0 = provider.compile("example.com", "jdoe");
+    SRSAddress parsed = provider.parse(srs0);
+    assertSame(parsed, provider.parse(srs0));
+
+    rotating.current = new ShortCutSRSProvider(ImmutableList.of("bar"), 4, 4, "=");
+
+    assertThrows(IllegalArgumentException.class, () -> provider.parse(srs0), "Cached entry is dropped when the secrets change");
+  }
+
+  @Test
+  public void forwardCache() throws InvalidKeyException {
+    RotatingProvider rotating = new RotatingProvider();
+    SRSProvider provider = new CachingSRSProvider(rotating, 0, 100);
+
+    String compiled = provider.compile("example.com", "jdoe");
+    assertSame(compiled, provider.compile("example.com", "jdoe"), "Second compile comes from the cache");
+    assertNotEquals(compiled, provider.compile("example.com", "JDoe"), "Case is preserved in the cache key");
+
+    rotating.current = new ShortCutSRSProvider(ImmutableList.of("bar", "foo"), 4, 4, "=");
+
+    String rotated = provider.compile("example.com", "jdoe");
+    assertNotEquals(compiled, rotated, "Cache is flushed when the primary secret changes");
+    assertEquals(rotating.compile("example.com", "jdoe"), rotated);
+  }
+
+  @Test
+  public void forwardCacheKeyRingRotation() throws InvalidKeyException {
+    SRSKeyRing keyRing = new SRSKeyRing(ImmutableList.of("foo"));
+    SRSProvider provider = SRSProviderFactory.builder().forwardCacheSize(100).build().createProvider(SRS.Type.SHORTCUT, keyRing);
+    SRSProvider foo = new ShortCutSRSProvider(ImmutableList.of("foo"), 4, 4, "=");
+    SRSProvider bar = new ShortCutSRSProvider(ImmutableList.of("bar"), 4, 4, "=");
+
+    assertEquals(foo.compile("example.com", "jdoe"), provider.compile("example.com", "jdoe"));
+
+    keyRing.rotate(ImmutableList.of("bar", "foo"));
+    assertEquals(bar.compile("example.com", "jdoe"), provider.compile("example.com", "jdoe"), "Rotating the key ring flushes the cache");
+
+    keyRing.rotate(ImmutableList.of("foo"));
+    assertEquals(foo.compile("example.com", "jdoe"), provider.compile("example.com", "jdoe"), "Nothing made with a dropped secret");
+
+    // the secret changes while an address is being compiled, and changes back before it is cached
+    RotatingProvider rotating = new RotatingProvider();
+    SRSProvider caching = new CachingSRSProvider(
+      new RotatingProvider() {
+        private boolean rotated;
+
+        @Override
+        public String compile(String host, String user) throws InvalidKeyException {
+          if (!rotated) rotating.current = bar;
+
+          rotated = true;
+          return rotating.compile(host, user);
+        }
+
+        @Override
+        public String getSecret() {
+          return rotating.getSecret();
+        }
+      },
+      0,
+      100
+    );
+
+    assertEquals(bar.compile("example.com", "jdoe"), caching.compile("example.com", "jdoe"));
+
+    rotating.current = foo;
+    assertEquals(foo.compile("example.com", "jdoe"), caching.compile("example.com", "jdoe"), "Not cached under the old secret");
+  }
+
+  @Test
+  public void expiry() throws InvalidKeyException {
+    long day = 24L * 60 * 60 * 1000;
+    long now = (System.currentTimeMillis() / day) * day + day / 2;
+
+    Clock oldClock = Clock.fixed(Instant.ofEpochMilli(now - 10 * day), ZoneOffset.UTC);
+    SRSProviderFactory oldFactory = SRSProviderFactory.builder().clock(oldClock).build();
+    String old = oldFactory.createProvider(SRS.Type.SHORTCUT, ImmutableList.of("foo")).compile("example.com", "jdoe");
+
+    MutableClock clock = new MutableClock(now);
+    SRSProvider provider = SRSProviderFactory
+      .builder()
+      .clock(clock)
+      .maxAge(10)
+      .parseCacheSize(10)
+      .build()
+      .createProvider(SRS.Type.SHORTCUT, ImmutableList.of("foo"));
+
+    SRSAddress parsed = provider.parse(old);
+    assertSame(parsed, provider.parse(old));
+
+    clock.millis = now + day / 2 - 1;
+    assertSame(parsed, provider.parse(old), "Cached until the end of the last valid day");
+
+    clock.millis = now + day / 2;
+    assertThrows(IllegalArgumentException.class, () -> provider.parse(old), "Expired entry is not returned");
+  }
+
+  // Clock that can be moved by the test
+  static class MutableClock extends Clock {
+    volatile long millis;
+
+    MutableClock(long millis) {
+      this.millis = millis;
+    }
+
+    @Override
+    public long millis() {
+      return millis;
+    }
+
+    @Override
+    public Instant instant() {
+      return Instant.ofEpochMilli(millis);
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  // Provider whose secrets can be swapped out
+  private static class RotatingProvider implements SRSProvider {
+    private SRSProvider current = new ShortCutSRSProvider(ImmutableList.of("foo"), 4, 4, "=");
+
+    public boolean isSRS0(String address) {
+      return current.isSRS0(address);
+    }
+
+    public boolean isSRS1(String address) {
+      return current.isSRS1(address);
+    }
+
+    public String compile(String host, String user) throws InvalidKeyException {
+      return current.compile(host, user);
+    }
+
+    public SRSAddress parse(String srsAddress) {
+      return current.parse(srsAddress);
+    }
+
+    public String getSecret() {
+      return current.getSecret();
+    }
+
+    public List<String> getSecrets() {
+      return current.getSecrets();
+    }
+
+    public String getSeparator() {
+      return current.getSeparator();
+    }
+  }
+}
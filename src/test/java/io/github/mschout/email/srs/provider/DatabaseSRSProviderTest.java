@@ -0,0 +1,207 @@
+package io.github.mschout.email.srs.provider;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.github.mschout.email.srs.InvalidSRSAddressException;
+import io.github.mschout.email.srs.SRS;
+import io.github.mschout.email.srs.SRSAddressView;
+import io.github.mschout.email.srs.SRSFailure;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.InvalidKeyException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+
+class DatabaseSRSProviderTest {
+
+  @Test
+  public void forwardAndReverse() throws IOException, InvalidKeyException {
+    try (SRSStore store = SRSStore.builder().directory(Files.createTempDirectory("srs-store")).open()) {
+      SRS srs = new SRS(SRSProviderFactory.builder().build().createDatabaseProvider(store));
+
+      String sender = String.join(".", Collections.nCopies(20, "a-very-long-local-part")) + "@example.com";
+      String forwarded = srs.forward(sender, "alias@forwarder.net");
+
+      assertTrue(forwarded.matches("SRS0=[a-p][a-z2-7]{12}@forwarder\\.net"), forwarded);
+      assertEquals(sender, srs.reverse(forwarded));
+      assertEquals(sender, srs.reverse(forwarded.toUpperCase()), "Keys survive case changes");
+
+      String forwardedAgain = srs.forward(forwarded, "alias@another.org");
+
+      assertEquals(forwarded.length() - "forwarder.net".length(), forwardedAgain.length() - "another.org".length());
+      assertEquals(forwarded, srs.reverse(forwardedAgain));
+
+      assertEquals("jdoe@bücher.example", srs.reverse(srs.forward("jdoe@bücher.example", "alias@forwarder.net")));
+
+      assertEquals(SRSFailure.INVALID_HASH, failure(srs, "SRS0=aaaaaaaaaaaaa@forwarder.net"));
+      assertEquals(SRSFailure.MALFORMED, failure(srs, "SRS0=zaaaaaaaaaaaa@forwarder.net"));
+      assertEquals(SRSFailure.MALFORMED, failure(srs, "SRS0=aaaa@forwarder.net"));
+      assertEquals(SRSFailure.MALFORMED, failure(srs, "SRS1=aaaaaaaaaaaaa@forwarder.net"));
+    }
+  }
+
+  @Test
+  public void expiry() throws IOException {
+    CachingSRSProviderTest.MutableClock clock = new CachingSRSProviderTest.MutableClock(System.currentTimeMillis());
+    Path directory = Files.createTempDirectory("srs-store");
+
+    try (SRSStore store = SRSStore.builder().directory(directory).ttl(Duration.ofDays(1)).segmentSize(4096).clock(clock).open()) {
+      DatabaseSRSProvider provider = DatabaseSRSProvider.builder().store(store).build();
+      List<String> old = new ArrayList<>();
+
+      for (int i = 0; i < 500; i++) old.add(provider.compile("example.com", "user" + i));
+
+      assertEquals(500, store.size());
+      assertTrue(segmentFiles(directory).size() > 5);
+
+      clock.millis += Duration.ofDays(1).toMillis();
+
+      assertEquals(SRSFailure.EXPIRED, failure(provider, old.get(499)));
+      assertEquals("user499", unverified(provider, old.get(499)), "Expired entries can be read until they are compacted");
+
+      // filling the current segment starts a new one, which drops the expired segments
+      List<String> recent = new ArrayList<>();
+      for (int i = 0; i < 100; i++) recent.add(provider.compile("example.com", "recent" + i));
+
+      assertTrue(store.size() < 200, store.size() + " entries");
+      assertEquals(SRSFailure.INVALID_HASH, failure(provider, old.get(0)));
+      assertEquals("recent99", provider.parse(recent.get(99)).getUser());
+      assertEquals(2, segmentFiles(directory).size());
+    }
+  }
+
+  @Test
+  public void recovery() throws IOException {
+    Path directory = Files.createTempDirectory("srs-store");
+    List<String> addresses = new ArrayList<>();
+
+    try (SRSStore store = SRSStore.builder().directory(directory).segmentSize(4096).open()) {
+      DatabaseSRSProvider provider = DatabaseSRSProvider.builder().store(store).build();
+
+      for (int i = 0; i < 100; i++) addresses.add(provider.compile("example.com", "user" + i));
+    }
+
+    List<Path> segments = segmentFiles(directory);
+    Path last = segments.get(segments.size() - 1);
+
+    try (SRSStore store = SRSStore.builder().directory(directory).segmentSize(4096).open()) {
+      DatabaseSRSProvider provider = DatabaseSRSProvider.builder().store(store).build();
+
+      assertEquals(100, store.size());
+      assertEquals("user99", provider.parse(addresses.get(99)).getUser());
+    }
+
+    // Damage the last entry, as if the machine stopped half way through writing it
+    try (RandomAccessFile file = new RandomAccessFile(last.toFile(), "rw")) {
+      long end = 0;
+      while (end < file.length()) {
+        file.seek(end);
+        int length = file.readInt();
+        if (length == 0) break;
+        end += length;
+      }
+
+      file.seek(end - 6);
+      file.write('X');
+    }
+
+    try (SRSStore store = SRSStore.builder().directory(directory).segmentSize(4096).open()) {
+      DatabaseSRSProvider provider = DatabaseSRSProvider.builder().store(store).build();
+
+      assertEquals(99, store.size());
+      assertEquals("user98", provider.parse(addresses.get(98)).getUser());
+      assertEquals(SRSFailure.INVALID_HASH, failure(provider, addresses.get(99)));
+
+      addresses.set(99, provider.compile("example.com", "again99"));
+    }
+
+    try (SRSStore store = SRSStore.builder().directory(directory).segmentSize(4096).open()) {
+      DatabaseSRSProvider provider = DatabaseSRSProvider.builder().store(store).build();
+
+      assertEquals(100, store.size());
+      for (int i = 0; i < 99; i++) assertEquals("user" + i, provider.parse(addresses.get(i)).getUser());
+      assertEquals("again99", provider.parse(addresses.get(99)).getUser());
+    }
+  }
+
+  @Test
+  public void indexGrowth() throws Exception {
+    CachingSRSProviderTest.MutableClock clock = new CachingSRSProviderTest.MutableClock(System.currentTimeMillis());
+    Path directory = Files.createTempDirectory("srs-store");
+
+    try (SRSStore store = SRSStore.builder().directory(directory).ttl(Duration.ofDays(1)).segmentSize(65536).clock(clock).open()) {
+      int count = 20000;
+      long[] keys = new long[count];
+      AtomicInteger published = new AtomicInteger();
+      AtomicReference<String> missing = new AtomicReference<>();
+
+      // every published key has to stay visible while the index is moved to larger tables behind the reader's back
+      Thread reader = new Thread(() -> {
+        while (published.get() < count && missing.get() == null) {
+          int seen = published.get();
+
+          for (int i = Math.max(0, seen - 2000); i < seen; i++) {
+            if (store.get(keys[i]) == null) missing.compareAndSet(null, "key " + i + " of " + seen);
+          }
+        }
+      });
+      reader.start();
+
+      for (int i = 0; i < count; i++) {
+        keys[i] = store.put("example.com", "user" + i);
+        published.set(i + 1);
+      }
+
+      reader.join();
+
+      assertNull(missing.get());
+      assertEquals(count, store.size());
+      for (int i = 0; i < count; i++) assertEquals("user" + i, store.get(keys[i]).getUser());
+
+      // expire the lot, and compact segments away while the index is being moved again
+      clock.millis += Duration.ofDays(1).toMillis();
+
+      long[] recent = new long[count];
+      for (int i = 0; i < count; i++) recent[i] = store.put("example.com", "recent" + i);
+
+      for (int i = 0; i < count; i++) assertEquals("recent" + i, store.get(recent[i]).getUser());
+
+      int old = 0;
+      for (long key : keys) if (store.get(key) != null) old++;
+
+      assertEquals(count + old, store.size());
+      assertTrue(old < count / 10, old + " old entries");
+    }
+  }
+
+  private static List<Path> segmentFiles(Path directory) throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.sorted().collect(Collectors.toList());
+    }
+  }
+
+  private static String unverified(SRSProvider provider, String address) {
+    SRSAddressView view = new SRSAddressView();
+
+    provider.parseUnverified(address, 0, address.length(), view);
+
+    return view.userString();
+  }
+
+  private static SRSFailure failure(SRSProvider provider, String address) {
+    return assertThrows(InvalidSRSAddressException.class, () -> provider.parse(address)).getFailure();
+  }
+
+  private static SRSFailure failure(SRS srs, String address) {
+    return assertThrows(InvalidSRSAddressException.class, () -> srs.reverse(address)).getFailure();
+  }
+}
@@ -0,0 +1,67 @@
+package io.github.mschout.email.srs.provider;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.common.collect.ImmutableList;
+import io.github.mschout.email.srs.InvalidSRSAddressException;
+import io.github.mschout.email.srs.SRS;
+import io.github.mschout.email.srs.SRSFailure;
+import java.security.InvalidKeyException;
+import java.time.Clock;
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+
+public class ForgeryFilterTest {
+
+  @Test
+  public void rejectsRepeatedForgeries() throws InvalidKeyException {
+    CachingSRSProviderTest.MutableClock clock = new CachingSRSProviderTest.MutableClock(System.currentTimeMillis());
+    SRSKeyRing keyRing = new SRSKeyRing(ImmutableList.of("foo"));
+
+    SRSProvider provider = SRSProviderFactory
+      .builder()
+      .clock(clock)
+      .forgeryFilterSize(1000)
+      .forgeryFilterTtl(Duration.ofMinutes(10))
+      .build()
+      .createProvider(SRS.Type.GUARDED, keyRing);
+
+    String genuine = provider.compile("example.com", "jdoe");
+    String forged = "SRS0=XXXX" + genuine.substring(genuine.indexOf('=', 5));
+
+    assertTrue(rejection(provider, forged).getStackTrace().length > 0, "First rejection checks the hash");
+    assertEquals(0, rejection(provider, forged).getStackTrace().length, "Repeats are rejected by the filter");
+    assertEquals(0, rejection(provider, forged.toLowerCase()).getStackTrace().length, "Case is ignored");
+    assertEquals("jdoe", provider.parse(genuine).getUser(), "Genuine addresses are not affected");
+
+    clock.millis += Duration.ofMinutes(11).toMillis();
+    assertTrue(rejection(provider, forged).getStackTrace().length > 0, "Forgeries are forgotten after the time to live");
+    assertEquals(0, rejection(provider, forged).getStackTrace().length);
+
+    keyRing.rotate(ImmutableList.of("bar", "foo"));
+    assertTrue(rejection(provider, forged).getStackTrace().length > 0, "Changing the secrets forgets all forgeries");
+
+    assertEquals(SRSFailure.MALFORMED, rejection(provider, "SRS0=XXXX").getFailure());
+    assertEquals(SRSFailure.MALFORMED, rejection(provider, "SRS0=XXXX").getFailure(), "Malformed addresses are not remembered");
+  }
+
+  @Test
+  public void falsePositiveRate() {
+    ForgeryFilter filter = new ForgeryFilter(10000, 0.001, Duration.ofHours(1), Clock.systemUTC());
+    Object epoch = new Object();
+
+    for (int i = 0; i < 10000; i++) filter.add(epoch, "SRS0=forged" + i, 0, ("SRS0=forged" + i).length());
+    for (int i = 0; i < 10000; i++) assertTrue(filter.mightContain(epoch, "SRS0=forged" + i, 0, ("SRS0=forged" + i).length()));
+
+    int falsePositives = 0;
+    for (int i = 0; i < 100000; i++) if (filter.mightContain(epoch, "SRS0=genuine" + i, 0, ("SRS0=genuine" + i).length())) falsePositives++;
+
+    // 100 expected
+    assertTrue(falsePositives < 300, falsePositives + " false positives");
+    assertTrue(filter.getMemoryBytes() < 2 * 10000 * 2, "About 14.4 bits per address at 0.1%");
+  }
+
+  private static InvalidSRSAddressException rejection(SRSProvider provider, String address) {
+    return assertThrows(InvalidSRSAddressException.class, () -> provider.parse(address));
+  }
+}
@@ -4,6 +4,7 @@ import static org.junit.jupiter.api.Assertions.*;
 
 import com.google.common.collect.ImmutableList;
 import io.github.mschout.email.srs.SRS;
+import io.github.mschout.email.srs.SRSAddressView;
 import java.security.InvalidKeyException;
 import java.util.List;
 import org.junit.jupiter.api.BeforeEach;
@@ -105,4 +106,55 @@ public class GuardedSRSProviderTest {
       assertTrue(srsRev.equalsIgnoreCase(srs0));
     }
   }
+
+  @Test
+  public void internationalizedHosts() throws InvalidKeyException {
+    String srs0 = srs.forward("jdoe@bücher.example", "alias@forwarder.net");
+    String srs0Ascii = srs0.replace("bücher.example", "xn--bcher-kva.example");
+
+    assertEquals("jdoe@bücher.example", srs.reverse(srs0));
+    assertEquals("jdoe@xn--bcher-kva.example", srs.reverse(srs0Ascii), "Hosts hash the same in either form");
+
+    String relayed = srs.forward("jdoe@example.com", "alias@relais.Bücher.example");
+    String srs1 = srs.forward(relayed, "alias@forwarder.net");
+
+    assertEquals(relayed, srs.reverse(srs1));
+    assertEquals(
+      relayed.replace("relais.Bücher.example", "relais.xn--bcher-kva.example"),
+      srs.reverse(srs1.replace("relais.Bücher.example", "relais.xn--bcher-kva.example"))
+    );
+
+    assertEquals("jdoe@bücher.example", srs.forward("jdoe@bücher.example", "alias@xn--bcher-kva.example"), "Same host, not rewritten");
+  }
+
+  @Test
+  public void parseIntoView() throws InvalidKeyException {
+    SRSProvider provider = DefaultSRSProviderFactory.getInstance().createProvider(SRS.Type.GUARDED, ImmutableList.of("foo"));
+
+    String srs0 = provider.compile("example.com", "jdoe");
+    String srs1 = provider.compile("forwarder.com", srs0);
+
+    SRSAddressView view = new SRSAddressView();
+
+    String bounce = srs0 + "@forwarder.com";
+    provider.parse(bounce, 0, bounce.indexOf('@'), view);
+    assertSame(bounce, view.getSource(), "Fields are not copied");
+    assertEquals("SRS0", view.getPrefix());
+    assertEquals("example.com", view.host().toString());
+    assertEquals("jdoe", view.userString());
+    assertEquals("jdoe@example.com", view.appendAddress(new StringBuilder()).toString());
+
+    provider.parse(srs1, view);
+    assertEquals("SRS1", view.getPrefix());
+    assertEquals("forwarder.com", view.hostString());
+    assertEquals(srs0, view.userString(), "SRS1 user is the SRS0 address");
+    assertEquals(srs0 + "@forwarder.com", view.appendAddress(new StringBuilder()).toString());
+    assertEquals(view.addressLength(), view.appendAddress(new StringBuilder()).length());
+
+    assertEquals(view.toSRSAddress().getHash(), provider.parse(srs1).getHash());
+
+    assertFalse(provider.isSRS0("SRS0"), "Prefix alone is not an SRS address");
+    assertTrue(provider.isSRS1("srs1+xxxx"), "Prefix is case insensitive");
+    assertThrows(IllegalArgumentException.class, () -> provider.parse("SRS1=XXXX", view));
+  }
 }
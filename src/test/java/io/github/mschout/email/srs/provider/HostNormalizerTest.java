@@ -0,0 +1,34 @@
+package io.github.mschout.email.srs.provider;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Locale;
+import org.junit.jupiter.api.Test;
+
+public class HostNormalizerTest {
+  private final HostNormalizer normalizer = new HostNormalizer(16);
+
+  @Test
+  public void normalize() {
+    String lower = "mail.example.com";
+
+    assertSame(lower, normalizer.normalize(lower), "Normalized hosts are returned as they are");
+    assertEquals("mail.example.com", normalizer.normalize("Mail.EXAMPLE.com"));
+    assertEquals("xn--bcher-kva.example", normalizer.normalize("Bücher.Example"));
+    assertEquals("xn--bcher-kva.example", normalizer.normalize("jdoe@bücher.example", 5, 19), "Ranges of a longer sequence");
+    assertEquals("xn--bcher-kva.example", normalizer.normalize("XN--BCHER-KVA.example"));
+
+    // too long for a label, so not a valid IDN, but still given a stable form
+    String invalid = "Ü" + new String(new char[70]).replace('\0', 'a') + ".example";
+    assertEquals(invalid.toLowerCase(Locale.ROOT), normalizer.normalize(invalid));
+  }
+
+  @Test
+  public void sameHost() {
+    assertTrue(normalizer.sameHost("Example.COM", 0, 11, "jdoe@example.com", 5, 16));
+    assertFalse(normalizer.sameHost("example.com", 0, 11, "example.org", 0, 11));
+    assertFalse(normalizer.sameHost("example.com", 0, 11, "mail.example.com", 0, 16));
+    assertTrue(normalizer.sameHost("bücher.example", 0, 14, "XN--bcher-kva.example", 0, 21), "U-labels and A-labels");
+    assertFalse(normalizer.sameHost("bücher.example", 0, 14, "bucher.example", 0, 14));
+  }
+}
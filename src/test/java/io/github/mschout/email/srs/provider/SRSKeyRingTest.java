@@ -0,0 +1,109 @@
+package io.github.mschout.email.srs.provider;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.common.collect.ImmutableList;
+import io.github.mschout.email.srs.SRS;
+import io.github.mschout.email.srs.metrics.DefaultSRSMetrics;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.InvalidKeyException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class SRSKeyRingTest {
+
+  @Test
+  public void rotate() throws InvalidKeyException {
+    SRSKeyRing keyRing = new SRSKeyRing(ImmutableList.of("old"));
+    DefaultSRSMetrics metrics = new DefaultSRSMetrics();
+    SRSProvider provider = SRSProviderFactory.builder().metrics(metrics).build().createProvider(SRS.Type.GUARDED, keyRing);
+
+    String before = provider.compile("example.com", "jdoe");
+
+    keyRing.rotate(ImmutableList.of("new", "old"));
+
+    assertEquals("new", provider.getSecret());
+    assertEquals(ImmutableList.of("new", "old"), provider.getSecrets());
+
+    String after = provider.compile("example.com", "jdoe");
+    assertNotEquals(before, after, "New addresses use the new primary secret");
+
+    assertEquals("jdoe", provider.parse(before).getUser(), "Old addresses still verify");
+    assertEquals("jdoe", provider.parse(after).getUser());
+    assertEquals(1, metrics.getSecretMatches()[0]);
+    assertEquals(1, metrics.getSecretMatches()[1]);
+
+    assertThrows(InvalidKeyException.class, () -> keyRing.rotate(ImmutableList.of("newer", "")));
+    assertEquals(ImmutableList.of("new", "old"), keyRing.getSecrets(), "Failed rotation leaves the secrets alone");
+    assertThrows(IllegalArgumentException.class, () -> keyRing.rotate(ImmutableList.of()));
+
+    keyRing.rotate(ImmutableList.of("new"));
+    assertThrows(IllegalArgumentException.class, () -> provider.parse(before), "Dropped secrets no longer verify");
+  }
+
+  @Test
+  public void candidateOrder() {
+    int[] order = new int[4];
+
+    for (int attempt = 0; attempt < 4; attempt++) order[attempt] = SRSKeySet.candidate(2, attempt);
+    assertArrayEquals(new int[] { 2, 0, 1, 3 }, order, "Hinted key first, then the rest in order");
+
+    for (int attempt = 0; attempt < 4; attempt++) order[attempt] = SRSKeySet.candidate(0, attempt);
+    assertArrayEquals(new int[] { 0, 1, 2, 3 }, order);
+
+    SRSKeySet keys = SRSKeySet.of(ImmutableList.of("a", "b"));
+    SRSKeySet rotated = keys.rotate(ImmutableList.of("c", "a"));
+    assertSame(keys.get(0), rotated.get(1), "Keys are reused across rotations");
+  }
+
+  @Test
+  public void watchFile() throws Exception {
+    Path directory = Files.createTempDirectory("srs-secrets");
+    Path file = directory.resolve("secrets");
+    Files.write(file, "# comment\nfirst\n\nsecond\n".getBytes(StandardCharsets.UTF_8));
+
+    SRSKeyRing keyRing = new SRSKeyRing(ImmutableList.of("placeholder"));
+
+    try (SecretsFileWatcher watcher = new SecretsFileWatcher(keyRing, file)) {
+      assertEquals(ImmutableList.of("first", "second"), keyRing.getSecrets());
+
+      Path next = directory.resolve("secrets.new");
+      Files.write(next, "third\nfirst\n".getBytes(StandardCharsets.UTF_8));
+      Files.move(next, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+      // some platforms poll for changes
+      for (int i = 0; i < 300 && !keyRing.getSecret().equals("third"); i++) Thread.sleep(100);
+
+      assertEquals(ImmutableList.of("third", "first"), keyRing.getSecrets());
+      assertNull(watcher.getLastFailure());
+    }
+  }
+
+  @Test
+  public void reportFailedReload() throws Exception {
+    Path directory = Files.createTempDirectory("srs-secrets");
+    Path file = directory.resolve("secrets");
+    Files.write(file, "first\n".getBytes(StandardCharsets.UTF_8));
+
+    CompletableFuture<Exception> reported = new CompletableFuture<>();
+
+    try (SecretsFileWatcher watcher = new SecretsFileWatcher(file, reported::complete)) {
+      assertEquals(ImmutableList.of("first"), watcher.getKeyRing().getSecrets());
+
+      Path next = directory.resolve("secrets.new");
+      Files.write(next, "# nothing here\n".getBytes(StandardCharsets.UTF_8));
+      Files.move(next, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+      // some platforms poll for changes
+      Exception failure = reported.get(30, TimeUnit.SECONDS);
+
+      assertTrue(failure.getMessage().startsWith("No secrets in"), failure.getMessage());
+      assertNotNull(watcher.getLastFailure());
+      assertEquals(ImmutableList.of("first"), watcher.getKeyRing().getSecrets(), "The old secrets are kept");
+    }
+  }
+}
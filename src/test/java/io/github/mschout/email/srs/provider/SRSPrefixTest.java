@@ -0,0 +1,45 @@
+package io.github.mschout.email.srs.provider;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class SRSPrefixTest {
+
+  @Test
+  public void prefixes() {
+    assertSame(SRSPrefix.SRS0, prefix("SRS0=HHH=TT=example.com=jdoe@forwarder.net"));
+    assertSame(SRSPrefix.SRS1, prefix("srs1+HHH=forwarder.net==HHH=TT=example.com=jdoe@relay.net"));
+    assertSame(SRSPrefix.SRS0, prefix("sRs0-x"));
+
+    assertNull(prefix("SRS2=HHH=TT=example.com=jdoe@forwarder.net"));
+    assertNull(prefix("SRS0_HHH=TT=example.com=jdoe@forwarder.net"));
+    assertNull(prefix("XRS0=HHH=TT=example.com=jdoe@forwarder.net"));
+    assertNull(prefix("SRS0"));
+    assertNull(prefix("jdoe@example.com"));
+  }
+
+  @Test
+  public void ranges() {
+    String text = "to=<SRS0=HHH=TT=example.com=jdoe@forwarder.net>";
+    ByteBuffer bytes = ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+    bytes.position(8);
+
+    assertSame(SRSPrefix.SRS0, SRSPrefix.of(text, 4, text.length() - 1));
+    assertSame(SRSPrefix.SRS0, SRSPrefix.of(bytes, 4, bytes.limit() - 1));
+    assertEquals(8, bytes.position(), "the buffer position is left alone");
+
+    assertNull(SRSPrefix.of(text, 0, text.length()));
+    assertNull(SRSPrefix.of(bytes, 0, bytes.limit()));
+    assertNull(SRSPrefix.of(text, 4, 8), "the range must take in the separator");
+  }
+
+  private static String prefix(String address) {
+    String chars = SRSPrefix.of(address, 0, address.length());
+
+    assertSame(chars, SRSPrefix.of(ByteBuffer.wrap(address.getBytes(StandardCharsets.US_ASCII)), 0, address.length()));
+    return chars;
+  }
+}
@@ -3,6 +3,9 @@ package io.github.mschout.email.srs.provider;
 import static org.junit.jupiter.api.Assertions.*;
 
 import com.google.common.base.Strings;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
 import org.junit.jupiter.api.Test;
 
 public class SRSTimestampTest {
@@ -32,4 +35,36 @@ public class SRSTimestampTest {
     // far future timestamp fails
     assertTrue(SRSTimestamp.isInvalid(SRSTimestamp.generate(now + ages)));
   }
+
+  @Test
+  public void engine() {
+    long day = 60L * 60 * 24 * 1000;
+    long now = (System.currentTimeMillis() / day) * day + day - 1;
+
+    CachingSRSProviderTest.MutableClock clock = new CachingSRSProviderTest.MutableClock(now);
+    SRSTimestamp timestamps = new SRSTimestamp(clock, 49);
+
+    String today = timestamps.current();
+    assertEquals(SRSTimestamp.generate(now), today);
+    assertSame(today, timestamps.current(), "Same instance all day");
+
+    assertFalse(timestamps.isInvalidNow(today));
+    assertFalse(timestamps.isInvalidNow(today.toLowerCase()), "Timestamps are case insensitive");
+    assertFalse(timestamps.isInvalidNow(SRSTimestamp.generate(now - day * 49)), "Configured max age is honoured");
+    assertTrue(timestamps.isInvalidNow(SRSTimestamp.generate(now - day * 50)));
+    assertTrue(timestamps.isInvalidNow(SRSTimestamp.generate(now + day)), "Future timestamp fails");
+    assertThrows(IllegalArgumentException.class, () -> timestamps.isInvalidNow("A1"), "Bad timestamp character");
+
+    // roll over to the next day
+    clock.millis = now + 1;
+    assertEquals(SRSTimestamp.generate(now + 1), timestamps.current());
+    assertNotEquals(today, timestamps.current());
+    assertFalse(timestamps.isInvalidNow(SRSTimestamp.generate(now + 1)));
+    assertTrue(timestamps.isInvalidNow(SRSTimestamp.generate(now - day * 49)), "Oldest valid day has expired");
+    assertEquals(now + 1 + day * 50, timestamps.expiresAt(timestamps.current()));
+
+    SRSTimestamp fixed = new SRSTimestamp(Clock.fixed(Instant.ofEpochMilli(now), ZoneOffset.UTC), 0);
+    assertFalse(fixed.isInvalidNow(today));
+    assertTrue(fixed.isInvalidNow(SRSTimestamp.generate(now - day)));
+  }
 }
@@ -5,10 +5,17 @@ import static org.junit.jupiter.api.Assertions.*;
 import com.google.common.collect.ImmutableList;
 import io.github.mschout.email.srs.SRS;
 import io.github.mschout.email.srs.SRSAddress;
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
+import java.util.Base64;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -32,6 +39,16 @@ public class ShortCutSRSProviderTest {
     assertEquals(parsed.getUser(), "jdoe");
   }
 
+  @Test
+  public void factoryConstructor() throws InvalidKeyException {
+    SRSProvider provider = new SRSProviderFactory(49, 4, 6, "+").createProvider(SRS.Type.SHORTCUT, ImmutableList.of("dummy-secret"));
+
+    String compiled = provider.compile("example.com", "jdoe");
+
+    assertTrue(compiled.matches("SRS0\\+\\S{6}=\\S{2}=example\\.com=jdoe"), compiled);
+    assertEquals("jdoe", provider.parse(compiled).getUser());
+  }
+
   @Test
   public void conformanceTests() throws InvalidKeyException {
     // Ported from Perl Mail::SRS tests
@@ -78,4 +95,163 @@ public class ShortCutSRSProviderTest {
       assertEquals(oldaddr, test, "Idempotent on " + test);
     }
   }
+
+  @Test
+  public void concurrentHashing() throws Exception {
+    SRSProvider provider = DefaultSRSProviderFactory.getInstance().createProvider(SRS.Type.SHORTCUT, ImmutableList.of("foo", "bar"));
+
+    String expected = provider.compile("example.com", "jdoe");
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    try {
+      List<Future<String>> results = IntStream
+        .range(0, 100)
+        .mapToObj(i -> executor.submit(() -> provider.compile("example.com", "jdoe")))
+        .collect(Collectors.toList());
+
+      for (Future<String> result : results) {
+        assertEquals(expected, result.get(), "Same hash on every thread");
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    // verify a hash made with the second secret
+    SRSProvider oldProvider = DefaultSRSProviderFactory.getInstance().createProvider(SRS.Type.SHORTCUT, ImmutableList.of("bar"));
+
+    assertEquals("jdoe", provider.parse(oldProvider.compile("example.com", "jdoe")).getUser());
+  }
+
+  @Test
+  public void hashCompatibility() throws Exception {
+    ShortCutSRSProvider provider = new ShortCutSRSProvider(ImmutableList.of("foo"), 27, 4, "=");
+
+    Mac mac = Mac.getInstance("HmacSHA1");
+    mac.init(new SecretKeySpec("foo".getBytes(), "HmacSHA1"));
+
+    String expected = Base64.getEncoder().encodeToString(mac.doFinal("zuexample.comjdoe".getBytes())).substring(0, 27);
+
+    assertEquals(expected, provider.createHash(ImmutableList.of("ZU", "Example.com", "JDoe")), "Hash matches the reference encoding");
+    assertFalse(provider.isHashInvalid(expected.toUpperCase(), "zu", "example.com", "jdoe"), "Hash verifies case insensitively");
+    assertTrue(provider.isHashInvalid(expected.substring(0, 26), "zu", "example.com", "jdoe"), "Truncated hash does not verify");
+  }
+
+  @Test
+  public void internationalizedHostHash() throws InvalidKeyException {
+    ShortCutSRSProvider provider = new ShortCutSRSProvider(ImmutableList.of("foo"), 4, 4, "=");
+
+    // SRS0=hash=TT=host=user
+    String[] fields = provider.compile("bücher.example", "jdoe").split("=");
+
+    assertEquals(fields[1], provider.createHash(ImmutableList.of(fields[2], "bücher.example", "jdoe")), "Same hash as compile");
+    assertEquals(fields[1], provider.createHash(ImmutableList.of(fields[2], "xn--bcher-kva.example", "jdoe")));
+    assertFalse(provider.isHashInvalid(fields[1], fields[2], "XN--BCHER-KVA.example", "jdoe"));
+    assertTrue(provider.isHashInvalid(fields[1], fields[2], "bucher.example", "jdoe"));
+  }
+
+  @Test
+  public void precomputedHmacs() throws Exception {
+    StringBuilder secret = new StringBuilder();
+    StringBuilder value = new StringBuilder();
+    SRSKey[] keys = new SRSKey[150];
+
+    for (int i = 0; i < keys.length; i++) keys[i] = new SRSKey(secret.append((char) ('a' + i % 26)).toString());
+
+    // keys longer than a block are hashed first, and messages that do or do not leave room for the padding
+    for (int length = 0; length < 200; length++) {
+      for (SRSHashAlgorithm algorithm : new SRSHashAlgorithm[] { SRSHashAlgorithm.HMAC_SHA1, SRSHashAlgorithm.HMAC_SHA256 }) {
+        String name = algorithm == SRSHashAlgorithm.HMAC_SHA1 ? "HmacSHA1" : "HmacSHA256";
+        SRSHash message = SRSHash.begin().update(value.toString().toUpperCase());
+
+        for (int k = 0; k < keys.length; k += 7) {
+          StringBuilder hash = new StringBuilder();
+
+          message.key(keys[k], algorithm).appendTo(hash, algorithm.maxHashLength());
+
+          String expected = Base64.getEncoder().withoutPadding().encodeToString(hmac(name, keys[k].getSecret(), value.toString()));
+          assertEquals(expected, hash.toString(), name + " with a " + (k + 1) + " byte key and " + length + " byte message");
+        }
+      }
+
+      value.append((char) ('0' + length % 10));
+    }
+  }
+
+  @Test
+  public void sipHashReferenceVectors() throws Exception {
+    byte[] key = new byte[16];
+    byte[] message = new byte[15];
+    for (int i = 0; i < key.length; i++) key[i] = (byte) i;
+    for (int i = 0; i < message.length; i++) message[i] = (byte) i;
+
+    Mac mac = new SipHashMac();
+    mac.init(new SecretKeySpec(key, "SipHash-2-4"));
+
+    // from the SipHash paper and its reference implementation
+    assertEquals(0xa129ca6149be45e5L, Long.reverseBytes(ByteBuffer.wrap(mac.doFinal(message)).getLong()));
+    assertEquals(0x726fdb47dd0e0e31L, Long.reverseBytes(ByteBuffer.wrap(mac.doFinal()).getLong()));
+
+    // fed a byte at a time, and from a clone
+    Mac copy = (Mac) mac.clone();
+    for (byte b : message) copy.update(b);
+    assertEquals(0xa129ca6149be45e5L, Long.reverseBytes(ByteBuffer.wrap(copy.doFinal()).getLong()));
+  }
+
+  @Test
+  public void hashAlgorithms() throws InvalidKeyException {
+    ShortCutSRSProvider sha256 = ShortCutSRSProvider
+      .builder()
+      .secrets(ImmutableList.of("foo"))
+      .hashLength(43)
+      .hashMinLength(4)
+      .separator("=")
+      .hashAlgorithm(SRSHashAlgorithm.HMAC_SHA256)
+      .build();
+
+    String expected = Base64.getEncoder().withoutPadding().encodeToString(hmac("HmacSHA256", "foo", "zuexample.comjdoe"));
+    assertEquals(expected, sha256.createHash(ImmutableList.of("ZU", "Example.com", "JDoe")), "Hash matches the reference encoding");
+
+    SRSProvider sha1 = DefaultSRSProviderFactory.getInstance().createProvider(SRS.Type.GUARDED, ImmutableList.of("foo"));
+
+    SRSProvider migrating = SRSProviderFactory
+      .builder()
+      .hashAlgorithm(SRSHashAlgorithm.SIPHASH)
+      .acceptedHashAlgorithms(ImmutableList.of(SRSHashAlgorithm.HMAC_SHA1))
+      .build()
+      .createProvider(SRS.Type.GUARDED, ImmutableList.of("foo"));
+    SRSProvider sipHashOnly = SRSProviderFactory
+      .builder()
+      .hashAlgorithm(SRSHashAlgorithm.SIPHASH)
+      .build()
+      .createProvider(SRS.Type.GUARDED, ImmutableList.of("foo"));
+
+    String old = sha1.compile("example.com", "jdoe");
+    String fresh = migrating.compile("example.com", "jdoe");
+
+    assertNotEquals(old, fresh);
+    assertEquals("jdoe", migrating.parse(old).getUser(), "HmacSHA1 hashes are accepted while migrating");
+    assertEquals("jdoe", migrating.parse(fresh).getUser());
+    assertEquals("jdoe", sipHashOnly.parse(fresh).getUser());
+    assertThrows(IllegalArgumentException.class, () -> sipHashOnly.parse(old));
+    assertThrows(IllegalArgumentException.class, () -> sha1.parse(fresh));
+
+    ShortCutSRSProvider.ShortCutSRSProviderBuilder<?, ?> tooLong = ShortCutSRSProvider
+      .builder()
+      .secrets(ImmutableList.of("foo"))
+      .hashLength(12)
+      .separator("=")
+      .hashAlgorithm(SRSHashAlgorithm.SIPHASH);
+    assertThrows(IllegalArgumentException.class, tooLong::build, "SipHash makes 11 characters at most");
+  }
+
+  private static byte[] hmac(String algorithm, String secret, String value) {
+    try {
+      Mac mac = Mac.getInstance(algorithm);
+      mac.init(new SecretKeySpec(secret.getBytes(), algorithm));
+      return mac.doFinal(value.getBytes());
+    } catch (Exception e) {
+      throw new AssertionError(e);
+    }
+  }
 }